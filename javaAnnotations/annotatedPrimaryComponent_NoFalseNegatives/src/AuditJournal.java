@@ -0,0 +1,762 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+// Durable, append-only journal for AUDIT events
+// The journal is a directory of segment files audit-<sequence>.jnl, each sized to segmentBytes up front and
+// mapped into memory; a writer reserves room for its record by bumping the segment's offset atomically and
+// copies the record straight into the mapping
+// Records become visible to the syncer in offset order: once copied, a writer waits for the writers ahead of
+// it to finish their copies, which takes no longer than a memory copy
+// A writer always publishes what it reserved: if its copy fails, the room is marked as a hole (the negated
+// payload length and HOLE in place of the CRC) that readers skip, so the writers behind it never wait forever
+// A single syncer thread forces the mapping to disk and releases the appends it covered; appends arriving
+// while it forces share the next force (group commit), and append() returns once its record is on disk
+// With syncMillis 0 the syncer starts as soon as an append waits; otherwise appends gather for up to
+// syncMillis, or until syncBytes are waiting, to make larger groups at the cost of latency
+// A segment starts with MAGIC, VERSION and its state; records follow as the payload length, the CRC32 of the
+// payload and the payload (type, target, timestamp, message, description); a length of 0 ends a segment
+// A segment is marked SEALED once it has been rolled or closed with every record on disk
+// A journal holds an exclusive lock on the segment it writes until it seals it, so journals sharing a directory,
+// in this process or another, never touch a segment in use
+// Every run starts a new segment; on open, unsealed segments left by an earlier run are cut off before their
+// first torn record, so a crash in the middle of a write never leaves half a record behind
+// On open and after every roll, sealed segments are deleted oldest first once older than retentionMillis, or
+// while the journal holds more than retentionBytes (0 keeps them); a segment in use is never cut or deleted
+
+final class AuditJournal {
+
+	static final byte[] MAGIC = { 'M', 'C', 'A', 'J' };
+	static final int VERSION = 1;
+	static final String SEGMENT_PREFIX = "audit-";
+	static final String SEGMENT_SUFFIX = ".jnl";
+	static final int OPEN = 0;
+	static final int SEALED = 1;
+	static final int STATE_OFFSET = MAGIC.length + 4;
+
+	private static final int SEGMENT_HEADER_BYTES = STATE_OFFSET + 4;
+	private static final int RECORD_HEADER_BYTES = 8;
+	private static final int MINIMUM_SEGMENT_BYTES = 64 * 1024;
+	private static final int MAGIC_INT = ByteBuffer.wrap(MAGIC).getInt();
+	private static final int HOLE = 0x484f4c45;
+
+	// A mapped segment file; offsets below are relative to the start of the file
+	private static final class Segment
+	{
+		final long base;
+		final int capacity;
+		final RandomAccessFile file;
+		final MappedByteBuffer buffer;
+		final AtomicLong reserved = new AtomicLong(SEGMENT_HEADER_BYTES);
+		// End of the records copied in completely, in offset order
+		volatile long committed = SEGMENT_HEADER_BYTES;
+		// End of the records forced to disk; written by whoever holds the journal's sync lock
+		volatile long synced = 0;
+
+		Segment(File path, long base, int capacity) throws IOException
+		{
+			this.base = base;
+			this.capacity = capacity;
+			this.file = new RandomAccessFile(path, "rw");
+			try
+			{
+				// Another journal's recovery may be looking at the new, empty file; it lets go at once
+				while (tryLock(file) == null)
+					Thread.yield();
+				file.setLength(capacity);
+				buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+			}
+			catch (IOException e)
+			{
+				// Closing the file releases its lock
+				file.close();
+				throw e;
+			}
+			buffer.put(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(OPEN);
+		}
+
+		void seal()
+		{
+			buffer.putInt(STATE_OFFSET, SEALED);
+			buffer.force();
+		}
+
+		void copy(long offset, byte[] record)
+		{
+			ByteBuffer target = buffer.duplicate();
+			target.position((int) offset);
+			target.put(record);
+		}
+
+		// Marks a reservation whose copy failed; absolute puts, so nothing is allocated
+		void markHole(long offset, int length)
+		{
+			buffer.putInt((int) offset, -(length - RECORD_HEADER_BYTES));
+			buffer.putInt((int) offset + 4, HOLE);
+		}
+
+		// Waits for the writers ahead of offset to finish, then makes this record visible; every writer reaching
+		// publish() for what it reserved bounds the wait
+		void publish(long offset, long end)
+		{
+			while (committed != offset)
+				Thread.yield();
+			committed = end;
+		}
+	}
+
+	private final File directory;
+	private final int segmentBytes;
+	private final long syncBytes;
+	private final boolean syncAtOnce;
+	private final long retentionMillis;
+	private final long retentionBytes;
+	private final Thread syncer;
+	private final Object syncLock = new Object();
+	private final Object durableMonitor = new Object();
+
+	private volatile Segment current;
+	private volatile boolean closed;
+	private volatile long durable;
+	private int sequence;
+
+	// Appends between their check of closed and the end of their copy; close() waits for them before it
+	// cuts the mapped file, as touching a mapping past the end of its file kills the process
+	private final AtomicInteger appending = new AtomicInteger();
+
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong recordBytes = new AtomicLong();
+	private final AtomicLong syncs = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong truncated = new AtomicLong();
+	private final AtomicLong deleted = new AtomicLong();
+
+	AuditJournal(File directory, long segmentBytes, final long syncMillis, long syncBytes, long retentionMillis,
+			long retentionBytes) throws IOException
+	{
+		this.directory = directory;
+		this.segmentBytes = (int) Math.min(Integer.MAX_VALUE, Math.max(MINIMUM_SEGMENT_BYTES, segmentBytes));
+		this.syncBytes = Math.max(1, syncBytes);
+		this.syncAtOnce = syncMillis <= 0;
+		this.retentionMillis = retentionMillis;
+		this.retentionBytes = retentionBytes;
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create " + directory);
+
+		recover();
+		deleteExpired();
+		current = createSegment(0);
+
+		syncer = new DaemonThreadFactory("audit-journal-sync").newThread(new Runnable() {
+			public void run()
+			{
+				long intervalNanos = TimeUnit.MILLISECONDS.toNanos(syncMillis);
+				while (!closed)
+				{
+					if (syncAtOnce)
+						LockSupport.park();
+					else
+						LockSupport.parkNanos(intervalNanos);
+					sync();
+				}
+			}
+		});
+		syncer.start();
+	}
+
+	// Appends an AUDIT event and returns once it is on disk: 0 when written, 1 if it could not be
+	int append(LogEvent event)
+	{
+		byte[] record = encode(event);
+		if (record.length > segmentBytes - SEGMENT_HEADER_BYTES)
+		{
+			System.err.println("Audit record of " + record.length + " bytes does not fit a journal segment");
+			return 1;
+		}
+
+		long end;
+		appending.incrementAndGet();
+		try
+		{
+			if (closed)
+				return 1;
+			end = reserveAndCopy(record);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Audit journal append failed: " + e.getMessage());
+			return 1;
+		}
+		finally
+		{
+			appending.decrementAndGet();
+		}
+		records.incrementAndGet();
+		recordBytes.addAndGet(record.length);
+		awaitDurable(end);
+		return 0;
+	}
+
+	// Forces what is left to disk, stops the syncer and cuts the current segment to its records
+	void close()
+	{
+		closed = true;
+		LockSupport.unpark(syncer);
+		boolean interrupted = false;
+		while (syncer.isAlive())
+		{
+			try
+			{
+				syncer.join();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		while (appending.get() != 0)
+			Thread.yield();
+		sync();
+		synchronized (syncLock)
+		{
+			Segment segment = current;
+			try
+			{
+				segment.seal();
+				segment.file.setLength(segment.synced);
+				segment.file.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Audit journal segment not closed: " + e.getMessage());
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	public String toString()
+	{
+		long syncCount = syncs.get();
+		return "audit journal: records = " + records.get() + " bytes = " + recordBytes.get() + " syncs = " + syncCount +
+				" records per sync = " + ((syncCount == 0) ? 0 : records.get() / syncCount) +
+				" recovered segments = " + recovered.get() + " torn bytes truncated = " + truncated.get() +
+				" segments deleted = " + deleted.get();
+	}
+
+	private long reserveAndCopy(byte[] record) throws IOException
+	{
+		while (true)
+		{
+			Segment segment = current;
+			long offset = segment.reserved.getAndAdd(record.length);
+			long end = offset + record.length;
+			if (end <= segment.capacity)
+			{
+				boolean copied = false;
+				try
+				{
+					segment.copy(offset, record);
+					copied = true;
+				}
+				finally
+				{
+					if (!copied)
+						segment.markHole(offset, record.length);
+					segment.publish(offset, end);
+				}
+				if (syncAtOnce || (end - segment.synced >= syncBytes))
+					LockSupport.unpark(syncer);
+				return segment.base + end;
+			}
+			// The one reservation that crosses the end rolls the segment; later ones wait for the new segment
+			if (offset <= segment.capacity)
+				roll(segment, offset);
+			while ((current == segment) && !closed)
+				Thread.yield();
+			if (closed)
+				throw new IOException("journal closed");
+		}
+	}
+
+	private void roll(Segment segment, long sealedAt)
+	{
+		// Everything below sealedAt is reserved; wait for it to be copied in
+		while (segment.committed != sealedAt)
+			Thread.yield();
+		synchronized (syncLock)
+		{
+			Segment next = null;
+			try
+			{
+				forceSegment(segment);
+				next = createSegment(segment.base + segment.capacity);
+			}
+			catch (IOException e)
+			{
+				System.err.println("Audit journal cannot start a segment: " + e.getMessage());
+			}
+			finally
+			{
+				// Writers waiting for the roll must always be released; without a new segment the journal
+				// closes and later AUDIT events only go through the event writers
+				if (next != null)
+					current = next;
+				else
+					closed = true;
+			}
+			segment.seal();
+			try
+			{
+				segment.file.close();
+			}
+			catch (IOException e)
+			{
+				System.err.println("Audit journal segment not closed: " + e.getMessage());
+			}
+		}
+		deleteExpired();
+	}
+
+	// Syncs the current segment; a rolled segment was synced by the roll
+	private void sync()
+	{
+		synchronized (syncLock)
+		{
+			forceSegment(current);
+		}
+	}
+
+	private void forceSegment(Segment segment)
+	{
+		long committed = segment.committed;
+		if (committed > segment.synced)
+		{
+			segment.buffer.force();
+			segment.synced = committed;
+			syncs.incrementAndGet();
+		}
+		synchronized (durableMonitor)
+		{
+			durable = Math.max(durable, segment.base + segment.synced);
+			durableMonitor.notifyAll();
+		}
+	}
+
+	// Every copied record is forced by the syncer or by the last sync of close()
+	private void awaitDurable(long end)
+	{
+		boolean interrupted = false;
+		synchronized (durableMonitor)
+		{
+			while (durable < end)
+			{
+				try
+				{
+					durableMonitor.wait();
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	// Claims the next sequence number with a new file, so journals sharing a directory never share a segment
+	private Segment createSegment(long base) throws IOException
+	{
+		while (true)
+		{
+			File path = new File(directory, segmentName(++sequence));
+			if (path.createNewFile())
+				return new Segment(path, base, segmentBytes);
+		}
+	}
+
+	static String segmentName(int sequence)
+	{
+		return SEGMENT_PREFIX + String.format("%06d", Integer.valueOf(sequence)) + SEGMENT_SUFFIX;
+	}
+
+	// Cuts every segment an earlier run did not seal after its last intact record, and seals it
+	// A segment locked by a journal still writing it is left alone
+	private void recover() throws IOException
+	{
+		String[] names = segmentNames(directory);
+		for (int index = 0; index < names.length; index++)
+		{
+			File path = new File(directory, names[index]);
+			sequence = Math.max(sequence, sequenceOf(names[index]));
+			RandomAccessFile file = new RandomAccessFile(path, "rw");
+			try
+			{
+				if ((tryLock(file) == null) || isSealed(file))
+					continue;
+				long validEnd = scan(path);
+				long end = lastNonZero(file, validEnd);
+				if (validEnd == 0)
+				{
+					// Created just before a crash, before its header reached the disk
+					if (end == 0)
+						file.setLength(0);
+					else
+						System.err.println(path + ": not an audit journal segment");
+					continue;
+				}
+				truncated.addAndGet(end - validEnd);
+				file.setLength(validEnd);
+				file.seek(STATE_OFFSET);
+				file.writeInt(SEALED);
+				file.getFD().sync();
+				recovered.incrementAndGet();
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+	}
+
+	// An exclusive lock on the whole file, held until the file is closed; null while another journal holds it
+	private static FileLock tryLock(RandomAccessFile file) throws IOException
+	{
+		try
+		{
+			return file.getChannel().tryLock();
+		}
+		catch (OverlappingFileLockException e)
+		{
+			// Held by a journal in this process
+			return null;
+		}
+	}
+
+	private static boolean isSealed(RandomAccessFile file) throws IOException
+	{
+		file.seek(0);
+		return (file.length() >= SEGMENT_HEADER_BYTES) && (file.readInt() == MAGIC_INT) && (file.readInt() == VERSION) &&
+				(file.readInt() == SEALED);
+	}
+
+	// Deletes sealed segments, oldest first, past their age or while the journal is over its size
+	// Segments in use are skipped; otherwise it stops at the first segment it keeps, so what is left is always the
+	// most recent part of the journal
+	private void deleteExpired()
+	{
+		if ((retentionMillis <= 0) && (retentionBytes <= 0))
+			return;
+		String[] names = segmentNames(directory);
+		long total = 0;
+		for (int index = 0; index < names.length; index++)
+			total += new File(directory, names[index]).length();
+		long oldestKept = System.currentTimeMillis() - retentionMillis;
+		for (int index = 0; index < names.length; index++)
+		{
+			File path = new File(directory, names[index]);
+			boolean expired = (retentionMillis > 0) && (path.lastModified() < oldestKept);
+			boolean oversize = (retentionBytes > 0) && (total > retentionBytes);
+			if (!expired && !oversize)
+				break;
+			boolean inUse;
+			try
+			{
+				RandomAccessFile file = new RandomAccessFile(path, "rw");
+				try
+				{
+					// Being written, by this journal or another one sharing the directory
+					inUse = (tryLock(file) == null) || !isSealed(file);
+				}
+				finally
+				{
+					file.close();
+				}
+			}
+			catch (IOException e)
+			{
+				System.err.println("Audit journal segment not deleted: " + e.getMessage());
+				break;
+			}
+			if (inUse)
+				continue;
+			long length = path.length();
+			if (!path.delete())
+				break;
+			total -= length;
+			deleted.incrementAndGet();
+		}
+	}
+
+	// End of the last intact record of a segment, or 0 when its header is damaged
+	private static long scan(File path) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+		try
+		{
+			if (!readHeader(in))
+				return 0;
+			RecordReader reader = new RecordReader(in);
+			while (reader.next() != null)
+				continue;
+			return reader.end;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	// Reads the records of a segment after its header, skipping holes; shared by recovery and the printer, so
+	// both stop at the same record
+	private static final class RecordReader
+	{
+		private final DataInputStream in;
+		// End of the last intact record or hole
+		long end = SEGMENT_HEADER_BYTES;
+
+		RecordReader(DataInputStream in)
+		{
+			this.in = in;
+		}
+
+		// The payload of the next intact record, or null at the end of the records
+		byte[] next() throws IOException
+		{
+			try
+			{
+				while (true)
+				{
+					int length = in.readInt();
+					if ((length == 0) || (length == Integer.MIN_VALUE))
+						return null;
+					int crc = in.readInt();
+					if (length < 0)
+					{
+						if ((crc != HOLE) || !skip(-length))
+							return null;
+						end += RECORD_HEADER_BYTES - length;
+						continue;
+					}
+					byte[] payload = new byte[length];
+					in.readFully(payload);
+					CRC32 checksum = new CRC32();
+					checksum.update(payload);
+					if ((int) checksum.getValue() != crc)
+						return null;
+					end += RECORD_HEADER_BYTES + length;
+					return payload;
+				}
+			}
+			catch (EOFException e)
+			{
+				return null;
+			}
+		}
+
+		private boolean skip(int bytes) throws IOException
+		{
+			while (bytes > 0)
+			{
+				int skipped = in.skipBytes(bytes);
+				if (skipped <= 0)
+					return false;
+				bytes -= skipped;
+			}
+			return true;
+		}
+	}
+
+	private static boolean readHeader(DataInputStream in) throws IOException
+	{
+		byte[] magic = new byte[MAGIC.length];
+		try
+		{
+			in.readFully(magic);
+			if (!Arrays.equals(magic, MAGIC) || (in.readInt() != VERSION))
+				return false;
+			in.readInt();
+			return true;
+		}
+		catch (EOFException e)
+		{
+			return false;
+		}
+	}
+
+	private static long lastNonZero(RandomAccessFile file, long from) throws IOException
+	{
+		byte[] block = new byte[64 * 1024];
+		long end = from;
+		file.seek(from);
+		long position = from;
+		int count;
+		while ((count = file.read(block)) > 0)
+		{
+			for (int index = 0; index < count; index++)
+			{
+				if (block[index] != 0)
+					end = position + index + 1;
+			}
+			position += count;
+		}
+		return end;
+	}
+
+	private static byte[] encode(LogEvent event)
+	{
+		byte[] message = bytes(event.getMessage());
+		String description = event.getDescription();
+		byte[] distinctDescription = ((description == null) || description.equals(event.getMessage())) ? null : bytes(description);
+		int payloadLength = 2 + 8 + stringLength(message) + stringLength(distinctDescription);
+
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + payloadLength);
+		record.position(RECORD_HEADER_BYTES);
+		record.put((byte) event.getEventType());
+		record.put((byte) event.getCategory());
+		record.putLong(event.getTimestamp());
+		putString(record, message);
+		putString(record, distinctDescription);
+
+		CRC32 checksum = new CRC32();
+		checksum.update(record.array(), RECORD_HEADER_BYTES, payloadLength);
+		record.putInt(0, payloadLength);
+		record.putInt(4, (int) checksum.getValue());
+		return record.array();
+	}
+
+	private static EventLogDecoder.Entry decode(byte[] payload)
+	{
+		ByteBuffer in = ByteBuffer.wrap(payload);
+		int eventType = in.get();
+		int category = in.get();
+		long timestamp = in.getLong();
+		String message = getString(in);
+		String description = getString(in);
+		return new EventLogDecoder.Entry(eventType, category, timestamp, message, (description == null) ? message : description);
+	}
+
+	private static byte[] bytes(String value)
+	{
+		return (value == null) ? null : value.getBytes(BinaryEventLog.UTF_8);
+	}
+
+	private static int stringLength(byte[] value)
+	{
+		return 4 + ((value == null) ? 0 : value.length);
+	}
+
+	// Length -1 stands for null
+	private static void putString(ByteBuffer out, byte[] value)
+	{
+		if (value == null)
+		{
+			out.putInt(-1);
+			return;
+		}
+		out.putInt(value.length);
+		out.put(value);
+	}
+
+	private static String getString(ByteBuffer in)
+	{
+		int length = in.getInt();
+		if (length < 0)
+			return null;
+		String value = new String(in.array(), in.position(), length, BinaryEventLog.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	private static String[] segmentNames(File directory)
+	{
+		String[] names = directory.list();
+		if (names == null)
+			return new String[0];
+		int count = 0;
+		for (int index = 0; index < names.length; index++)
+		{
+			if (sequenceOf(names[index]) > 0)
+				names[count++] = names[index];
+		}
+		names = Arrays.copyOf(names, count);
+		Arrays.sort(names);
+		return names;
+	}
+
+	private static int sequenceOf(String name)
+	{
+		if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+			return 0;
+		try
+		{
+			return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		}
+		catch (NumberFormatException e)
+		{
+			return 0;
+		}
+	}
+
+	// Every intact record in a journal directory, segment by segment
+	static List<EventLogDecoder.Entry> read(File directory) throws IOException
+	{
+		List<EventLogDecoder.Entry> entries = new ArrayList<EventLogDecoder.Entry>();
+		String[] names = segmentNames(directory);
+		for (int index = 0; index < names.length; index++)
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(new File(directory, names[index]))));
+			try
+			{
+				if (!readHeader(in))
+				{
+					System.err.println(names[index] + ": not a journal segment");
+					continue;
+				}
+				RecordReader reader = new RecordReader(in);
+				byte[] payload;
+				while ((payload = reader.next()) != null)
+					entries.add(decode(payload));
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		return entries;
+	}
+
+	// Usage: java AuditJournal <journal directory>
+	// Prints every intact record in the same form as EventLogDecoder
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 1)
+		{
+			System.err.println("usage: AuditJournal <journal directory>");
+			System.exit(2);
+		}
+		List<EventLogDecoder.Entry> entries = read(new File(args[0]));
+		for (int index = 0; index < entries.size(); index++)
+			System.out.println(entries.get(index));
+	}
+}
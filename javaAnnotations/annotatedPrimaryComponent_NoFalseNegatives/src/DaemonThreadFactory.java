@@ -0,0 +1,22 @@
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Creates named daemon threads so background work never keeps the process alive
+
+final class DaemonThreadFactory implements ThreadFactory {
+
+	private final String namePrefix;
+	private final AtomicInteger threadNumber = new AtomicInteger();
+
+	DaemonThreadFactory(String namePrefix)
+	{
+		this.namePrefix = namePrefix;
+	}
+
+	public Thread newThread(Runnable runnable)
+	{
+		Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,295 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Sends emergency broadcasts from a background thread so callers never wait on the paging gateway
+// The first occurrence of a message is paged as soon as the rate limit allows; repeats submitted within the
+// coalescing window after a page go out as a single page carrying their count once the window has passed
+// Pages are rate limited by a token bucket: up to burst pages at once, then one more every refill period
+// A message waiting for a token keeps coalescing repeats; when maximumPending distinct messages are
+// already waiting, further ones are counted and reported in a summary page instead of being dropped
+// Once close() has been called nothing would page a new message later, so it is paged on the caller's thread
+
+final class EmergencyDispatcher {
+
+	interface Broadcaster
+	{
+		int broadcast(String message);
+
+		void broadcastFailed(RuntimeException e);
+	}
+
+	private static final class Pending
+	{
+		final long dueNanos;
+		int count = 1;
+
+		Pending(long dueNanos)
+		{
+			this.dueNanos = dueNanos;
+		}
+	}
+
+	private final Broadcaster broadcaster;
+	private final long windowNanos;
+	private final int burst;
+	private final long refillNanos;
+	private final int maximumPending;
+	private final Thread dispatcherThread;
+
+	// Waiting messages in submission order, and everything below, guarded by this
+	private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+	// Messages paged within the last window, oldest first, with the end of their window; the rate limit bounds it
+	private final Map<String, Long> recent = new LinkedHashMap<String, Long>();
+	private int overflowed;
+	private long overflowDueNanos;
+	private double tokens;
+	private long lastRefillNanos = System.nanoTime();
+	private boolean closed;
+
+	private long submitted;
+	private long coalesced;
+	private long pages;
+	private long summarized;
+	private long pagedAfterClose;
+
+	EmergencyDispatcher(String name, Broadcaster broadcaster, long windowMillis, int burst, long refillMillis, int maximumPending)
+	{
+		if (burst < 1)
+			throw new IllegalArgumentException("burst must be positive");
+		this.broadcaster = broadcaster;
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, windowMillis));
+		this.burst = burst;
+		this.refillNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, refillMillis));
+		this.maximumPending = Math.max(1, maximumPending);
+		this.tokens = burst;
+		this.dispatcherThread = new DaemonThreadFactory(name).newThread(new Runnable() {
+			public void run()
+			{
+				dispatch();
+			}
+		});
+		dispatcherThread.start();
+	}
+
+	// Never blocks on the gateway until close() has been called
+	void submit(String message)
+	{
+		if ((message == null) || (message.length() == 0))
+			return;
+		synchronized (this)
+		{
+			submitted++;
+			Pending waiting = pending.get(message);
+			if (waiting != null)
+			{
+				// Still waiting, so the dispatcher thread pages it, close() or not
+				waiting.count++;
+				coalesced++;
+				return;
+			}
+			if (!closed)
+			{
+				enqueue(message);
+				return;
+			}
+			pagedAfterClose++;
+			pages++;
+		}
+		// The dispatcher thread has sent, or is sending, its final page
+		send(message);
+	}
+
+	// Sends what the rate limit allows right away; whatever is left goes out as one final summary page
+	void close()
+	{
+		synchronized (this)
+		{
+			closed = true;
+			notifyAll();
+		}
+		boolean interrupted = false;
+		while (dispatcherThread.isAlive())
+		{
+			try
+			{
+				dispatcherThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	public synchronized String toString()
+	{
+		return "emergency dispatcher: submitted = " + submitted + " coalesced = " + coalesced + " pages = " + pages +
+				" summarized = " + summarized + " paged after close = " + pagedAfterClose;
+	}
+
+	private void enqueue(String message)
+	{
+		long now = System.nanoTime();
+		if (pending.size() >= maximumPending)
+		{
+			// The summary coalesces like any other message
+			if (overflowed++ == 0)
+				overflowDueNanos = now + windowNanos;
+			notifyAll();
+			return;
+		}
+		// A repeat of a message paged within the window waits for the window to pass; anything else is due now
+		expireRecent(now);
+		Long windowEnd = recent.get(message);
+		pending.put(message, new Pending((windowEnd != null) ? windowEnd.longValue() : now));
+		notifyAll();
+	}
+
+	// Pages are sent outside the lock, so submitters never wait on the gateway, the final summary included
+	private void dispatch()
+	{
+		boolean last = false;
+		while (!last)
+		{
+			String page;
+			synchronized (this)
+			{
+				page = nextPage();
+				if (page == null)
+				{
+					if (closed)
+					{
+						page = finalSummary();
+						if (page == null)
+							return;
+						last = true;
+					}
+					else
+					{
+						try
+						{
+							waitForWork();
+						}
+						catch (InterruptedException e)
+						{
+							closed = true;
+						}
+						continue;
+					}
+				}
+			}
+			send(page);
+		}
+	}
+
+	// The oldest message that is due, else a due overflow summary, if a token is available
+	private String nextPage()
+	{
+		long now = System.nanoTime();
+		refill(now);
+		if (tokens < 1)
+			return null;
+
+		for (Iterator<Map.Entry<String, Pending>> entries = pending.entrySet().iterator(); entries.hasNext();)
+		{
+			Map.Entry<String, Pending> entry = entries.next();
+			if (closed || (entry.getValue().dueNanos - now <= 0))
+			{
+				entries.remove();
+				tokens--;
+				pages++;
+				expireRecent(now);
+				recent.remove(entry.getKey());
+				recent.put(entry.getKey(), Long.valueOf(now + windowNanos));
+				return describe(entry.getKey(), entry.getValue().count);
+			}
+		}
+		if ((overflowed > 0) && (closed || (overflowDueNanos - now <= 0)))
+		{
+			tokens--;
+			pages++;
+			return summary();
+		}
+		return null;
+	}
+
+	// Called on close once no tokens are left: one page for everything still waiting
+	private String finalSummary()
+	{
+		for (Iterator<Pending> waiting = pending.values().iterator(); waiting.hasNext();)
+		{
+			overflowed += waiting.next().count;
+			waiting.remove();
+		}
+		if (overflowed == 0)
+			return null;
+		pages++;
+		return summary();
+	}
+
+	private String summary()
+	{
+		String page = overflowed + " further emergency message" + ((overflowed == 1) ? "" : "s") + " not paged individually";
+		summarized += overflowed;
+		overflowed = 0;
+		return page;
+	}
+
+	private String describe(String message, int count)
+	{
+		if (count == 1)
+			return message;
+		return message + " [" + count + " times within " + TimeUnit.NANOSECONDS.toMillis(windowNanos) + " ms]";
+	}
+
+	// Sleeps until something is due and a token is available
+	private void waitForWork() throws InterruptedException
+	{
+		if (pending.isEmpty() && (overflowed == 0))
+		{
+			wait();
+			return;
+		}
+		long now = System.nanoTime();
+		long untilDue = Long.MAX_VALUE;
+		for (Iterator<Pending> waiting = pending.values().iterator(); waiting.hasNext();)
+			untilDue = Math.min(untilDue, waiting.next().dueNanos - now);
+		if (overflowed > 0)
+			untilDue = Math.min(untilDue, overflowDueNanos - now);
+		long untilToken = (tokens >= 1) ? 0 : (long) ((1 - tokens) * refillNanos);
+		TimeUnit.NANOSECONDS.timedWait(this, Math.max(1, Math.max(untilToken, untilDue)));
+	}
+
+	// Windows all have the same length, so the oldest entries end first
+	private void expireRecent(long now)
+	{
+		for (Iterator<Long> windows = recent.values().iterator(); windows.hasNext();)
+		{
+			if (windows.next().longValue() - now > 0)
+				return;
+			windows.remove();
+		}
+	}
+
+	private void refill(long now)
+	{
+		tokens = Math.min(burst, tokens + (double) (now - lastRefillNanos) / refillNanos);
+		lastRefillNanos = now;
+	}
+
+	private void send(String page)
+	{
+		try
+		{
+			broadcaster.broadcast(page);
+		}
+		catch (RuntimeException e)
+		{
+			broadcaster.broadcastFailed(e);
+		}
+	}
+}
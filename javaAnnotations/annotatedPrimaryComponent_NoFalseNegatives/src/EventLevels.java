@@ -0,0 +1,238 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.InvalidAttributeValueException;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+// Which event types are recorded for which event target
+// Every pair is one bit of a single volatile mask, so checking a level costs one volatile read
+// Levels start from mainComponent.events.disabled, a comma separated list of <type> (all targets) or
+// <target>.<type> entries such as "debug" or "reports.info", and can be changed at runtime over JMX
+// through the writable boolean attributes <target>.<type>
+// Durable targets keep every type enabled, so nothing can switch off the audit trail
+
+final class EventLevels implements DynamicMBean {
+
+	static final String OBJECT_NAME = "MainComponent:type=EventLevels";
+
+	private static final String[] TYPES = LogEvent.TYPE_NAMES;
+	private static final PartitionedEventWriter.Target[] TARGETS = PartitionedEventWriter.Target.values();
+
+	// Bit category * TYPES.length + eventType is set when the pair is enabled
+	private volatile long enabled;
+	private MBeanInfo info;
+
+	EventLevels(String disabled, boolean registerMBean)
+	{
+		enabled = (1L << (TARGETS.length * TYPES.length)) - 1;
+		if (disabled != null)
+		{
+			String[] entries = disabled.split(",");
+			for (int index = 0; index < entries.length; index++)
+			{
+				String entry = entries[index].trim().toLowerCase();
+				if ((entry.length() != 0) && !disable(entry))
+					System.err.println("Ignoring unknown event level: " + entry);
+			}
+		}
+
+		if (registerMBean)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e)
+			{
+				System.err.println("event levels not registered: " + e.getMessage());
+			}
+		}
+	}
+
+	// Types and targets this class does not know are always enabled
+	boolean isEnabled(int eventType, int category)
+	{
+		if ((eventType < 0) || (eventType >= TYPES.length) || (category < 0) || (category >= TARGETS.length))
+			return true;
+		return (enabled & bit(eventType, category)) != 0;
+	}
+
+	// Returns false when the change was refused because the target is durable
+	synchronized boolean setEnabled(int eventType, int category, boolean value)
+	{
+		if (!value && TARGETS[category].durable)
+			return false;
+		if (value)
+			enabled |= bit(eventType, category);
+		else
+			enabled &= ~bit(eventType, category);
+		return true;
+	}
+
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder("event levels: disabled =");
+		int disabledCount = 0;
+		for (int category = 0; category < TARGETS.length; category++)
+		{
+			for (int eventType = 0; eventType < TYPES.length; eventType++)
+			{
+				if (!isEnabled(eventType, category))
+				{
+					report.append(' ').append(name(eventType, category));
+					disabledCount++;
+				}
+			}
+		}
+		if (disabledCount == 0)
+			report.append(" none");
+		return report.toString();
+	}
+
+	private static long bit(int eventType, int category)
+	{
+		return 1L << (category * TYPES.length + eventType);
+	}
+
+	private static String name(int eventType, int category)
+	{
+		return TARGETS[category].key + "." + TYPES[eventType];
+	}
+
+	private static int typeOf(String name)
+	{
+		for (int eventType = 0; eventType < TYPES.length; eventType++)
+		{
+			if (TYPES[eventType].equals(name))
+				return eventType;
+		}
+		return -1;
+	}
+
+	private static int targetOf(String name)
+	{
+		for (int category = 0; category < TARGETS.length; category++)
+		{
+			if (TARGETS[category].key.equals(name))
+				return category;
+		}
+		return -1;
+	}
+
+	// A bare type disables it on every target that allows it
+	private boolean disable(String entry)
+	{
+		int separator = entry.indexOf('.');
+		int eventType = typeOf(entry.substring(separator + 1));
+		if (eventType < 0)
+			return false;
+		if (separator < 0)
+		{
+			for (int category = 0; category < TARGETS.length; category++)
+				setEnabled(eventType, category, false);
+			return true;
+		}
+		int category = targetOf(entry.substring(0, separator));
+		if (category < 0)
+			return false;
+		if (!setEnabled(eventType, category, false))
+			System.err.println("Ignoring event level " + entry + ": " + TARGETS[category].key + " is durable");
+		return true;
+	}
+
+	// DynamicMBean: one writable boolean attribute per target and type
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException
+	{
+		int separator = attribute.indexOf('.');
+		int category = (separator > 0) ? targetOf(attribute.substring(0, separator)) : -1;
+		int eventType = (separator > 0) ? typeOf(attribute.substring(separator + 1)) : -1;
+		if ((category < 0) || (eventType < 0))
+			throw new AttributeNotFoundException(attribute);
+		return Boolean.valueOf(isEnabled(eventType, category));
+	}
+
+	public AttributeList getAttributes(String[] attributes)
+	{
+		AttributeList values = new AttributeList();
+		for (int index = 0; index < attributes.length; index++)
+		{
+			try
+			{
+				values.add(new Attribute(attributes[index], getAttribute(attributes[index])));
+			}
+			catch (AttributeNotFoundException e)
+			{
+				// Unknown attributes are left out of the list, as the interface allows
+			}
+		}
+		return values;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException, InvalidAttributeValueException
+	{
+		String name = attribute.getName();
+		int separator = name.indexOf('.');
+		int category = (separator > 0) ? targetOf(name.substring(0, separator)) : -1;
+		int eventType = (separator > 0) ? typeOf(name.substring(separator + 1)) : -1;
+		if ((category < 0) || (eventType < 0))
+			throw new AttributeNotFoundException(name);
+		if (!(attribute.getValue() instanceof Boolean))
+			throw new InvalidAttributeValueException(name + " takes a boolean");
+		if (!setEnabled(eventType, category, ((Boolean) attribute.getValue()).booleanValue()))
+			throw new InvalidAttributeValueException(TARGETS[category].key + " is durable and cannot be disabled");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes)
+	{
+		AttributeList values = new AttributeList();
+		for (int index = 0; index < attributes.size(); index++)
+		{
+			Attribute attribute = (Attribute) attributes.get(index);
+			try
+			{
+				setAttribute(attribute);
+				values.add(attribute);
+			}
+			catch (JMException e)
+			{
+				// Attributes that could not be set are left out of the list, as the interface allows
+			}
+		}
+		return values;
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+	{
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public synchronized MBeanInfo getMBeanInfo()
+	{
+		if (info == null)
+		{
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[TARGETS.length * TYPES.length];
+			for (int category = 0; category < TARGETS.length; category++)
+			{
+				for (int eventType = 0; eventType < TYPES.length; eventType++)
+				{
+					attributes[category * TYPES.length + eventType] = new MBeanAttributeInfo(name(eventType, category),
+							"boolean", "whether these events are recorded", true, !TARGETS[category].durable, true);
+				}
+			}
+			info = new MBeanInfo(getClass().getName(), "Event types recorded per MainComponent event target",
+					attributes, new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+		return info;
+	}
+}
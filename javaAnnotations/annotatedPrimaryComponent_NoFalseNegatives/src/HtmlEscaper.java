@@ -0,0 +1,102 @@
+// Single pass HTML encoder for data shown in the user's browser
+// Values that need no escaping are returned as the same String instance, so callers can detect
+// changes with an identity check and clean data costs one scan and no allocation
+// Values that do need escaping are written into one buffer sized exactly for the result
+
+final class HtmlEscaper {
+
+	// Bit c is set for every character c below 64 that must be replaced: " & ' < >
+	private static final long ESCAPED_CHARACTERS =
+			(1L << '"') | (1L << '&') | (1L << '\'') | (1L << '<') | (1L << '>');
+
+	private HtmlEscaper()
+	{
+	}
+
+	static boolean needsEscaping(char c)
+	{
+		return (c < 64) && (((ESCAPED_CHARACTERS >>> c) & 1L) != 0);
+	}
+
+	// Replacement text for a character that needs escaping
+	static String entityFor(char c)
+	{
+		switch (c)
+		{
+			case '<':
+				return "&lt;";
+			case '>':
+				return "&gt;";
+			case '&':
+				return "&amp;";
+			case '"':
+				return "&quot;";
+			case '\'':
+				return "&#39;";
+			default:
+				return null;
+		}
+	}
+
+	// Returns value itself when nothing needs escaping, otherwise a new escaped String
+	static String escape(String value)
+	{
+		if (value == null)
+			return null;
+
+		int length = value.length();
+		int first = 0;
+		while ((first < length) && !needsEscaping(value.charAt(first)))
+			first++;
+		if (first == length)
+			return value;
+
+		// Size the buffer exactly: every escaped character grows by its entity length minus one
+		int escapedLength = length;
+		for (int index = first; index < length; index++)
+		{
+			char c = value.charAt(index);
+			if (needsEscaping(c))
+				escapedLength += entityFor(c).length() - 1;
+		}
+
+		char[] buffer = new char[escapedLength];
+		value.getChars(0, first, buffer, 0);
+		int position = first;
+		for (int index = first; index < length; index++)
+		{
+			char c = value.charAt(index);
+			if (needsEscaping(c))
+			{
+				String entity = entityFor(c);
+				entity.getChars(0, entity.length(), buffer, position);
+				position += entity.length();
+			}
+			else
+				buffer[position++] = c;
+		}
+		return new String(buffer);
+	}
+
+	// Escapes the given fields of a profile and copies every other field as it is; escaped[i] is values[i] itself
+	// when that field was already safe or is not escaped
+	// Returns the number of fields that changed; null fields stay null
+	static int escapeAll(String[] values, String[] escaped, int[] fields)
+	{
+		if (escaped.length < values.length)
+			throw new IllegalArgumentException("escaped must be at least as long as values");
+
+		System.arraycopy(values, 0, escaped, 0, values.length);
+		int changed = 0;
+		for (int field = 0; field < fields.length; field++)
+		{
+			int index = fields[field];
+			if (index >= values.length)
+				continue;
+			escaped[index] = escape(values[index]);
+			if (escaped[index] != values[index])
+				changed++;
+		}
+		return changed;
+	}
+}
@@ -0,0 +1,374 @@
+import java.util.Arrays;
+
+// Immutable table of financial instruments, parsed once from the "symbol:price" entries of the gateway
+// Rows are stored column by column in parallel primitive arrays:
+//   symbolIds     - the symbol, dictionary encoded as an int
+//   prices        - the price as a fixed-point long with PRICE_DECIMALS implied decimal places
+//   priceFormats  - decimal places written by the gateway, so a price renders back exactly as received,
+//                   or one of the PRICE_TEXT, RAW_TEXT and MISSING markers
+// A price that is not a plain decimal number keeps its text, and an entry without a separator keeps the
+// whole entry; only those rows allocate while parsing
+// Text is produced again only at the Utility boundary, in the gateway's format or, once a price formatter
+// is bound, in the user's culture
+
+final class InstrumentTable {
+
+	static final int PRICE_DECIMALS = 4;
+	static final long PRICE_SCALE = 10000L;
+
+	static final char SEPARATOR = ':';
+
+	// Row kinds stored in priceFormats instead of a decimal count
+	private static final byte PRICE_TEXT = -1;
+	private static final byte RAW_TEXT = -2;
+	private static final byte MISSING = -3;
+
+	private static final InstrumentTable EMPTY = new InstrumentTable(null, new int[0], new long[0], new byte[0], null, null);
+
+	private final Symbols symbols;
+	private final int[] symbolIds;
+	private final long[] prices;
+	private final byte[] priceFormats;
+
+	// Text of PRICE_TEXT and RAW_TEXT rows; null when every row parsed
+	private final String[] texts;
+
+	// Renders numeric prices; null keeps the gateway's format
+	private final LocaleFormatters.PriceFormatter priceFormatter;
+
+	private InstrumentTable(Symbols symbols, int[] symbolIds, long[] prices, byte[] priceFormats, String[] texts,
+			LocaleFormatters.PriceFormatter priceFormatter)
+	{
+		this.symbols = symbols;
+		this.symbolIds = symbolIds;
+		this.prices = prices;
+		this.priceFormats = priceFormats;
+		this.texts = texts;
+		this.priceFormatter = priceFormatter;
+	}
+
+	// Parses the gateway payload; a null payload yields an empty table and null entries become missing rows
+	static InstrumentTable parse(String[] payload, SymbolDictionary dictionary)
+	{
+		if (payload == null)
+			return EMPTY;
+
+		int rows = payload.length;
+		Symbols symbols = dictionary.forRows(rows);
+		int[] symbolIds = new int[rows];
+		long[] prices = new long[rows];
+		byte[] priceFormats = new byte[rows];
+		String[] texts = null;
+
+		for (int row = 0; row < rows; row++)
+		{
+			String entry = payload[row];
+			if (entry == null)
+			{
+				symbolIds[row] = -1;
+				priceFormats[row] = MISSING;
+				continue;
+			}
+
+			int separator = entry.indexOf(SEPARATOR);
+			if (separator < 0)
+			{
+				if (texts == null)
+					texts = new String[rows];
+				symbolIds[row] = -1;
+				priceFormats[row] = RAW_TEXT;
+				texts[row] = entry;
+				continue;
+			}
+
+			symbolIds[row] = symbols.idOf(entry, 0, separator);
+			int decimals = parsePrice(entry, separator + 1, prices, row);
+			if (decimals < 0)
+			{
+				if (texts == null)
+					texts = new String[rows];
+				priceFormats[row] = PRICE_TEXT;
+				texts[row] = entry.substring(separator + 1);
+			}
+			else
+				priceFormats[row] = (byte) decimals;
+		}
+		return new InstrumentTable(symbols, symbolIds, prices, priceFormats, texts, null);
+	}
+
+	int size()
+	{
+		return symbolIds.length;
+	}
+
+	boolean isMissing(int row)
+	{
+		return priceFormats[row] == MISSING;
+	}
+
+	// Whether the row has a numeric price, available from getPrice
+	boolean hasPrice(int row)
+	{
+		return priceFormats[row] >= 0;
+	}
+
+	// Dictionary ID of the symbol, or -1 for rows without one
+	int getSymbolId(int row)
+	{
+		return symbolIds[row];
+	}
+
+	String getSymbol(int row)
+	{
+		int symbolId = symbolIds[row];
+		if (symbolId < 0)
+			return null;
+		return symbols.symbolOf(symbolId);
+	}
+
+	// Fixed-point price with PRICE_DECIMALS implied decimal places
+	long getPrice(int row)
+	{
+		return prices[row];
+	}
+
+	// Decimal places the price was written with
+	int getPriceDecimals(int row)
+	{
+		return Math.max(0, priceFormats[row]);
+	}
+
+	// Price text of a row whose price is not numeric
+	String getPriceText(int row)
+	{
+		if (priceFormats[row] != PRICE_TEXT)
+			return null;
+		return texts[row];
+	}
+
+	// Appends the row as the gateway wrote it, with numeric prices in the bound culture if any
+	// Missing rows append nothing
+	void appendTo(StringBuilder out, int row)
+	{
+		byte format = priceFormats[row];
+		if (format == MISSING)
+			return;
+		if (format == RAW_TEXT)
+		{
+			out.append(texts[row]);
+			return;
+		}
+		out.append(symbols.symbolOf(symbolIds[row])).append(SEPARATOR);
+		appendPriceTo(out, row);
+	}
+
+	// Appends only the price of the row; rows without a symbol append their whole text
+	void appendPriceTo(StringBuilder out, int row)
+	{
+		byte format = priceFormats[row];
+		if (format == MISSING)
+			return;
+		if ((format == PRICE_TEXT) || (format == RAW_TEXT))
+			out.append(texts[row]);
+		else if (priceFormatter != null)
+			priceFormatter.appendPrice(out, prices[row], format);
+		else
+			appendPrice(out, prices[row], format);
+	}
+
+	// Converts back to "symbol:price" entries for the Utility interfaces; missing rows become null
+	String[] toStringArray()
+	{
+		String[] entries = new String[symbolIds.length];
+		StringBuilder entry = new StringBuilder(32);
+		for (int row = 0; row < entries.length; row++)
+		{
+			if (priceFormats[row] == MISSING)
+				continue;
+			entry.setLength(0);
+			appendTo(entry, row);
+			entries[row] = entry.toString();
+		}
+		return entries;
+	}
+
+	// Returns a table sharing these columns that renders numeric prices with the given formatter
+	InstrumentTable withPriceFormatter(LocaleFormatters.PriceFormatter formatter)
+	{
+		if (formatter == priceFormatter)
+			return this;
+		return new InstrumentTable(symbols, symbolIds, prices, priceFormats, texts, formatter);
+	}
+
+	// Appends a fixed-point price with the given number of decimal places (at most PRICE_DECIMALS)
+	static void appendPrice(StringBuilder out, long price, int decimals)
+	{
+		if (price < 0)
+		{
+			out.append('-');
+			price = -price;
+		}
+		out.append(price / PRICE_SCALE);
+		if (decimals == 0)
+			return;
+		out.append('.');
+		long fraction = price % PRICE_SCALE;
+		for (long digit = PRICE_SCALE / 10; decimals > 0; digit /= 10, decimals--)
+			out.append((char) ('0' + (fraction / digit) % 10));
+	}
+
+	// Parses a plain decimal number from text[from..] into prices[row] without allocating
+	// Returns the number of decimal places, or -1 when the text is not a price this table can hold exactly
+	private static int parsePrice(String text, int from, long[] prices, int row)
+	{
+		int end = text.length();
+		int position = from;
+		boolean negative = false;
+		if ((position < end) && (text.charAt(position) == '-'))
+		{
+			negative = true;
+			position++;
+		}
+
+		long units = 0;
+		int integerDigits = 0;
+		// A leading zero followed by more digits would not render back the same
+		if ((end - position > 1) && (text.charAt(position) == '0') && isDigit(text.charAt(position + 1)))
+			return -1;
+		while ((position < end) && isDigit(text.charAt(position)))
+		{
+			// 14 integer digits keep the scaled value well inside a long
+			if (++integerDigits > 14)
+				return -1;
+			units = units * 10 + (text.charAt(position++) - '0');
+		}
+
+		long fraction = 0;
+		int decimals = 0;
+		if ((position < end) && (text.charAt(position) == '.'))
+		{
+			position++;
+			while ((position < end) && isDigit(text.charAt(position)))
+			{
+				if (++decimals > PRICE_DECIMALS)
+					return -1;
+				fraction = fraction * 10 + (text.charAt(position++) - '0');
+			}
+			if (decimals == 0)
+				return -1;
+		}
+		if ((position != end) || (integerDigits == 0))
+			return -1;
+
+		for (int pad = decimals; pad < PRICE_DECIMALS; pad++)
+			fraction *= 10;
+		long price = units * PRICE_SCALE + fraction;
+		if (negative && (price == 0))
+			return -1;
+		prices[row] = negative ? -price : price;
+		return decimals;
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return (c >= '0') && (c <= '9');
+	}
+
+	// Hands out the symbols new tables are parsed with, shared by every snapshot
+	// Once the current generation of symbols would grow past maximumSize a fresh one is started; tables keep the
+	// generation they were parsed with, so an old generation is collected along with the last of its tables
+	static final class SymbolDictionary
+	{
+		private final int maximumSize;
+		private Symbols current = new Symbols();
+
+		SymbolDictionary(int maximumSize)
+		{
+			if (maximumSize < 1)
+				throw new IllegalArgumentException("maximumSize must be positive");
+			this.maximumSize = maximumSize;
+		}
+
+		// A payload larger than maximumSize still gets a generation of its own
+		synchronized Symbols forRows(int rows)
+		{
+			if ((current.size() > 0) && (current.size() + rows > maximumSize))
+				current = new Symbols();
+			return current;
+		}
+
+		synchronized int size()
+		{
+			return current.size();
+		}
+	}
+
+	// One generation of symbols: assigns every distinct symbol a small int ID; a symbol's text is allocated only
+	// the first time it is seen
+	// Lookups of known IDs need no lock: the array holding a symbol is published through a volatile
+	// field before any table carrying its ID exists
+	static final class Symbols
+	{
+		private volatile String[] symbolsById = new String[64];
+		private int[] index = new int[128];
+		private int count;
+
+		synchronized int idOf(String text, int from, int to)
+		{
+			int length = to - from;
+			int hash = hash(text, from, to);
+			int mask = index.length - 1;
+			int position = hash & mask;
+			String[] known = symbolsById;
+			while (index[position] != 0)
+			{
+				String symbol = known[index[position] - 1];
+				if ((symbol.length() == length) && symbol.regionMatches(0, text, from, length))
+					return index[position] - 1;
+				position = (position + 1) & mask;
+			}
+
+			if (count == known.length)
+				known = Arrays.copyOf(known, count * 2);
+			known[count] = ((from == 0) && (to == text.length())) ? text : text.substring(from, to);
+			symbolsById = known;
+			index[position] = ++count;
+			if (count * 2 > index.length)
+				rehash(known);
+			return count - 1;
+		}
+
+		String symbolOf(int symbolId)
+		{
+			return symbolsById[symbolId];
+		}
+
+		synchronized int size()
+		{
+			return count;
+		}
+
+		private void rehash(String[] known)
+		{
+			int[] grown = new int[index.length * 2];
+			int mask = grown.length - 1;
+			for (int symbolId = 0; symbolId < count; symbolId++)
+			{
+				String symbol = known[symbolId];
+				int position = hash(symbol, 0, symbol.length()) & mask;
+				while (grown[position] != 0)
+					position = (position + 1) & mask;
+				grown[position] = symbolId + 1;
+			}
+			index = grown;
+		}
+
+		private static int hash(String text, int from, int to)
+		{
+			int hash = 0;
+			for (int position = from; position < to; position++)
+				hash = 31 * hash + text.charAt(position);
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+import java.io.IOException;
+
+import com.fortify.samples.thirdparty.component.Utility;
+
+// Forwards every call to the third-party library and times the outbound calls into PipelineMetrics
+// A call that throws is timed as well
+
+final class InstrumentedUtility extends Utility {
+
+	private final Utility library;
+	private final PipelineMetrics metrics;
+
+	InstrumentedUtility(Utility library, PipelineMetrics metrics)
+	{
+		this.library = library;
+		this.metrics = metrics;
+	}
+
+	public String loadCreditCardInfo(String userID, String key)
+	{
+		long started = System.nanoTime();
+		try
+		{
+			return library.loadCreditCardInfo(userID, key);
+		}
+		finally
+		{
+			metrics.record(PipelineMetrics.LibraryCall.LOAD_CREDIT_CARD_INFO, started);
+		}
+	}
+
+	public String[] loadUserDataFromDatabase(String userID)
+	{
+		long started = System.nanoTime();
+		try
+		{
+			return library.loadUserDataFromDatabase(userID);
+		}
+		finally
+		{
+			metrics.record(PipelineMetrics.LibraryCall.LOAD_USER_DATA, started);
+		}
+	}
+
+	public String[] retrieveStockDataFromWebSource(String server, int port)
+	{
+		long started = System.nanoTime();
+		try
+		{
+			return library.retrieveStockDataFromWebSource(server, port);
+		}
+		finally
+		{
+			metrics.record(PipelineMetrics.LibraryCall.RETRIEVE_STOCK_DATA, started);
+		}
+	}
+
+	public int postHTMLResponse(String userID, String userAuthenticationCredential, String userEmailAddress,
+			String userCustomNotes, String[] financialInstruments)
+	{
+		long started = System.nanoTime();
+		try
+		{
+			return library.postHTMLResponse(userID, userAuthenticationCredential, userEmailAddress, userCustomNotes, financialInstruments);
+		}
+		finally
+		{
+			metrics.record(PipelineMetrics.LibraryCall.POST_HTML_RESPONSE, started);
+		}
+	}
+
+	public int logEventToDisk(int eventType, int category, String message, String description)
+	{
+		long started = System.nanoTime();
+		try
+		{
+			return library.logEventToDisk(eventType, category, message, description);
+		}
+		finally
+		{
+			metrics.record(PipelineMetrics.LibraryCall.LOG_EVENT_TO_DISK, started);
+		}
+	}
+
+	// Untimed calls
+
+	public int openTemporaryFileDangerous(String fileName) throws IOException
+	{
+		return library.openTemporaryFileDangerous(fileName);
+	}
+
+	public int openTemporaryFileSafe(String fileName) throws IOException
+	{
+		return library.openTemporaryFileSafe(fileName);
+	}
+
+	public String[] loadServerConnectProperties()
+	{
+		return library.loadServerConnectProperties();
+	}
+
+	public int reformatStockData(String rawData, String localizedData)
+	{
+		return library.reformatStockData(rawData, localizedData);
+	}
+
+	public String removePrivacyData(String data)
+	{
+		return library.removePrivacyData(data);
+	}
+
+	public String sanitizeCreditCardDataDisplay(String data)
+	{
+		return library.sanitizeCreditCardDataDisplay(data);
+	}
+
+	public String sanitizeHTMLData(String data)
+	{
+		return library.sanitizeHTMLData(data);
+	}
+
+	public Exception sanitizeException(Exception e)
+	{
+		return library.sanitizeException(e);
+	}
+
+	public int activateEmergencyResponse(String message)
+	{
+		return library.activateEmergencyResponse(message);
+	}
+}
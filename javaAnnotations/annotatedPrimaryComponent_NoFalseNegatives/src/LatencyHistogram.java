@@ -0,0 +1,143 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram in nanoseconds with log-linear buckets
+// Every power of two is split into 64 linear sub-buckets, so a reported percentile is at most 1.6% above
+// the true value; values up to 2^40 ns (about 18 minutes) are told apart, longer ones count as 2^40 ns
+// Recording is one atomic increment, plus a compare-and-set when it raises the maximum
+// The cumulative view never resets; intervalSnapshot() reports what was recorded since its previous call
+
+final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int HALF_BUCKET_BITS = SUB_BUCKET_BITS - 1;
+	private static final int MAXIMUM_VALUE_BITS = 40;
+	private static final long HIGHEST_TRACKABLE = (1L << MAXIMUM_VALUE_BITS) - 1;
+	private static final int BUCKETS = indexOf(HIGHEST_TRACKABLE) + 1;
+
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLong intervalMax = new AtomicLong();
+
+	// Cumulative counts at the previous interval snapshot, guarded by this
+	private long[] intervalStart = new long[BUCKETS];
+
+	LatencyHistogram(String name)
+	{
+		this.name = name;
+	}
+
+	String getName()
+	{
+		return name;
+	}
+
+	void record(long nanos)
+	{
+		long value = (nanos < 0) ? 0 : Math.min(nanos, HIGHEST_TRACKABLE);
+		counts.incrementAndGet(indexOf(value));
+		raise(max, value);
+		raise(intervalMax, value);
+	}
+
+	// Records the time elapsed since startNanos, a value of System.nanoTime()
+	void recordSince(long startNanos)
+	{
+		record(System.nanoTime() - startNanos);
+	}
+
+	Snapshot snapshot()
+	{
+		return new Snapshot(currentCounts(), max.get());
+	}
+
+	// Recordings racing with the snapshot may have their maximum reported in the next interval instead
+	synchronized Snapshot intervalSnapshot()
+	{
+		long[] current = currentCounts();
+		long[] interval = new long[BUCKETS];
+		for (int index = 0; index < BUCKETS; index++)
+			interval[index] = current[index] - intervalStart[index];
+		intervalStart = current;
+		return new Snapshot(interval, intervalMax.getAndSet(0));
+	}
+
+	private long[] currentCounts()
+	{
+		long[] current = new long[BUCKETS];
+		for (int index = 0; index < BUCKETS; index++)
+			current[index] = counts.get(index);
+		return current;
+	}
+
+	private static void raise(AtomicLong maximum, long value)
+	{
+		long current;
+		while ((value > (current = maximum.get())) && !maximum.compareAndSet(current, value))
+		{
+			// Another thread moved the maximum; compare again
+		}
+	}
+
+	// Values below SUB_BUCKETS map to themselves; above, every power of two adds half as many buckets
+	private static int indexOf(long value)
+	{
+		int magnitude = 64 - Long.numberOfLeadingZeros(value | (SUB_BUCKETS - 1)) - SUB_BUCKET_BITS;
+		return (magnitude << HALF_BUCKET_BITS) + (int) (value >>> magnitude);
+	}
+
+	private static long highestValueIn(int index)
+	{
+		if (index < SUB_BUCKETS)
+			return index;
+		int magnitude = (index >>> HALF_BUCKET_BITS) - 1;
+		long subBucket = index - (magnitude << HALF_BUCKET_BITS);
+		return ((subBucket + 1) << magnitude) - 1;
+	}
+
+	// Immutable copy of the counts
+	static final class Snapshot
+	{
+		private final long[] counts;
+		private final long count;
+		private final long max;
+
+		private Snapshot(long[] counts, long max)
+		{
+			this.counts = counts;
+			long total = 0;
+			for (int index = 0; index < counts.length; index++)
+				total += counts[index];
+			this.count = total;
+			this.max = max;
+		}
+
+		long getCount()
+		{
+			return count;
+		}
+
+		long getMax()
+		{
+			return max;
+		}
+
+		// Smallest recorded value that at least the given percentage of recordings does not exceed
+		long getPercentile(double percent)
+		{
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(percent / 100.0 * count));
+			long seen = 0;
+			for (int index = 0; index < counts.length; index++)
+			{
+				seen += counts[index];
+				if (seen >= rank)
+					return Math.min(highestValueIn(index), max);
+			}
+			return max;
+		}
+	}
+}
@@ -1,12 +1,135 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import com.fortify.samples.thirdparty.component.Utility;
 import com.fortify.annotations.*;
 
 public class MainComponent {
 
+	// Latency of every pipeline step and library call in this process
+	private static final PipelineMetrics pipelineMetrics = new PipelineMetrics(ComponentSettings.METRICS_ENABLED,
+			ComponentSettings.METRICS_INTERVAL_MILLIS, ComponentSettings.METRICS_JMX, ComponentSettings.METRICS_FILE);
+	
+	// Event types recorded per event target in this process; changeable at runtime over JMX
+	private static final EventLevels eventLevels = new EventLevels(ComponentSettings.EVENT_LEVELS_DISABLED,
+			ComponentSettings.EVENT_LEVELS_JMX);
+	
 	/**
 	 * @param args
 	 */
-	private static Utility thirdPartyLibrary = new Utility();
+	private static Utility thirdPartyLibrary = pipelineMetrics.instrument(new Utility());
+	
+	// Executes the independent steps 1-4 concurrently; null when sequential ordering is requested
+	private final ExecutorService stepExecutor = ComponentSettings.CONCURRENT_STEPS ?
+			Executors.newFixedThreadPool(ComponentSettings.STEP_THREADS, new DaemonThreadFactory("pipeline-step")) : null;
+	
+	// Compact binary event logs written instead of logEventToDisk, one per event target in a subdirectory named
+	// after it, so the writers of different targets never share a log; null when events go through the library
+	private final BinaryEventLog[] eventLogs = createEventLogs();
+	
+	// Time-partitioned stores of compressed event blocks, ahead of the binary event logs, one per event target in
+	// a subdirectory named after it; null when not configured
+	private final EventStore[] eventStores = createEventStores();
+	
+	// Journal that AUDIT events are written to ahead of the event writers; null when not configured
+	private final AuditJournal auditJournal = createAuditJournal();
+	
+	// Writes events on a background thread per event target; null when events are written synchronously
+	private final PartitionedEventWriter eventWriter = ComponentSettings.ASYNC_EVENTS ? createEventWriter() : null;
+	
+	// Drains the event writer and writes the open event store block when the process ends without reaching
+	// shutdown(), which removes it again; null when there is nothing to flush
+	private final Thread eventShutdownHook = addEventShutdownHook();
+	
+	// Pages on-call from a background thread, coalescing repeated messages and rate limiting the pages
+	private final EmergencyDispatcher emergencyDispatcher = new EmergencyDispatcher("emergency-dispatcher", new EmergencyDispatcher.Broadcaster() {
+		public int broadcast(String message)
+		{
+			return sendEmergencyBroadcast(message);
+		}
+		
+		public void broadcastFailed(RuntimeException e)
+		{
+			logApplicationException(EventType.FAIL, EventTargetDatabase.APPLICATION, e);
+		}
+	}, ComponentSettings.EMERGENCY_COALESCE_MILLIS, ComponentSettings.EMERGENCY_BURST, ComponentSettings.EMERGENCY_REFILL_MILLIS,
+			ComponentSettings.EMERGENCY_MAX_PENDING);
+	
+	// Serves the validated server configuration to every user and reloads it in the background
+	private final ConfigurationCache configurationCache = new ConfigurationCache(new ConfigurationCache.Loader() {
+		public String[] load() throws ApplicationException
+		{
+			return readServerConfiguration();
+		}
+		
+		public void loadFailed(Exception e)
+		{
+			logApplicationException(EventType.CRITICAL, EventTargetDatabase.APPLICATION, e);
+		}
+	}, ComponentSettings.CONFIG_REFRESH_MILLIS, ComponentSettings.CONFIG_WATCH_FILE, ComponentSettings.CONFIG_WATCH_MILLIS);
+	
+	private static final String MARKET_DATA_SERVER = "ExternalGateway";
+	private static final int MARKET_DATA_PORT = 8100;
+	
+	// Profile fields shown on the sidebar page (email address, notes); the credential at 1 is never escaped
+	private static final int[] DISPLAYED_PROFILE_FIELDS = { 2, 3 };
+	
+	// Instrument symbols seen from the gateway, shared by every snapshot
+	private final InstrumentTable.SymbolDictionary instrumentSymbols =
+			new InstrumentTable.SymbolDictionary(ComponentSettings.INSTRUMENT_MAXIMUM_SYMBOLS);
+	
+	// Shares the stock data snapshot from the external gateway between all users
+	// The payload is parsed into a compact instrument table once per fetch
+	private final MarketDataCache marketDataCache = new MarketDataCache(new MarketDataCache.Source() {
+		public InstrumentTable fetch()
+		{
+			return InstrumentTable.parse(thirdPartyLibrary.retrieveStockDataFromWebSource(MARKET_DATA_SERVER, MARKET_DATA_PORT), instrumentSymbols);
+		}
+	}, ComponentSettings.MARKET_DATA_MAX_STALE_MILLIS, ComponentSettings.MARKET_DATA_REFRESH_AHEAD_MILLIS);
+	
+	// Keeps recently used user profiles resident outside the Java heap
+	private final OffHeapProfileStore profileStore = new OffHeapProfileStore(ComponentSettings.PROFILE_CACHE_CAPACITY,
+			ComponentSettings.PROFILE_SLOT_BYTES, ComponentSettings.PROFILE_FREQUENCY_ADMISSION ?
+					OffHeapProfileStore.frequencyAdmission(ComponentSettings.PROFILE_CACHE_CAPACITY) :
+					OffHeapProfileStore.leastRecentlyUsed(ComponentSettings.PROFILE_CACHE_CAPACITY));
+	
+	// Number formatting of every culture prices have been rendered in
+	private final LocaleFormatters localeFormatters = new LocaleFormatters(ComponentSettings.LOCALIZATION_FORMATTER_CACHE_SIZE);
+	private final MessageSanitizer messageSanitizer = new MessageSanitizer(ComponentSettings.SANITIZER_MEMO_SIZE);
+	
+	// Streams sidebar pages, rendered from a template compiled at startup, to the configured endpoint
+	// null when pages are posted through the library
+	private final StreamingResponsePoster responsePoster = (ComponentSettings.RESPONSE_ENDPOINT == null) ? null :
+			new StreamingResponsePoster(ComponentSettings.RESPONSE_ENDPOINT, ComponentSettings.RESPONSE_PATH,
+					new DirectBufferPool(ComponentSettings.RESPONSE_BUFFER_BYTES, ComponentSettings.RESPONSE_BUFFER_POOL_SIZE),
+					ComponentSettings.RESPONSE_TIMEOUT_MILLIS, SidebarTemplate.compile(SidebarTemplate.DEFAULT_TEMPLATE),
+					ComponentSettings.RESPONSE_TLS);
+	
+	// Coalesces the pages of batch users into batched posts; null when every user posts on its own
+	private final SubmissionBatcher<SidebarSubmission> submissionBatcher = (ComponentSettings.SUBMISSION_BATCH_SIZE <= 1) ? null :
+			new SubmissionBatcher<SidebarSubmission>("submission-batcher", new SubmissionBatcher.Sender<SidebarSubmission>() {
+				public int[] send(List<SidebarSubmission> batch) throws IOException
+				{
+					return postSubmissions(batch);
+				}
+			}, ComponentSettings.SUBMISSION_BATCH_SIZE, ComponentSettings.SUBMISSION_LINGER_MILLIS, ComponentSettings.SUBMISSION_QUEUE_CAPACITY);
+	
+	// Loads profiles and credit card data for a whole chunk of batch users at once
+	private final BulkDataLoader bulkDataLoader = new BulkDataLoader(thirdPartyLibrary, ComponentSettings.BULK_BATCH_SIZE);
+	
 	private class EventType
 	{
 		final static int INFO = 0;
@@ -36,7 +159,7 @@ public class MainComponent {
 		/**
 		 * 
 		 */
-		private static final long serialVersionUID = 1L; };
+	private static final long serialVersionUID = 1L; };
 	
 	// Fortify SCA will now arrive at the right conclusion here
 	// sendEmergencyBroad might send sensitive information that it shouldn't be, resulting in information leakage
@@ -74,15 +197,26 @@ public class MainComponent {
 	// Fortify SCA will now arrive at the right conclusion here
 	// removeSensitiveInformationFromException is a function that removes sensitive information from an Exception object
 	// It will now conclude that the returned Exception message no longer contains sensitive information
-	// It will also now conclude that the incoming data is connected to the outgoing return value
+	// It follows the incoming data to the outgoing return value through MessageSanitizer, which is in source code
 	
 	private 
 	@FortifyPrivacyValidate("return")
 	@FortifySystemInfoValidate("return")
 	String removeSensitiveInformationFromException(Exception e)
 	{
-		Exception sanitizedException = thirdPartyLibrary.sanitizeException(e);
-		return sanitizedException.getMessage();
+		// Sanitizes the exception text in source code; no Throwable is created for it
+		return messageSanitizer.sanitize(e);
+	}
+	
+	// Cleanses a plain note into the text removeSensitiveInformationFromException gives for new Exception(message),
+	// without allocating the Exception; annotated the same way, so Fortify SCA treats both as cleanse functions
+	
+	private 
+	@FortifyPrivacyValidate("return")
+	@FortifySystemInfoValidate("return")
+	String removeSensitiveInformationFromNote(String message)
+	{
+		return messageSanitizer.sanitizeNote(message);
 	}
 	
 	private
@@ -90,115 +224,222 @@ public class MainComponent {
 	int logApplicationException(int eventType, int category, Exception e)
 	{
 		int result = 0;
-		result = thirdPartyLibrary.logEventToDisk(eventType, category, e.getMessage(), e.toString());
+		result = recordEvent(LogEvent.fromException(eventType, category, e));
+		
+		// TODO: Fortify SCA no longer reports a 'System Information Leak' below
+				
+		// The function removeSensitiveInformationFromException cleanses an Exception object
+		// Fortify SCA now recognizes this because of the cleanse annotation on the sanitization function
+		
+		String sanitizedExceptionMessage = removeSensitiveInformationFromException(e);
+		System.err.println(sanitizedExceptionMessage);
+		return result;
 		
-		if ((category == EventType.CRITICAL) && (result != 0))
+	}
+	
+	// Records a plain note without allocating an Exception for it
+	
+	private
+	@FortifySystemInfoSink("message")
+	int logEvent(int eventType, int category, String message)
+	{
+		if (!eventLevels.isEnabled(eventType, category))
+			return 0;
+		int result = 0;
+		result = recordEvent(new LogEvent(eventType, category, message));
+		
+		String sanitizedMessage = removeSensitiveInformationFromNote(message);
+		System.err.println(sanitizedMessage);
+		return result;
+	}
+	
+	private int recordEvent(LogEvent event)
+	{
+		// An AUDIT event is on disk in the journal before it goes to the writers, which still record it like any
+		// other event, so the event store, the binary event log or the library stay complete
+		if ((auditJournal != null) && (event.getCategory() == EventTargetDatabase.AUDIT))
+			auditJournal.append(event);
+		if (eventWriter != null)
+		{
+			eventWriter.submit(event);
+			return 0;
+		}
+		int result = writeEvent(event);
+		flushEvents(PartitionedEventWriter.Target.of(event.getCategory()));
+		return result;
+	}
+	
+	private void flushEvents(PartitionedEventWriter.Target target)
+	{
+		if (eventStores != null)
+			eventStores[target.ordinal()].flush();
+		else if (eventLogs != null)
+			eventLogs[target.ordinal()].flush();
+	}
+	
+	// Writes a single event to disk; runs on the background writer when events are written asynchronously
+	
+	private int writeEvent(LogEvent event)
+	{
+		int result = 0;
+		int target = PartitionedEventWriter.Target.of(event.getCategory()).ordinal();
+		if (eventStores != null)
+			result = eventStores[target].write(event);
+		else if (eventLogs != null)
+			result = eventLogs[target].write(event);
+		else
+			result = thirdPartyLibrary.logEventToDisk(event.getEventType(), event.getCategory(), event.getMessage(), event.getDescription());
+		
+		if ((event.getEventType() == EventType.CRITICAL) && (result != 0))
 			{
 			// TODO: Fortify SCA will now correctly report a 'System Information Leak' below
 			
 			// The function sendEmergencyBroadcast sends information to users
 			// Fortify SCA now recognizes that the broadcast function acts like a final sink for data
 			
-			String exceptionMessage = e.getMessage();
-			result = sendEmergencyBroadcast(exceptionMessage);
+			// Paged by the emergency dispatcher, so a burst of failures cannot block writers on the gateway
+			String exceptionMessage = event.getMessage();
+			emergencyDispatcher.submit(exceptionMessage);
 			}
 		
-		// TODO: Fortify SCA no longer reports a 'System Information Leak' below
-				
-		// The function removeSensitiveInformationFromException cleanses an Exception object
-		// Fortify SCA now recognizes this because of the cleanse annotation on the sanitization function
-		
-		String sanitizedExceptionMessage = removeSensitiveInformationFromException(e);
-		System.err.println(sanitizedExceptionMessage);
 		return result;
+	}
+	
+	// Formats the template, {} marking each argument, only when the event type is enabled for the target
+	
+	// The event keeps the template and its arguments for the binary event log
+	
+	private
+	@FortifySystemInfoSink("arguments")
+	int logEvent(int eventType, int category, String template, Object[] arguments)
+	{
+		if (!eventLevels.isEnabled(eventType, category))
+			return 0;
+		LogEvent event = LogEvent.fromTemplate(eventType, category, template, arguments);
+		int result = 0;
+		result = recordEvent(event);
 		
+		String sanitizedMessage = removeSensitiveInformationFromNote(event.getMessage());
+		System.err.println(sanitizedMessage);
+		return result;
+	}
+	
+	private int logEvent(int eventType, int category, MessageTemplate.Deferred message)
+	{
+		if (!eventLevels.isEnabled(eventType, category))
+			return 0;
+		return logEvent(eventType, category, message.build());
 	}
 	
 	private int logProgrammerNote(String message)
 	{
 		int result = 0;
-		result = logApplicationException(EventType.DEBUG, EventTargetDatabase.APPLICATION, new Exception(message));
+		result = logEvent(EventType.DEBUG, EventTargetDatabase.APPLICATION, message);
 		return result;
 	}
 	
+	// DEBUG is the type switched off in production: checked before any argument array is allocated
+	
+	private int logProgrammerNote(String template, Object argument)
+	{
+		if (!eventLevels.isEnabled(EventType.DEBUG, EventTargetDatabase.APPLICATION))
+			return 0;
+		return logEvent(EventType.DEBUG, EventTargetDatabase.APPLICATION, template, new Object[] { argument });
+	}
+	
+	private int logProgrammerNote(String template, Object first, Object second)
+	{
+		if (!eventLevels.isEnabled(EventType.DEBUG, EventTargetDatabase.APPLICATION))
+			return 0;
+		return logEvent(EventType.DEBUG, EventTargetDatabase.APPLICATION, template, new Object[] { first, second });
+	}
+	
+	private int logProgrammerNote(String template, Object... arguments)
+	{
+		return logEvent(EventType.DEBUG, EventTargetDatabase.APPLICATION, template, arguments);
+	}
+	
 	private int logAuditEvent(String message)
 	{
 		int result = 0;
-		result = logApplicationException(EventType.INFO, EventTargetDatabase.AUDIT, new Exception(message));
+		result = logEvent(EventType.INFO, EventTargetDatabase.AUDIT, message);
 		return result;
 	}
 	
+	private int logAuditEvent(String template, Object... arguments)
+	{
+		return logEvent(EventType.INFO, EventTargetDatabase.AUDIT, template, arguments);
+	}
+	
 	private int logSecurityEvent(String message)
 	{
 		int result = 0;
-		result = logApplicationException(EventType.WARNING, EventTargetDatabase.SECURITY, new Exception(message));
+		result = logEvent(EventType.WARNING, EventTargetDatabase.SECURITY, message);
 		return result;
 	}
 	
+	private int logSecurityEvent(String template, Object... arguments)
+	{
+		return logEvent(EventType.WARNING, EventTargetDatabase.SECURITY, template, arguments);
+	}
+	
 	// Fortify SCA will now arrive at the right conclusion here
 	// loadConfiguration is a function that returns sensitive system information
 	// Fortify SCA will now conclude that this function acts as a filesystem source of data
 	
 	private 
 	@FortifyFileSystemSource("return")
-	String[] loadConfiguration()
+	String[] loadConfiguration() throws ApplicationException
 	{
-		String[] serverConfigData = null;
-		try
-		{
-			serverConfigData = thirdPartyLibrary.loadServerConnectProperties();
-			
-			// Validate the contents of the configuration file
-			String serverHostname = serverConfigData[0];
+		// Served from the configuration cache, which validates and logs each load only once
+		// Throws until a load has succeeded, as reading the configuration directly would
+		return configurationCache.get();
+	}
+	
+	// Reads and validates the configuration file; called by the configuration cache on every load
+	
+	private String[] readServerConfiguration() throws ApplicationException
+	{
+		String[] serverConfigData = thirdPartyLibrary.loadServerConnectProperties();
+		
+		// Validate the contents of the configuration file
+		String serverHostname = serverConfigData[0];
 
-			if ((serverHostname == null) || (serverHostname.length() == 0))
-				throw new ApplicationException("Configuration file corrupt");
-			
-			String internalAccessCode = serverConfigData[1];
-			if ((internalAccessCode == null) || (internalAccessCode.length() == 0))
-				throw new ApplicationException("Configuration file corrupt");
-			
-			String databaseTable = serverConfigData[2];
-			if ((databaseTable == null) || (databaseTable.length() == 0))
-				throw new ApplicationException("Configuration file corrupt");
-			
-			// Fortify SCA will now recognize the transaction key as sensitive data
-			
-			@FortifyPassword String sensitiveTransactionKey = serverConfigData[3];
-			if ((sensitiveTransactionKey == null) || (sensitiveTransactionKey.length() == 0))
-				throw new ApplicationException("Configuration file corrupt");
-			
-			// The variable is not actually an authentication credential
-			// Fortify SCA will now assume it is no longer a sensitive piece of information
-			
-			@FortifyNotPassword String passwordLabel = serverConfigData[4];
-			if ((passwordLabel == null) || (passwordLabel.length() == 0))
-				throw new ApplicationException("Configuration file corrupt");
-			
-			// TODO: an original false positive of 'Privacy Violation' should no longer be reported
-			
-			// Fortify SCA will no longer produce a false positive here
-			// This variable has now been assumed to contain no sensitive information
-			// Fortify SCA will no longer see sensitive information being dumped to a console
-			
-			System.err.println("Password label is " + passwordLabel);
-			
-			String debugNote = "Server configuration data loaded: parameters = " +
-								"host = " + serverHostname + " " +
-								"sensitive access code = " + internalAccessCode + " " +
-								"database table = " + databaseTable + " " + 
-								"sensitive transaction key = " + sensitiveTransactionKey;
+		ValidationRules.SERVER_HOSTNAME.check(serverHostname);
+		
+		String internalAccessCode = serverConfigData[1];
+		ValidationRules.INTERNAL_ACCESS_CODE.check(internalAccessCode);
+		
+		String databaseTable = serverConfigData[2];
+		ValidationRules.DATABASE_TABLE.check(databaseTable);
+		
+		// Fortify SCA will now recognize the transaction key as sensitive data
+		
+		@FortifyPassword String sensitiveTransactionKey = serverConfigData[3];
+		ValidationRules.TRANSACTION_KEY.check(sensitiveTransactionKey);
+		
+		// The variable is not actually an authentication credential
+		// Fortify SCA will now assume it is no longer a sensitive piece of information
+		
+		@FortifyNotPassword String passwordLabel = serverConfigData[4];
+		ValidationRules.PASSWORD_LABEL.check(passwordLabel);
+		
+		// TODO: an original false positive of 'Privacy Violation' should no longer be reported
+		
+		// Fortify SCA will no longer produce a false positive here
+		// This variable has now been assumed to contain no sensitive information
+		// Fortify SCA will no longer see sensitive information being dumped to a console
+		
+		System.err.println("Password label is " + passwordLabel);
+		
+		String debugNote = "Server configuration data loaded: parameters = " +
+							"host = {} sensitive access code = {} database table = {} sensitive transaction key = {}";
+	
+		// TODO: an original false negative will now be correctly reported as a privacy violation
+		// Fortify SCA will now recognize the sensitiveTransactionKey as a password
+		
+		logProgrammerNote(debugNote, serverHostname, internalAccessCode, databaseTable, sensitiveTransactionKey);
 		
-			// TODO: an original false negative will now be correctly reported as a privacy violation
-			// Fortify SCA will now recognize the sensitiveTransactionKey as a password
-			
-			logProgrammerNote(debugNote);
-			
-		}
-		catch (ApplicationException e)
-		{
-			logApplicationException(EventType.CRITICAL, EventTargetDatabase.APPLICATION, e);
-		}
 		return serverConfigData;
 	}
 	
@@ -225,6 +466,12 @@ public class MainComponent {
 		return result;
 	}
 	
+	// Fortify SCA should now arrive at the right conclusion here
+	// The key variable is an authentication credential and is sensitive information
+	// Fortify SCA will now assume it is
+	
+	private static final @FortifyPassword String privateSymmetricKey = "WQEQWEQWESDFGHK%YLHGBDFG:#@${$RT{GR4;@";
+	
 	// Fortify SCA will now arrive at the right conclusion here
 	// retrieveCreditCardData is a function that returns sensitive data from an external source
 	// Fortify SCA will now conclude that the returned data is sensitive
@@ -232,20 +479,18 @@ public class MainComponent {
 	
 	private 
 	@FortifyPCISource("return")
-	String retrieveCreditCardData(String userID)
+	String retrieveCreditCardData(String userID, String prefetchedCreditCardData)
 	{
-		// Fortify SCA should now arrive at the right conclusion here
-		// The key variable is an authentication credential and is sensitive information
-		// Fortify SCA will now assume it is
-		
-		@FortifyPassword String privateSymmetricKey = "WQEQWEQWESDFGHK%YLHGBDFG:#@${$RT{GR4;@";
 		@FortifyPassword String userCreditCardInfoSecurityToken = "";
 		try
 		{
 			if ((userID == null) || (userID.length() == 0))
 				throw new ApplicationException("userID invalid");
 			
-			userCreditCardInfoSecurityToken = thirdPartyLibrary.loadCreditCardInfo(userID, privateSymmetricKey);
+			// Batch users arrive with their credit card data already loaded in bulk
+			userCreditCardInfoSecurityToken = prefetchedCreditCardData;
+			if (userCreditCardInfoSecurityToken == null)
+				userCreditCardInfoSecurityToken = thirdPartyLibrary.loadCreditCardInfo(userID, privateSymmetricKey);
 			
 			// TODO: Fortify SCA should now correctly report this as a 'Privacy Violation'
 			
@@ -253,7 +498,7 @@ public class MainComponent {
 			// Fortify SCA will now recognize that the logAuditEvent function represents a database
 			// Fortify SCA will now recognize that the token is a sensitive variable
 			
-			logAuditEvent("Credit card data retrieved for user " + userID + " (CC: " + userCreditCardInfoSecurityToken + " )");
+			logAuditEvent("Credit card data retrieved for user {} (CC: {} )", userID, userCreditCardInfoSecurityToken);
 			
 			// TODO: Fortify SCA will now recognize the sanitize function as cleaning the 
 			// newly declared sensitive variable
@@ -275,7 +520,7 @@ public class MainComponent {
 	
 	private 
 	@FortifyDatabaseSource("return") 
-	String[] loadUserProfile(String userID)
+	String[] loadUserProfile(String userID, String[] prefetchedUserProfile)
 	{
 		String[] userProfileData = null;
 		try
@@ -284,14 +529,29 @@ public class MainComponent {
 			if ((userID == null) || (userID.length() == 0))
 				throw new ApplicationException("userID invalid");
 			
-			userProfileData = thirdPartyLibrary.loadUserDataFromDatabase(userID);
+			// Hot profiles are served from the off-heap profile store instead of the database
+			// Batch users that were not resident arrive with their profile already loaded in bulk
+			if (prefetchedUserProfile != null)
+			{
+				userProfileData = prefetchedUserProfile;
+				profileStore.put(userID, userProfileData);
+			}
+			else
+			{
+				userProfileData = profileStore.get(userID);
+				if (userProfileData == null)
+				{
+					userProfileData = thirdPartyLibrary.loadUserDataFromDatabase(userID);
+					profileStore.put(userID, userProfileData);
+				}
+			}
+			
 			@FortifyPassword String userAuthenticationCredential = userProfileData[1];
 			
 			// Make programmer note of user pulled from database
 			// Bad Security Practice: sensitive data is not sanitized or written to disc securely
-			String debugNote = "user " + userID + " loaded from database; password = " + userAuthenticationCredential;
-			logProgrammerNote(debugNote);
-			logAuditEvent("user " + userID + " processed.");
+			logProgrammerNote("user {} loaded from database; password = {}", userID, userAuthenticationCredential);
+			logAuditEvent("user {} processed.", userID);
 		}
 		catch (ApplicationException e)
 		{
@@ -300,56 +560,603 @@ public class MainComponent {
 		return userProfileData;
 	}
 	
+	// Command line options selecting batch mode instead of a single userID
+	private static final String BATCH_USERS_OPTION = "-users";
+	private static final String BATCH_FILE_OPTION = "-file";
+	private static final String STANDARD_INPUT_FILE = "-";
+	
+	// Returned by postInformation when the page was handed to the submission batcher and its result is not known yet
+	private static final int SUBMISSION_PENDING = -1;
+	
 	public static void main(String[] args) {
 		MainComponent mainObject = new MainComponent();
+		String userID = args[0];
+		if (BATCH_USERS_OPTION.equals(userID) || BATCH_FILE_OPTION.equals(userID))
+		{
+			mainObject.processBatch(args);
+		}
+		else
+		{
+			// Any additional argument invalidates a single user invocation
+			if (args.length != 1)
+				userID = null;
+			mainObject.processUser(userID);
+		}
+		mainObject.shutdown();
+	}
+	
+	private void shutdown()
+	{
+		if (submissionBatcher != null)
+		{
+			submissionBatcher.close();
+			logProgrammerNote(submissionBatcher.toString());
+		}
+		if (stepExecutor != null)
+			stepExecutor.shutdown();
+		configurationCache.close();
+		marketDataCache.close();
+		logProgrammerNote(marketDataCache.toString());
+		logProgrammerNote(profileStore.toString());
+		logProgrammerNote(localeFormatters.toString());
+		logProgrammerNote(messageSanitizer.toString());
+		logProgrammerNote(eventLevels.toString());
+		
+		// Short runs end before the first interval; publish what they recorded
+		pipelineMetrics.completeInterval();
+		logProgrammerNote(pipelineMetrics.toString());
+		
+		// Flush outstanding events so no AUDIT event is lost on exit
+		if (eventShutdownHook != null)
+			removeShutdownHook(eventShutdownHook);
+		if (eventWriter != null)
+		{
+			eventWriter.close();
+			if (eventWriter.getDroppedCount() != 0)
+				logProgrammerNote(eventWriter.getDroppedCount() + " DEBUG events dropped by the event writers");
+			logProgrammerNote(eventWriter.toString());
+		}
+		// Every appended AUDIT event is already on disk; closing only seals the segment
+		if (auditJournal != null)
+		{
+			auditJournal.close();
+			logProgrammerNote(auditJournal.toString());
+		}
+		
+		// Flushing the events above may still raise emergencies
+		emergencyDispatcher.close();
+		logProgrammerNote(emergencyDispatcher.toString());
+		
+		// Last, so no note is written after them: a DEBUG note would reopen the segment and leave it open
+		PartitionedEventWriter.Target[] targets = PartitionedEventWriter.Target.values();
+		for (int index = 0; index < targets.length; index++)
+		{
+			if (eventLogs != null)
+				logProgrammerNote(targets[index].key + " " + eventLogs[index]);
+			if (eventStores != null)
+				logProgrammerNote(targets[index].key + " " + eventStores[index]);
+		}
+		closeEventSinks();
+	}
+	
+	private void closeEventSinks()
+	{
+		for (int index = 0; index < PartitionedEventWriter.Target.values().length; index++)
+		{
+			if (eventLogs != null)
+				eventLogs[index].close();
+			if (eventStores != null)
+				eventStores[index].close();
+		}
+	}
+	
+	private Thread addEventShutdownHook()
+	{
+		if ((eventWriter == null) && (eventStores == null) && (eventLogs == null))
+			return null;
+		Thread hook = new Thread(new Runnable() {
+			public void run()
+			{
+				if (eventWriter != null)
+					eventWriter.close();
+				closeEventSinks();
+			}
+		}, "event-shutdown");
+		Runtime.getRuntime().addShutdownHook(hook);
+		return hook;
+	}
+	
+	private static BinaryEventLog[] createEventLogs()
+	{
+		if (ComponentSettings.EVENT_LOG_DIRECTORY == null)
+			return null;
+		PartitionedEventWriter.Target[] targets = PartitionedEventWriter.Target.values();
+		BinaryEventLog[] logs = new BinaryEventLog[targets.length];
+		for (int index = 0; index < targets.length; index++)
+			logs[index] = new BinaryEventLog(new File(ComponentSettings.EVENT_LOG_DIRECTORY, targets[index].key),
+					ComponentSettings.EVENT_LOG_SEGMENT_BYTES);
+		return logs;
+	}
+	
+	private static EventStore[] createEventStores()
+	{
+		if (ComponentSettings.EVENT_STORE_DIRECTORY == null)
+			return null;
+		PartitionedEventWriter.Target[] targets = PartitionedEventWriter.Target.values();
+		EventStore[] stores = new EventStore[targets.length];
+		for (int index = 0; index < targets.length; index++)
+			stores[index] = new EventStore(new File(ComponentSettings.EVENT_STORE_DIRECTORY, targets[index].key),
+					ComponentSettings.EVENT_STORE_PARTITION_MILLIS, ComponentSettings.EVENT_STORE_BLOCK_BYTES,
+					ComponentSettings.EVENT_STORE_BLOCK_MILLIS, ComponentSettings.EVENT_STORE_RETENTION_MILLIS,
+					ComponentSettings.EVENT_STORE_RETENTION_BYTES);
+		return stores;
+	}
+	
+	private static AuditJournal createAuditJournal()
+	{
+		if (ComponentSettings.AUDIT_JOURNAL_DIRECTORY == null)
+			return null;
+		try
+		{
+			return new AuditJournal(ComponentSettings.AUDIT_JOURNAL_DIRECTORY, ComponentSettings.AUDIT_JOURNAL_SEGMENT_BYTES,
+					ComponentSettings.AUDIT_JOURNAL_SYNC_MILLIS, ComponentSettings.AUDIT_JOURNAL_SYNC_BYTES,
+					ComponentSettings.AUDIT_JOURNAL_RETENTION_MILLIS, ComponentSettings.AUDIT_JOURNAL_RETENTION_BYTES);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Audit journal not opened, AUDIT events only go through the event writers: " + e.getMessage());
+			return null;
+		}
+	}
+	
+	private PartitionedEventWriter createEventWriter()
+	{
+		// writeEvent() picks the event store or binary event log of the event's own target
+		return new PartitionedEventWriter("event-writer", new PartitionedEventWriter.SinkFactory() {
+			public AsyncEventWriter.EventSink create(final PartitionedEventWriter.Target target)
+			{
+				return new AsyncEventWriter.EventSink() {
+					public int write(LogEvent event)
+					{
+						return writeEvent(event);
+					}
+					
+					public void flush()
+					{
+						flushEvents(target);
+					}
+				};
+			}
+		}, pipelineMetrics, EventType.DEBUG);
+	}
+	
+	// A hook left registered would keep its component reachable until the JVM exits
+	
+	private void removeShutdownHook(Thread hook)
+	{
 		try
 		{
-			String userID = args[0];
-			if ((userID == null) || (userID.length() == 0) || args.length != 1)
+			Runtime.getRuntime().removeShutdownHook(hook);
+		}
+		catch (IllegalStateException e)
+		{
+			// The JVM is already shutting down and runs the hook itself
+		}
+	}
+	
+	// Runs steps 1-7 for every userID named on the command line or streamed from a file
+	// The whole batch shares this process, so class loading and warm-up are paid only once
+	
+	private void processBatch(String[] args)
+	{
+		BatchSummary summary = new BatchSummary();
+		List<String> chunk = new ArrayList<String>(bulkDataLoader.getBatchSize());
+		logAuditEvent("batch processing iniated");
+		
+		if (BATCH_USERS_OPTION.equals(args[0]))
+		{
+			for (int index = 1; index < args.length; index++)
+				addToChunk(args[index], chunk, summary);
+		}
+		else
+		{
+			BufferedReader userIDReader = null;
+			try
 			{
-				mainObject.logSecurityEvent("unexpected execution of middleware application with invalid parameters");
+				if (args.length != 2)
+				{
+					logSecurityEvent("unexpected execution of middleware application with invalid parameters");
+					throw new ApplicationException("batch file option requires exactly one file name");
+				}
+				
+				if (STANDARD_INPUT_FILE.equals(args[1]))
+					userIDReader = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+				else
+					userIDReader = new BufferedReader(new InputStreamReader(new FileInputStream(args[1]), "UTF-8"));
+				
+				// Stream the file one line at a time so memory stays flat regardless of its size
+				String line;
+				while ((line = userIDReader.readLine()) != null)
+				{
+					String batchUserID = line.trim();
+					if (batchUserID.length() != 0)
+						addToChunk(batchUserID, chunk, summary);
+				}
+			}
+			catch (ApplicationException e)
+			{
+				logProgrammerNote(e.getMessage());
+			}
+			catch (IOException e)
+			{
+				logApplicationException(EventType.FAIL, EventTargetDatabase.APPLICATION, e);
+			}
+			finally
+			{
+				closeQuietly(userIDReader);
+			}
+		}
+		
+		processChunk(chunk, summary);
+		awaitSubmissions();
+		
+		String summaryLine = summary.toString();
+		logAuditEvent("batch processing terminated: " + summaryLine);
+		System.out.println(summaryLine);
+	}
+	
+	// Users are collected into chunks of the bulk batch size so memory stays bounded for any input size
+	
+	private void addToChunk(String userID, List<String> chunk, BatchSummary summary)
+	{
+		chunk.add(userID);
+		if (chunk.size() >= bulkDataLoader.getBatchSize())
+			processChunk(chunk, summary);
+	}
+	
+	private void processChunk(List<String> chunk, BatchSummary summary)
+	{
+		if (chunk.isEmpty())
+			return;
+		PrefetchedData prefetched = prefetchUserData(chunk);
+		for (int index = 0; index < chunk.size(); index++)
+			processBatchUser(chunk.get(index), summary, prefetched);
+		chunk.clear();
+	}
+	
+	// Loads the per-user data of a whole chunk in bulk before any of its pipelines run
+	// Financial instruments need no bulk call since every user shares the cached market data snapshot
+	
+	private PrefetchedData prefetchUserData(List<String> chunk)
+	{
+		List<String> validUserIDs = new ArrayList<String>(chunk.size());
+		List<String> missingProfiles = new ArrayList<String>(chunk.size());
+		for (int index = 0; index < chunk.size(); index++)
+		{
+			// Invalid userIDs are left to the pipeline, which reports them as usual
+			String userID = chunk.get(index);
+			if ((userID == null) || (userID.length() == 0))
+				continue;
+			validUserIDs.add(userID);
+			if (!profileStore.contains(userID))
+				missingProfiles.add(userID);
+		}
+		
+		PrefetchedData prefetched = new PrefetchedData();
+		prefetched.userProfiles = bulkDataLoader.loadUserDataFromDatabase(missingProfiles);
+		prefetched.creditCards = bulkDataLoader.loadCreditCardInfo(validUserIDs, privateSymmetricKey);
+		return prefetched;
+	}
+	
+	private void processBatchUser(String userID, BatchSummary summary, PrefetchedData prefetched)
+	{
+		boolean succeeded = false;
+		try
+		{
+			UserOutcome outcome = processUser(userID, prefetched, summary);
+			if (outcome == UserOutcome.PENDING)
+				return;
+			succeeded = (outcome == UserOutcome.SUCCEEDED);
+		}
+		catch (RuntimeException e)
+		{
+			// Keep an unexpected failure isolated to the user that caused it
+			logProgrammerNote(e.toString());
+			logAuditEvent("user processing failed unexpectedly");
+		}
+		summary.userCompleted(succeeded);
+	}
+	
+	// Completes a batch user whose page was coalesced with others, once the batch has been sent
+	// Runs on the submission batcher's thread
+	
+	private class SubmissionCompletion implements SubmissionBatcher.Callback
+	{
+		private final BatchSummary summary;
+		
+		SubmissionCompletion(BatchSummary summary)
+		{
+			this.summary = summary;
+		}
+		
+		public void submissionCompleted(int result)
+		{
+			boolean succeeded = false;
+			try
+			{
+				checkSubmissionResult(result);
+				logAuditEvent("user processing terminated with no problems");
+				succeeded = true;
+			}
+			catch (ApplicationException e)
+			{
+				logProgrammerNote(e.getMessage());
+				logAuditEvent("user processing failed unexpectedly");
+			}
+			summary.userCompleted(succeeded);
+		}
+		
+		public void submissionFailed(Exception e)
+		{
+			logApplicationException(EventType.FAIL, EventTargetDatabase.APPLICATION, e);
+			submissionCompleted(StreamingResponsePoster.FAILURE);
+		}
+	}
+	
+	// Pages still waiting in the submission batcher belong to this batch, so the summary waits for them
+	
+	private void awaitSubmissions()
+	{
+		if (submissionBatcher == null)
+			return;
+		try
+		{
+			submissionBatcher.flush();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			logProgrammerNote("interrupted while waiting for batched submissions");
+		}
+	}
+	
+	private void closeQuietly(Closeable closeable)
+	{
+		if (closeable == null)
+			return;
+		try
+		{
+			closeable.close();
+		}
+		catch (IOException e)
+		{
+			logProgrammerNote("unable to close batch input: {}", e.getMessage());
+		}
+	}
+	
+	// Runs steps 1-7 for a single user; returns true when the user was processed without problems
+	
+	private boolean processUser(String userID)
+	{
+		return processUser(userID, PrefetchedData.NONE, null) == UserOutcome.SUCCEEDED;
+	}
+	
+	// A batch user (summary != null) may be left PENDING while its page waits in the submission batcher
+	
+	private UserOutcome processUser(String userID, PrefetchedData prefetched, BatchSummary summary)
+	{
+		try
+		{
+			if ((userID == null) || (userID.length() == 0))
+			{
+				logSecurityEvent("unexpected execution of middleware application with invalid parameters");
 				throw new ApplicationException("invalid command line argument passed to application");
 			}
 			
-			mainObject.logAuditEvent("user processing iniated");
+			logAuditEvent("user processing iniated");
+			
+			// Steps 1-4: Load configuration, credit card, profile and financial instrument data
+			UserInputs inputs = loadUserInputs(userID, prefetched);
+			String[] configurationData = inputs.configurationData;
+			String userCreditCardData = inputs.userCreditCardData;
+			String[] userProfileData = inputs.userProfileData;
+			InstrumentTable rawFinancialInstruments = inputs.rawFinancialInstruments;
+			
+			// Step 5: Sanitize all data entered by user for safe display
+			long stepStarted = System.nanoTime();
+			String[] sanitizedUserProfileData = sanitizeUserDataForDisplay(userProfileData);
+			pipelineMetrics.record(PipelineMetrics.Step.SANITIZE, stepStarted);
+			
+			// Step 6: Transform data to user's own culture
+			stepStarted = System.nanoTime();
+			InstrumentTable cultureFriendlyFinancialInstruemnts = localizeFinancialInstruments(rawFinancialInstruments);
+			pipelineMetrics.record(PipelineMetrics.Step.LOCALIZE, stepStarted);
+			
+			// Step 7: Formulate and submit HTML page with provided data 
+			// A batched submission is timed until it is queued; the post itself is timed as a library call
+			stepStarted = System.nanoTime();
+			SubmissionBatcher.Callback completion = (summary == null) ? null : new SubmissionCompletion(summary);
+			int result = postInformation(configurationData, userID, sanitizedUserProfileData, userCreditCardData, cultureFriendlyFinancialInstruemnts, completion);
+			pipelineMetrics.record(PipelineMetrics.Step.POST, stepStarted);
+			if (result == SUBMISSION_PENDING)
+				return UserOutcome.PENDING;
+			checkSubmissionResult(result);
+			logAuditEvent("user processing terminated with no problems");
+			return UserOutcome.SUCCEEDED;
+		}
+		catch( ApplicationException e )
+		{
+			logProgrammerNote(e.getMessage());
+			logAuditEvent("user processing failed unexpectedly");
+		}
+		return UserOutcome.FAILED;
+	}
+	
+	private void checkSubmissionResult(int result) throws ApplicationException
+	{
+		if (result != 0)
+		{
+			if (result == 2)
+			{
+				// Security violation
+				logSecurityEvent("user processing failed due to security issue");	
+			}
 			
+			// Unexpected submission failure
+			throw new ApplicationException("Unexpected post failure, error code: " + result);
+		}
+	}
+	
+	private enum UserOutcome
+	{
+		SUCCEEDED,
+		FAILED,
+		PENDING
+	}
+	
+	// Data gathered by steps 1-4 for a single user
+	
+	private static class UserInputs
+	{
+		String[] configurationData;
+		String userCreditCardData;
+		String[] userProfileData;
+		InstrumentTable rawFinancialInstruments;
+	}
+	
+	// Per-user data loaded in bulk for a chunk of batch users; users missing from a map are loaded individually
+	
+	private static class PrefetchedData
+	{
+		static final PrefetchedData NONE = new PrefetchedData();
+		
+		Map<String, String[]> userProfiles = Collections.emptyMap();
+		Map<String, String> creditCards = Collections.emptyMap();
+	}
+	
+	// Steps 1-4 do not depend on one another, so they are fanned out and joined before step 5
+	// Each step still handles and logs its own failures exactly as it does when run sequentially
+	
+	private UserInputs loadUserInputs(final String userID, PrefetchedData prefetched) throws ApplicationException
+	{
+		final String prefetchedCreditCardData = prefetched.creditCards.get(userID);
+		final String[] prefetchedUserProfile = prefetched.userProfiles.get(userID);
+		InputStep<String[]> configurationLoad = new InputStep<String[]>(PipelineMetrics.Step.CONFIGURATION) {
+			String[] load() throws ApplicationException
+			{
+				return loadConfiguration();
+			}
+		};
+		InputStep<String> creditCardLoad = new InputStep<String>(PipelineMetrics.Step.CREDIT_CARD) {
+			String load()
+			{
+				return retrieveCreditCardData(userID, prefetchedCreditCardData);
+			}
+		};
+		InputStep<String[]> userProfileLoad = new InputStep<String[]>(PipelineMetrics.Step.USER_PROFILE) {
+			String[] load()
+			{
+				return loadUserProfile(userID, prefetchedUserProfile);
+			}
+		};
+		InputStep<InstrumentTable> financialInstrumentLoad = new InputStep<InstrumentTable>(PipelineMetrics.Step.FINANCIAL_INSTRUMENTS) {
+			InstrumentTable load()
+			{
+				return loadFinancialInstruments(userID);
+			}
+		};
+		
+		UserInputs inputs = new UserInputs();
+		if (stepExecutor == null)
+		{
 			// Step 1: Load configuration data
-			String[] configurationData = mainObject.loadConfiguration();
+			inputs.configurationData = configurationLoad.call();
 			
 			// Step 2: Load credit card data of user from another source
-			String userCreditCardData = mainObject.retrieveCreditCardData(userID);
+			inputs.userCreditCardData = creditCardLoad.call();
 			
 			// Step 3: Load corresponding user data from database for subsequent processing
-			String[] userProfileData = mainObject.loadUserProfile(userID);
+			inputs.userProfileData = userProfileLoad.call();
 			
 			// Step 4: Load financial instruments belonging to user
-			String rawFinancialInstruments[] = mainObject.loadFinancialInstruments(userID);
-			
-			// Step 5: Sanitize all data entered by user for safe display
-			String[] sanitizedUserProfileData = mainObject.sanitizeUserDataForDisplay(userProfileData);
-			
-			// Step 6: Transform data to user's own culture
-			String[] cultureFriendlyFinancialInstruemnts = mainObject.localizeFinancialInstruments(rawFinancialInstruments);
-			
-			// Step 7: Formulate and submit HTML page with provided data 
-			int result = mainObject.postInformation(configurationData, userID, sanitizedUserProfileData, userCreditCardData, cultureFriendlyFinancialInstruemnts);
-			if (result != 0)
+			inputs.rawFinancialInstruments = financialInstrumentLoad.call();
+			return inputs;
+		}
+		
+		Future<String[]> configurationStep = stepExecutor.submit(configurationLoad);
+		Future<String> creditCardStep = stepExecutor.submit(creditCardLoad);
+		Future<String[]> userProfileStep = stepExecutor.submit(userProfileLoad);
+		Future<InstrumentTable> financialInstrumentStep = stepExecutor.submit(financialInstrumentLoad);
+		
+		boolean joined = false;
+		try
+		{
+			inputs.configurationData = joinStep(configurationStep);
+			inputs.userCreditCardData = joinStep(creditCardStep);
+			inputs.userProfileData = joinStep(userProfileStep);
+			inputs.rawFinancialInstruments = joinStep(financialInstrumentStep);
+			joined = true;
+		}
+		finally
+		{
+			if (!joined)
 			{
-				if (result == 2)
-				{
-					// Security violation
-					mainObject.logSecurityEvent("user processing failed due to security issue");	
-				}
-				
-				// Unexpected submission failure
-				throw new ApplicationException("Unexpected post failure, error code: " + result);
+				configurationStep.cancel(true);
+				creditCardStep.cancel(true);
+				userProfileStep.cancel(true);
+				financialInstrumentStep.cancel(true);
 			}
-			mainObject.logAuditEvent("user processing terminated with no problems");
 		}
-		catch( ApplicationException e )
+		return inputs;
+	}
+	
+	// One of steps 1-4, timed into its latency histogram whether it runs here or on the step executor
+	
+	private abstract class InputStep<T> implements Callable<T>
+	{
+		private final PipelineMetrics.Step step;
+		
+		InputStep(PipelineMetrics.Step step)
+		{
+			this.step = step;
+		}
+		
+		public T call() throws ApplicationException
+		{
+			long started = System.nanoTime();
+			try
+			{
+				return load();
+			}
+			finally
+			{
+				pipelineMetrics.record(step, started);
+			}
+		}
+		
+		abstract T load() throws ApplicationException;
+	}
+	
+	private <T> T joinStep(Future<T> step) throws ApplicationException
+	{
+		try
+		{
+			return step.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new ApplicationException("user processing interrupted");
+		}
+		catch (ExecutionException e)
 		{
-			mainObject.logProgrammerNote(e.getMessage());
-			mainObject.logAuditEvent("user processing failed unexpectedly");
+			// Only the configuration step passes on its ApplicationException; the others handle their own
+			Throwable cause = e.getCause();
+			if (cause instanceof ApplicationException)
+				throw (ApplicationException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw (RuntimeException) cause;
 		}
 	}
 
@@ -361,7 +1168,8 @@ public class MainComponent {
 	private 
 	@FortifyXSSSink("userData")
 	@FortifyPrivacySink("userCreditCardData")
-	int postInformation(String[] hostInformation, String userID, String[] userData, String userCreditCardData, String[] financialInstrumentInformation)
+	int postInformation(String[] hostInformation, String userID, String[] userData, String userCreditCardData, InstrumentTable financialInstrumentInformation,
+			SubmissionBatcher.Callback completion)
 	{
 		int result = 0;
 		try
@@ -374,28 +1182,28 @@ public class MainComponent {
 			
 			// Validate the hostname
 			String hostname = hostInformation[0];
-			if (!hostname.matches("internal[A-Z]{2}"))
+			if (!ValidationRules.SUBMISSION_HOST.accepts(hostname))
 			{
-				logSecurityEvent("Attempt to submit to unexpected host " + hostname);
-				throw new ApplicationException("unexpected host");
+				logSecurityEvent("Attempt to submit to unexpected host {}", hostname);
+				throw new ApplicationException(ValidationRules.SUBMISSION_HOST.getFailureMessage());
 			}
 			
 			// Validate the userID
-			if ((userID == null) || (userID.length() == 0))
+			if (!ValidationRules.SUBMISSION_USER_ID.accepts(userID))
 			{
 				logProgrammerNote("userID not included in submission");
-				throw new ApplicationException("userid not included in submission");
+				throw new ApplicationException(ValidationRules.SUBMISSION_USER_ID.getFailureMessage());
 			}
 			
 			// Validate the user authentication credential
 			@FortifyPassword String userAuthenticationCredential = userData[1];
-			if ((userAuthenticationCredential == null) || (userAuthenticationCredential.length() == 0))
+			if (!ValidationRules.USER_CREDENTIAL_PRESENT.accepts(userAuthenticationCredential))
 			{
 				logProgrammerNote("user password not included in submission");
-				throw new ApplicationException("user password not included in submission");
+				throw new ApplicationException(ValidationRules.USER_CREDENTIAL_PRESENT.getFailureMessage());
 			}
 			
-			if ((userAuthenticationCredential.length() != 10) || (!userAuthenticationCredential.matches("[A-Za-z]{7}[0-9]{3}")))
+			if (!ValidationRules.USER_CREDENTIAL_POLICY.accepts(userAuthenticationCredential))
 			{
 				// TODO: Fortify SCA should now recognize that the authentication credential is a password
 				
@@ -404,8 +1212,8 @@ public class MainComponent {
 				// userAuthenticationCredential is a piece of sensitive information; Fortify SCA now knows this
 				// Fortify SCA will now recognize that sensitive information is being written to disc non-securely
 				
-				logSecurityEvent("invalid user credential supplied: userid = " + userID + "; credential = "+userAuthenticationCredential);
-				throw new ApplicationException("user password does not conform to policy");
+				logSecurityEvent("invalid user credential supplied: userid = {}; credential = {}", userID, userAuthenticationCredential);
+				throw new ApplicationException(ValidationRules.USER_CREDENTIAL_POLICY.getFailureMessage());
 			}
 			
 			// Validate the credit card data
@@ -415,7 +1223,7 @@ public class MainComponent {
 				throw new ApplicationException("credit card data not included in submission");
 			}
 			
-			if ((userCreditCardData.length() != 16) || (userCreditCardData.matches("[0-9]{16}")))
+			if ((userCreditCardData.length() != 16) || ValidationRules.UNMASKED_CARD_NUMBER.accepts(userCreditCardData))
 			{
 				// TODO: Fortify SCA should now correctly report a privacy violation
 				
@@ -424,55 +1232,107 @@ public class MainComponent {
 				// userCreditCardData is a piece of sensitive information; Fortify SCA should now know this
 				// Fortify SCA will now recognize that sensitive information is being written to disc non-securely
 				
-				logSecurityEvent("suspicious credit card format: " + userCreditCardData);
+				logSecurityEvent("suspicious credit card format: {}", userCreditCardData);
 			}
 			
 			// Optional data elements
 			String userEmailAddress = userData[2];
 			String userCustomNotes = userData[3];
 			
-			logAuditEvent("Posting user information to host: "+hostInformation[0]);
+			logAuditEvent("Posting user information to host: {}", hostInformation[0]);
 			
-			result = thirdPartyLibrary.postHTMLResponse(userID, userAuthenticationCredential, userEmailAddress, userCustomNotes, financialInstrumentInformation);
+			SidebarSubmission submission = new SidebarSubmission(userID, userAuthenticationCredential, userEmailAddress, userCustomNotes,
+					userCreditCardData, financialInstrumentInformation);
+			if ((completion != null) && (submissionBatcher != null))
+			{
+				// Waits here while the batcher's queue is full; the result reaches the completion once the batch is sent
+				submissionBatcher.submit(submission, completion);
+				result = SUBMISSION_PENDING;
+			}
+			else
+			{
+				result = postSubmission(submission);
+			}
+		}
+		catch (IOException e)
+		{
+			logApplicationException(EventType.FAIL, EventTargetDatabase.APPLICATION, e);
+			result = StreamingResponsePoster.FAILURE;
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			logProgrammerNote("interrupted while queueing submission");
+			result = StreamingResponsePoster.FAILURE;
 		}
 		catch (ApplicationException e)
 		{
-			logAuditEvent("submission for processing failed: internal message" + e.getMessage());
+			logAuditEvent("submission for processing failed: internal message{}", e.getMessage());
 		}
 		return result;
 		
 	}
 	
+	private int postSubmission(SidebarSubmission submission) throws IOException
+	{
+		if (responsePoster != null)
+		{
+			// The page is streamed while it is produced, so its size does not matter
+			// The template masks the card number and escapes what step 5 did not; the profile fields are already escaped
+			return responsePoster.post(submission);
+		}
+		
+		// Instruments are only converted back to text here, at the library boundary
+		String[] financialInstrumentEntries = null;
+		if (submission.financialInstruments != null)
+			financialInstrumentEntries = submission.financialInstruments.toStringArray();
+		
+		return thirdPartyLibrary.postHTMLResponse(submission.userID, submission.userAuthenticationCredential,
+				submission.userEmailAddress, submission.userCustomNotes, financialInstrumentEntries);
+	}
+	
+	// Sends a batch collected by the submission batcher; returns one result per page, in order
+	// The library has no batch call, so without a response endpoint the pages are still posted one by one,
+	// just off the users' threads
+	
+	private int[] postSubmissions(List<SidebarSubmission> batch) throws IOException
+	{
+		if (responsePoster != null)
+			return responsePoster.postBatch(batch);
+		
+		int[] results = new int[batch.size()];
+		for (int index = 0; index < results.length; index++)
+			results[index] = postSubmission(batch.get(index));
+		return results;
+	}
+	
 	// Fortify SCA will now arrive at the right conclusion here
 	// This function transforms incoming data and returns it
 	// Fortify SCA will conclude that data is flowing from an incoming to outgoing parameter, possibly spreading dangerous data
 	
 	private 
 	@FortifyPassthrough(in="rawFinancialInstruments", out="return") 
-	String[] localizeFinancialInstruments(String[] rawFinancialInstruments) {
-		int index = 0;
-		String[] returnData = null;
+	InstrumentTable localizeFinancialInstruments(InstrumentTable rawFinancialInstruments) {
+		InstrumentTable returnData = null;
 		
 		try
 		{
-			if ((rawFinancialInstruments == null) || (rawFinancialInstruments.length == 0))
+			if ((rawFinancialInstruments == null) || (rawFinancialInstruments.size() == 0))
 			{
 				throw new ApplicationException("rawFinancialInstrument data invalid");
 			}
 			
-			returnData = new String[rawFinancialInstruments.length];
-			
-			for (index = 0; index < rawFinancialInstruments.length; index++)
+			// Convert any incoming financial stock information to local culture
+			// Prices stay fixed-point in the table and are only turned into text, in that culture, when the page is posted
+			// A row the gateway sent no usable entry for stays missing and is reported without affecting the others
+			// User profiles carry no locale, so every user gets the configured culture
+			for (int row = 0; row < rawFinancialInstruments.size(); row++)
 			{
-				String incomingStringElement = rawFinancialInstruments[index];
-				if (incomingStringElement != null)
-				{
-					// Convert any incoming financial stock information to local culture
-					thirdPartyLibrary.reformatStockData(rawFinancialInstruments[index], returnData[index]);
-				}
-				else
-					throw new ApplicationException("rawFinancialInstrument [" + index + "] null");
+				if (rawFinancialInstruments.isMissing(row))
+					logProgrammerNote("rawFinancialInstrument [{}] missing", Integer.valueOf(row));
 			}
+			LocaleFormatters.PriceFormatter priceFormatter = localeFormatters.forLocale(ComponentSettings.LOCALIZATION_LOCALE);
+			returnData = rawFinancialInstruments.withPriceFormatter(priceFormatter);
 		}
 		catch (ApplicationException e)
 		{
@@ -499,28 +1359,20 @@ public class MainComponent {
 			
 			returnData = new String[userProfileData.length];
 			
+			// Convert the displayed data elements to HTML entity equivalents in a single pass
+			// The others, and elements that needed no escaping, come back as the very same String instance
+			HtmlEscaper.escapeAll(userProfileData, returnData, DISPLAYED_PROFILE_FIELDS);
+			
 			for (index = 0; index < userProfileData.length; index++)
 			{
-				String incomingStringElement = userProfileData[index];
-				if (incomingStringElement != null)
+				if (userProfileData[index] == null)
+					throw new ApplicationException("userProfileData[" + index + "] invalid");
+				
+				if (returnData[index] != userProfileData[index])
 				{
-					
-					// Convert any incoming data element to HTML entity equivalents
-					incomingStringElement.replaceAll("<", "&lt");
-					incomingStringElement.replaceAll(">", "&gt");
-					incomingStringElement.replaceAll("&", "&amp;");
-					incomingStringElement.replaceAll("\"", "&quot;");
-					incomingStringElement.replaceAll("'", "&apos;");
-					returnData[index] = incomingStringElement;
-					
-					if (returnData[index].compareTo(userProfileData[index]) != 0)
-					{
-						// Suspicious data has been found, report it
-						logSecurityEvent("Suspcious data found for user: "+returnData[index]);
-					}
+					// Suspicious data has been found, report where rather than the data itself
+					logSecurityEvent("Suspcious data found for user in profile field {}", Integer.valueOf(index));
 				}
-				else
-					throw new ApplicationException("userProfileData[" + index + "] invalid");
 			}
 		}
 		catch (ApplicationException e)
@@ -538,15 +1390,16 @@ public class MainComponent {
 	
 	private 
 	@FortifyPrivateSource("return") 
-	String[] loadFinancialInstruments(String userID) {
-		String rawFinancialInstruments[] = null;
+	InstrumentTable loadFinancialInstruments(String userID) {
+		InstrumentTable rawFinancialInstruments = null;
 		try
 		{
 			if ((userID == null) || (userID.length() == 0))
 				throw new ApplicationException("userid invalid");
 			
-			rawFinancialInstruments = thirdPartyLibrary.retrieveStockDataFromWebSource("ExternalGateway", 8100);
-			logAuditEvent("financial instruments retrieved for user " + userID);
+			// The gateway snapshot is the same for every user, so it is shared through the market data cache
+			rawFinancialInstruments = marketDataCache.get();
+			logAuditEvent("financial instruments retrieved for user {}", userID);
 			
 			// Fortify SCA will now arrive at the right conclusion here
 			// A piece of sensitive information is being sanitized and them dumped to a data source in a secure manner
@@ -570,5 +1423,71 @@ public class MainComponent {
 		
 		return rawFinancialInstruments;
 	}
+	
+	// Entry points for the benchmark suite into the pipeline steps of one component
+	// Only benchmarks use it; the steps themselves stay private
+	
+	static final class TestSeam
+	{
+		private final MainComponent component = new MainComponent();
+		
+		// Replaces the third-party library of every component, including those created by main()
+		static void useLibrary(Utility library)
+		{
+			thirdPartyLibrary = pipelineMetrics.instrument(library);
+		}
+		
+		String[] loadConfiguration() throws ApplicationException
+		{
+			return component.loadConfiguration();
+		}
+		
+		String retrieveCreditCardData(String userID)
+		{
+			return component.retrieveCreditCardData(userID, null);
+		}
+		
+		String[] loadUserProfile(String userID)
+		{
+			return component.loadUserProfile(userID, null);
+		}
+		
+		InstrumentTable loadFinancialInstruments(String userID)
+		{
+			return component.loadFinancialInstruments(userID);
+		}
+		
+		String[] sanitizeUserDataForDisplay(String[] userProfileData)
+		{
+			return component.sanitizeUserDataForDisplay(userProfileData);
+		}
+		
+		InstrumentTable localizeFinancialInstruments(InstrumentTable rawFinancialInstruments)
+		{
+			return component.localizeFinancialInstruments(rawFinancialInstruments);
+		}
+		
+		// Always posts synchronously, never through the submission batcher
+		int postInformation(String[] hostInformation, String userID, String[] userData, String userCreditCardData,
+				InstrumentTable financialInstrumentInformation)
+		{
+			return component.postInformation(hostInformation, userID, userData, userCreditCardData, financialInstrumentInformation, null);
+		}
+		
+		int logApplicationException(Exception e)
+		{
+			return component.logApplicationException(EventType.FAIL, EventTargetDatabase.APPLICATION, e);
+		}
+		
+		boolean processUser(String userID)
+		{
+			return component.processUser(userID);
+		}
+		
+		void shutdown()
+		{
+			component.shutdown();
+		}
+	}
 
 }
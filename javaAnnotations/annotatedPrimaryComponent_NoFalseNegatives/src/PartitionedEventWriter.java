@@ -0,0 +1,163 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Routes events to one AsyncEventWriter per event target, so a flood on one target cannot delay another
+// Every target has its own queue, writer thread, batch size and overflow policy
+// (mainComponent.events.<target>.capacity, .batchSize, .overflow and .spillCapacity, defaulting to the shared
+// event settings)
+// Each writer drains into a sink of its own from the SinkFactory, so the writers of different targets never
+// wait for the same lock
+// A durable target (mainComponent.events.<target>.durable, audit by default) never drops events, and the
+// caller waits until its event has been written; its writer commits waiting callers once per batch
+// The time each write takes is recorded per target in PipelineMetrics
+
+final class PartitionedEventWriter {
+
+	// In the order of MainComponent.EventTargetDatabase; events of any other category go to UNKNOWN
+	enum Target
+	{
+		APPLICATION("application", false),
+		SECURITY("security", false),
+		REPORTS("reports", false),
+		ACTION("action", false),
+		UNKNOWN("unknown", false),
+		AUDIT("audit", true);
+
+		final String key;
+		final int capacity;
+		final int batchSize;
+		final AsyncEventWriter.OverflowPolicy overflowPolicy;
+		final int spillCapacity;
+		final boolean durable;
+
+		Target(String key, boolean durableByDefault)
+		{
+			String prefix = "mainComponent.events." + key + ".";
+			this.key = key;
+			this.capacity = ComponentSettings.getInt(prefix + "capacity", ComponentSettings.EVENT_QUEUE_CAPACITY);
+			this.batchSize = ComponentSettings.getInt(prefix + "batchSize", ComponentSettings.EVENT_BATCH_SIZE);
+			this.spillCapacity = ComponentSettings.getInt(prefix + "spillCapacity", ComponentSettings.EVENT_SPILL_CAPACITY);
+			this.durable = ComponentSettings.getBoolean(prefix + "durable", durableByDefault);
+			AsyncEventWriter.OverflowPolicy policy = ComponentSettings.getEnum(prefix + "overflow", ComponentSettings.EVENT_OVERFLOW_POLICY);
+			if (durable && (policy == AsyncEventWriter.OverflowPolicy.DROP_DEBUG_FIRST))
+			{
+				System.err.println("Ignoring " + prefix + "overflow=" + policy + " for a durable target");
+				policy = AsyncEventWriter.OverflowPolicy.BLOCK;
+			}
+			this.overflowPolicy = policy;
+		}
+
+		static Target of(int category)
+		{
+			if ((category >= 0) && (category < TARGETS.length))
+				return TARGETS[category];
+			return UNKNOWN;
+		}
+	}
+
+	// Creates the sink a target's writer drains into
+	interface SinkFactory
+	{
+		AsyncEventWriter.EventSink create(Target target);
+	}
+
+	private static final Target[] TARGETS = Target.values();
+
+	private final AsyncEventWriter[] writers = new AsyncEventWriter[TARGETS.length];
+	private final AtomicLong[] written = new AtomicLong[TARGETS.length];
+
+	PartitionedEventWriter(String name, SinkFactory sinks, final PipelineMetrics metrics, int debugEventType)
+	{
+		for (int index = 0; index < TARGETS.length; index++)
+		{
+			final Target target = TARGETS[index];
+			final AsyncEventWriter.EventSink sink = sinks.create(target);
+			final AtomicLong targetWritten = new AtomicLong();
+			written[index] = targetWritten;
+			writers[index] = new AsyncEventWriter(name + "-" + target.key, new AsyncEventWriter.EventSink() {
+				public int write(LogEvent event)
+				{
+					long started = System.nanoTime();
+					try
+					{
+						return sink.write(event);
+					}
+					finally
+					{
+						metrics.record(target, started);
+						targetWritten.incrementAndGet();
+					}
+				}
+
+				public void flush()
+				{
+					sink.flush();
+				}
+			}, target.capacity, target.batchSize, target.overflowPolicy, target.spillCapacity, debugEventType);
+		}
+	}
+
+	// Queues the event on the writer of its target; returns false if the target's overflow policy dropped it
+	// For a durable target, returns once the event has been written
+	boolean submit(LogEvent event)
+	{
+		Target target = Target.of(event.getCategory());
+		AsyncEventWriter writer = writers[target.ordinal()];
+		if (!writer.submit(event))
+			return false;
+		if (target.durable)
+			writer.flush();
+		return true;
+	}
+
+	// Blocks until every event submitted before this call has been written, on every target
+	void flush()
+	{
+		for (int index = 0; index < writers.length; index++)
+			writers[index].flush();
+	}
+
+	// Drains and stops every writer; later submissions are written on the caller
+	void close()
+	{
+		for (int index = 0; index < writers.length; index++)
+			writers[index].close();
+	}
+
+	int getQueueDepth(Target target)
+	{
+		return writers[target.ordinal()].size();
+	}
+
+	int getPeakQueueDepth(Target target)
+	{
+		return writers[target.ordinal()].getPeakSize();
+	}
+
+	long getDroppedCount()
+	{
+		long dropped = 0;
+		for (int index = 0; index < writers.length; index++)
+			dropped += writers[index].getDroppedCount();
+		return dropped;
+	}
+
+	// One line per target that has seen events
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder("event writers:");
+		for (int index = 0; index < TARGETS.length; index++)
+		{
+			AsyncEventWriter writer = writers[index];
+			long targetWritten = written[index].get();
+			if ((targetWritten == 0) && (writer.getDroppedCount() == 0))
+				continue;
+			report.append('\n').append(TARGETS[index].key).append(": written = ").append(targetWritten)
+					.append(" dropped = ").append(writer.getDroppedCount())
+					.append(" queue depth = ").append(writer.size())
+					.append(" peak = ").append(writer.getPeakSize())
+					.append((TARGETS[index].overflowPolicy == AsyncEventWriter.OverflowPolicy.SPILL) ? " spilled = " + writer.getSpilledCount() : "")
+					.append(TARGETS[index].durable ? " durable" : "");
+		}
+		return report.toString();
+	}
+}
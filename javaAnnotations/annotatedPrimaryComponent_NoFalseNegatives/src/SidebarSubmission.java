@@ -0,0 +1,24 @@
+// Everything posted for one user's sidebar page
+// The email address and notes arrive HTML escaped by sanitizeUserDataForDisplay; the userID, the credential
+// and the card number arrive as they are
+
+final class SidebarSubmission {
+
+	final String userID;
+	final String userAuthenticationCredential;
+	final String userEmailAddress;
+	final String userCustomNotes;
+	final String userCreditCardData;
+	final InstrumentTable financialInstruments;
+
+	SidebarSubmission(String userID, String userAuthenticationCredential, String userEmailAddress, String userCustomNotes,
+			String userCreditCardData, InstrumentTable financialInstruments)
+	{
+		this.userID = userID;
+		this.userAuthenticationCredential = userAuthenticationCredential;
+		this.userEmailAddress = userEmailAddress;
+		this.userCustomNotes = userCustomNotes;
+		this.userCreditCardData = userCreditCardData;
+		this.financialInstruments = financialInstruments;
+	}
+}
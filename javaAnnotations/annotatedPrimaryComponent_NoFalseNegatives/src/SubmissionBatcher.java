@@ -0,0 +1,255 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Coalesces submissions from many users into batched posts
+// A background thread collects up to maximumBatch submissions, or whatever arrived within the linger time
+// of the first one, sends them together and hands every submission its own result code
+// The queue is bounded: when the sender falls behind, submit() blocks and so slows the producers down
+// An Error from the sender fails its batch and ends the sender thread; what is still queued then fails too,
+// and the batcher is closed
+
+final class SubmissionBatcher<T> {
+
+	// Sends a batch; returns one result code per item, in order
+	interface Sender<T>
+	{
+		int[] send(List<T> batch) throws Exception;
+	}
+
+	// Receives the outcome of one submission on the sender thread
+	interface Callback
+	{
+		void submissionCompleted(int result);
+
+		void submissionFailed(Exception e);
+	}
+
+	private static final class Pending<T>
+	{
+		final T item;
+		final Callback callback;
+
+		Pending(T item, Callback callback)
+		{
+			this.item = item;
+			this.callback = callback;
+		}
+	}
+
+	private final Sender<T> sender;
+	private final int maximumBatch;
+	private final long lingerNanos;
+	private final BlockingQueue<Pending<T>> queue;
+	private final Thread senderThread;
+
+	// Submissions accepted but not completed yet, guarded by itself
+	private final Object outstandingMonitor = new Object();
+	private int outstanding;
+	private volatile boolean closed;
+	// Set when the sender thread has ended; submissions queued after that are failed by their submitter
+	private volatile boolean stopped;
+
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong failedBatches = new AtomicLong();
+	private final AtomicLong failedCallbacks = new AtomicLong();
+
+	SubmissionBatcher(String name, Sender<T> sender, int maximumBatch, long lingerMillis, int queueCapacity)
+	{
+		if (maximumBatch < 1)
+			throw new IllegalArgumentException("maximumBatch must be positive");
+		this.sender = sender;
+		this.maximumBatch = maximumBatch;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, lingerMillis));
+		this.queue = new ArrayBlockingQueue<Pending<T>>(Math.max(1, queueCapacity));
+		this.senderThread = new DaemonThreadFactory(name).newThread(new Runnable() {
+			public void run()
+			{
+				sendBatches();
+			}
+		});
+		senderThread.start();
+	}
+
+	// Queues a submission, waiting for room when the queue is full
+	void submit(T item, Callback callback) throws InterruptedException
+	{
+		if (closed)
+			throw new IllegalStateException("submission batcher closed");
+		synchronized (outstandingMonitor)
+		{
+			outstanding++;
+		}
+		try
+		{
+			queue.put(new Pending<T>(item, callback));
+		}
+		catch (InterruptedException e)
+		{
+			completed(1);
+			throw e;
+		}
+		submitted.incrementAndGet();
+		if (stopped)
+			failQueued();
+	}
+
+	// Waits until every submission accepted so far has completed
+	void flush() throws InterruptedException
+	{
+		synchronized (outstandingMonitor)
+		{
+			while (outstanding > 0)
+				outstandingMonitor.wait();
+		}
+	}
+
+	// Completes what is queued, then stops the sender thread
+	void close()
+	{
+		closed = true;
+		try
+		{
+			flush();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		senderThread.interrupt();
+	}
+
+	public String toString()
+	{
+		return "submission batcher: submitted = " + submitted + " batches = " + batches + " failed batches = " + failedBatches +
+				" failed callbacks = " + failedCallbacks;
+	}
+
+	private void sendBatches()
+	{
+		List<Pending<T>> batch = new ArrayList<Pending<T>>(maximumBatch);
+		List<T> items = new ArrayList<T>(maximumBatch);
+		try
+		{
+			while (true)
+			{
+				batch.add(queue.take());
+				long deadline = System.nanoTime() + lingerNanos;
+				while (batch.size() < maximumBatch)
+				{
+					// Take whatever is already queued, then wait out the linger time for more
+					if (queue.drainTo(batch, maximumBatch - batch.size()) > 0)
+						continue;
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0)
+						break;
+					Pending<T> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+				}
+
+				for (int index = 0; index < batch.size(); index++)
+					items.add(batch.get(index).item);
+				dispatch(batch, items);
+				batch.clear();
+				items.clear();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// close() stops the thread once the queue is empty
+		}
+		finally
+		{
+			closed = true;
+			stopped = true;
+			failQueued();
+		}
+	}
+
+	// Fails whatever is left in the queue once no thread will send it
+	private void failQueued()
+	{
+		List<Pending<T>> abandoned = new ArrayList<Pending<T>>();
+		queue.drainTo(abandoned);
+		if (abandoned.isEmpty())
+			return;
+		try
+		{
+			notifyCallbacks(abandoned, null, new IllegalStateException("submission batcher stopped"));
+		}
+		finally
+		{
+			completed(abandoned.size());
+		}
+	}
+
+	private void dispatch(List<Pending<T>> batch, List<T> items)
+	{
+		batches.incrementAndGet();
+		try
+		{
+			int[] results = null;
+			Exception failure = null;
+			try
+			{
+				results = sender.send(items);
+				if ((results == null) || (results.length != items.size()))
+					failure = new IllegalStateException("batch of " + items.size() + " returned " +
+							((results == null) ? 0 : results.length) + " results");
+			}
+			catch (Exception e)
+			{
+				failure = e;
+			}
+			catch (Error e)
+			{
+				failedBatches.incrementAndGet();
+				notifyCallbacks(batch, null, new IllegalStateException("submission sender failed", e));
+				throw e;
+			}
+			if (failure != null)
+				failedBatches.incrementAndGet();
+			notifyCallbacks(batch, results, failure);
+		}
+		finally
+		{
+			completed(batch.size());
+		}
+	}
+
+	private void notifyCallbacks(List<Pending<T>> batch, int[] results, Exception failure)
+	{
+		for (int index = 0; index < batch.size(); index++)
+		{
+			Callback callback = batch.get(index).callback;
+			try
+			{
+				if (failure != null)
+					callback.submissionFailed(failure);
+				else
+					callback.submissionCompleted(results[index]);
+			}
+			catch (RuntimeException e)
+			{
+				// A failing callback must not keep the rest of the batch from completing; its result is lost
+				failedCallbacks.incrementAndGet();
+				System.err.println("Submission callback failed, result not recorded: " + e);
+			}
+		}
+	}
+
+	private void completed(int count)
+	{
+		synchronized (outstandingMonitor)
+		{
+			outstanding -= count;
+			outstandingMonitor.notifyAll();
+		}
+	}
+}
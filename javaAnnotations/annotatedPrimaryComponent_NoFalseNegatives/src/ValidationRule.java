@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// A declarative validation rule for a single field
+// Rules are described once with a Builder and compiled into a flat list of segments,
+// so checking a value is a straight scan with no Pattern compilation or regex backtracking
+
+final class ValidationRule {
+
+	// A set of ASCII characters stored as a 128 bit mask
+	static final class CharacterClass
+	{
+		static final CharacterClass UPPER = range('A', 'Z');
+		static final CharacterClass LOWER = range('a', 'z');
+		static final CharacterClass ALPHA = UPPER.union(LOWER);
+		static final CharacterClass DIGIT = range('0', '9');
+		static final CharacterClass ALPHANUMERIC = ALPHA.union(DIGIT);
+
+		private final long low;
+		private final long high;
+
+		private CharacterClass(long low, long high)
+		{
+			this.low = low;
+			this.high = high;
+		}
+
+		static CharacterClass range(char first, char last)
+		{
+			long low = 0;
+			long high = 0;
+			for (char c = first; c <= last; c++)
+			{
+				if (c >= 128)
+					throw new IllegalArgumentException("character classes are limited to ASCII");
+				if (c < 64)
+					low |= 1L << c;
+				else
+					high |= 1L << (c - 64);
+			}
+			return new CharacterClass(low, high);
+		}
+
+		CharacterClass union(CharacterClass other)
+		{
+			return new CharacterClass(low | other.low, high | other.high);
+		}
+
+		boolean contains(char c)
+		{
+			if (c < 64)
+				return ((low >>> c) & 1L) != 0;
+			if (c < 128)
+				return ((high >>> (c - 64)) & 1L) != 0;
+			return false;
+		}
+	}
+
+	// One compiled piece of a fixed layout: either literal text or a run of characters from a class
+	private static final class Segment
+	{
+		final String literal;
+		final CharacterClass characters;
+		final int length;
+
+		Segment(String literal, CharacterClass characters, int length)
+		{
+			this.literal = literal;
+			this.characters = characters;
+			this.length = length;
+		}
+	}
+
+	private final String fieldName;
+	private final String failureMessage;
+	private final boolean required;
+	private final int minimumLength;
+	private final int maximumLength;
+	private final Segment[] layout;
+	private final Set<String> allowedValues;
+
+	private ValidationRule(Builder builder)
+	{
+		this.fieldName = builder.fieldName;
+		this.failureMessage = builder.failureMessage;
+		this.required = builder.required;
+		this.layout = builder.layout.isEmpty() ? null : builder.layout.toArray(new Segment[builder.layout.size()]);
+		this.allowedValues = builder.allowedValues;
+
+		// A fixed layout also fixes the length, which lets mismatches be rejected before scanning
+		if (layout != null)
+		{
+			int layoutLength = 0;
+			for (int index = 0; index < layout.length; index++)
+				layoutLength += layout[index].length;
+			this.minimumLength = Math.max(builder.minimumLength, layoutLength);
+			this.maximumLength = Math.min(builder.maximumLength, layoutLength);
+		}
+		else
+		{
+			this.minimumLength = builder.minimumLength;
+			this.maximumLength = builder.maximumLength;
+		}
+	}
+
+	static Builder forField(String fieldName)
+	{
+		return new Builder(fieldName);
+	}
+
+	String getFieldName()
+	{
+		return fieldName;
+	}
+
+	String getFailureMessage()
+	{
+		return failureMessage;
+	}
+
+	boolean accepts(String value)
+	{
+		if ((value == null) || (value.length() == 0))
+			return !required && (minimumLength == 0) && (allowedValues == null);
+
+		int length = value.length();
+		if ((length < minimumLength) || (length > maximumLength))
+			return false;
+
+		if ((allowedValues != null) && !allowedValues.contains(value))
+			return false;
+
+		if (layout != null)
+		{
+			int position = 0;
+			for (int segmentIndex = 0; segmentIndex < layout.length; segmentIndex++)
+			{
+				Segment segment = layout[segmentIndex];
+				if (segment.literal != null)
+				{
+					if (!value.startsWith(segment.literal, position))
+						return false;
+					position += segment.length;
+				}
+				else
+				{
+					int end = position + segment.length;
+					for (; position < end; position++)
+					{
+						if (!segment.characters.contains(value.charAt(position)))
+							return false;
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	// Throws the rule's own failure so callers can log their existing events before rethrowing
+	void check(String value) throws MainComponent.ApplicationException
+	{
+		if (!accepts(value))
+			throw new MainComponent.ApplicationException(failureMessage);
+	}
+
+	public String toString()
+	{
+		return "ValidationRule[" + fieldName + "]";
+	}
+
+	static final class Builder
+	{
+		private final String fieldName;
+		private String failureMessage;
+		private boolean required;
+		private int minimumLength;
+		private int maximumLength = Integer.MAX_VALUE;
+		private final List<Segment> layout = new ArrayList<Segment>();
+		private Set<String> allowedValues;
+
+		private Builder(String fieldName)
+		{
+			this.fieldName = fieldName;
+			this.failureMessage = fieldName + " invalid";
+		}
+
+		// Rejects null and empty values
+		Builder required()
+		{
+			required = true;
+			return this;
+		}
+
+		Builder length(int exactLength)
+		{
+			return length(exactLength, exactLength);
+		}
+
+		Builder length(int minimum, int maximum)
+		{
+			minimumLength = minimum;
+			maximumLength = maximum;
+			return this;
+		}
+
+		// Appends fixed text to the expected layout
+		Builder literal(String text)
+		{
+			layout.add(new Segment(text, null, text.length()));
+			return this;
+		}
+
+		// Appends exactly count characters from the given class to the expected layout
+		Builder characters(CharacterClass characters, int count)
+		{
+			layout.add(new Segment(null, characters, count));
+			return this;
+		}
+
+		Builder allowedValues(String... values)
+		{
+			allowedValues = new HashSet<String>(Arrays.asList(values));
+			return this;
+		}
+
+		Builder failureMessage(String message)
+		{
+			failureMessage = message;
+			return this;
+		}
+
+		ValidationRule build()
+		{
+			return new ValidationRule(this);
+		}
+	}
+}
@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+// Writes events to disk in a compact binary form, where logEventToDisk takes every event as text twice
+// The log is a directory of segment files events-<sequence>.evl; a new segment is started once the current
+// one passes segmentBytes, and EventLogDecoder turns segments back into text
+// A segment starts with MAGIC, VERSION and the time of its first event, followed by records:
+//   DEFINE  tag, length, UTF-8 bytes: the next entry of the segment's dictionary
+//   EVENT   tag, type, target, timestamp delta, flags, then either the template and its arguments
+//           (FLAG_TEMPLATE) or the message, then with FLAG_CAUSE the class name of the exception, and with
+//           FLAG_DESCRIPTION its description when that is not "<class name>: <message>"
+// Integers are unsigned varints, seven bits per byte; timestamp deltas to the previous event are zigzag encoded
+// A string is a varint v: 0 is null, odd v a literal of (v - 1) / 2 UTF-8 bytes, even v dictionary entry v / 2 - 1
+// Strings of up to MAXIMUM_DICTIONARY_LENGTH characters enter the dictionary on first use until it holds
+// MAXIMUM_DICTIONARY_ENTRIES, so templates, class names, userIDs and repeated notes then take a byte or two
+// The message is stored once: the description of an exception is rebuilt from its class name and message
+// Events are encoded by EventEncoder; writes are buffered, and flush() hands them to the operating system
+
+final class BinaryEventLog {
+
+	static final byte[] MAGIC = { 'M', 'C', 'E', 'V' };
+	static final int VERSION = 1;
+	static final int DEFINE = 1;
+	static final int EVENT = 2;
+	static final int FLAG_TEMPLATE = 1;
+	static final int FLAG_CAUSE = 2;
+	static final int FLAG_DESCRIPTION = 4;
+	static final String SEGMENT_PREFIX = "events-";
+	static final String SEGMENT_SUFFIX = ".evl";
+	static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	static final int MAXIMUM_DICTIONARY_LENGTH = 256;
+	static final int MAXIMUM_DICTIONARY_ENTRIES = 65536;
+
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	private final File directory;
+	private final long segmentBytes;
+
+	// Everything below is guarded by this
+	private final EventEncoder encoder = new EventEncoder();
+	private OutputStream out;
+	private long segmentWritten;
+	private int sequence;
+
+	private long events;
+	private long bytesWritten;
+	private long segments;
+	private long failures;
+
+	BinaryEventLog(File directory, long segmentBytes)
+	{
+		this.directory = directory;
+		this.segmentBytes = Math.max(BUFFER_BYTES, segmentBytes);
+		this.sequence = lastSequence(directory);
+	}
+
+	// Returns 0 once the event is buffered, 1 if it could not be written
+	synchronized int write(LogEvent event)
+	{
+		try
+		{
+			if ((out == null) || (segmentWritten + encoder.size() >= segmentBytes))
+				startSegment(event.getTimestamp());
+			encoder.encode(event);
+			events++;
+			if (encoder.size() >= BUFFER_BYTES)
+				drain();
+			return 0;
+		}
+		catch (IOException e)
+		{
+			// Whatever was buffered is lost with the segment; the next event starts a new one
+			failures++;
+			System.err.println("Event log write failed: " + e.getMessage());
+			abandonSegment();
+			return 1;
+		}
+	}
+
+	synchronized void flush()
+	{
+		try
+		{
+			drain();
+		}
+		catch (IOException e)
+		{
+			failures++;
+			System.err.println("Event log flush failed: " + e.getMessage());
+			abandonSegment();
+		}
+	}
+
+	// Ends the current segment; a later write starts a new one
+	synchronized void close()
+	{
+		if (out == null)
+			return;
+		flush();
+		abandonSegment();
+	}
+
+	public synchronized String toString()
+	{
+		return "binary event log: events = " + events + " segments = " + segments + " bytes = " + (bytesWritten + encoder.size()) +
+				" text chars = " + encoder.getTextChars() + " failures = " + failures;
+	}
+
+	private void startSegment(long timestamp) throws IOException
+	{
+		if (out != null)
+		{
+			drain();
+			abandonSegment();
+		}
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create " + directory);
+		File segment = new File(directory, segmentName(++sequence));
+		out = new FileOutputStream(segment);
+		segments++;
+		segmentWritten = 0;
+		encoder.start(timestamp);
+	}
+
+	private void abandonSegment()
+	{
+		encoder.reset();
+		if (out == null)
+			return;
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Event log close failed: " + e.getMessage());
+		}
+		out = null;
+	}
+
+	private void drain() throws IOException
+	{
+		if ((out == null) || (encoder.size() == 0))
+			return;
+		out.write(encoder.buffer(), 0, encoder.size());
+		out.flush();
+		segmentWritten += encoder.size();
+		bytesWritten += encoder.size();
+		encoder.reset();
+	}
+
+	// What Throwable.toString() gives for an exception that keeps the default
+	static boolean isDefaultDescription(String description, String className, String message)
+	{
+		if (message == null)
+			return description.equals(className);
+		return (description.length() == className.length() + 2 + message.length()) && description.startsWith(className) &&
+				description.startsWith(": ", className.length()) && description.endsWith(message);
+	}
+
+	static String segmentName(int sequence)
+	{
+		return SEGMENT_PREFIX + String.format("%06d", Integer.valueOf(sequence)) + SEGMENT_SUFFIX;
+	}
+
+	// Segments are numbered on from those already in the directory
+	private static int lastSequence(File directory)
+	{
+		int last = 0;
+		String[] names = directory.list();
+		if (names == null)
+			return last;
+		for (int index = 0; index < names.length; index++)
+		{
+			String name = names[index];
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+			try
+			{
+				last = Math.max(last, Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			}
+			catch (NumberFormatException e)
+			{
+				// Not one of ours
+			}
+		}
+		return last;
+	}
+}
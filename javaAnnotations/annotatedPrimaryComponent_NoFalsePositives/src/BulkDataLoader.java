@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fortify.samples.thirdparty.component.Utility;
+
+// Batch oriented access to the per-user calls of the third-party library
+// Requests are grouped into batches of a configurable size and the results are returned keyed by userID
+// Backends with native bulk calls override the load...Batch methods; by default each batch falls back
+// to one single-user call per userID
+// A user whose call fails is simply missing from the result, so the pipeline can retry it on its own
+
+class BulkDataLoader {
+
+	private final Utility library;
+	private final int batchSize;
+
+	BulkDataLoader(Utility library, int batchSize)
+	{
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive");
+		this.library = library;
+		this.batchSize = batchSize;
+	}
+
+	int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	Map<String, String[]> loadUserDataFromDatabase(Collection<String> userIDs)
+	{
+		Map<String, String[]> profiles = new HashMap<String, String[]>();
+		for (Iterator<String> remaining = userIDs.iterator(); remaining.hasNext(); )
+			profiles.putAll(loadUserDataBatch(nextBatch(remaining)));
+		return profiles;
+	}
+
+	Map<String, String> loadCreditCardInfo(Collection<String> userIDs, String privateKey)
+	{
+		Map<String, String> creditCards = new HashMap<String, String>();
+		for (Iterator<String> remaining = userIDs.iterator(); remaining.hasNext(); )
+			creditCards.putAll(loadCreditCardBatch(nextBatch(remaining), privateKey));
+		return creditCards;
+	}
+
+	// One round trip for a batch of profiles; the default makes one call per user
+	protected Map<String, String[]> loadUserDataBatch(List<String> batch)
+	{
+		Map<String, String[]> profiles = new HashMap<String, String[]>();
+		for (int index = 0; index < batch.size(); index++)
+		{
+			String userID = batch.get(index);
+			try
+			{
+				String[] profile = library.loadUserDataFromDatabase(userID);
+				if (profile != null)
+					profiles.put(userID, profile);
+			}
+			catch (RuntimeException e)
+			{
+				// Leave the user out; the pipeline loads it again and reports the failure
+			}
+		}
+		return profiles;
+	}
+
+	// One round trip for a batch of credit card tokens; the default makes one call per user
+	protected Map<String, String> loadCreditCardBatch(List<String> batch, String privateKey)
+	{
+		Map<String, String> creditCards = new HashMap<String, String>();
+		for (int index = 0; index < batch.size(); index++)
+		{
+			String userID = batch.get(index);
+			try
+			{
+				String creditCard = library.loadCreditCardInfo(userID, privateKey);
+				if (creditCard != null)
+					creditCards.put(userID, creditCard);
+			}
+			catch (RuntimeException e)
+			{
+				// Leave the user out; the pipeline loads it again and reports the failure
+			}
+		}
+		return creditCards;
+	}
+
+	protected Utility getLibrary()
+	{
+		return library;
+	}
+
+	private List<String> nextBatch(Iterator<String> remaining)
+	{
+		List<String> batch = new ArrayList<String>(batchSize);
+		while (remaining.hasNext() && (batch.size() < batchSize))
+			batch.add(remaining.next());
+		return batch;
+	}
+}
@@ -0,0 +1,215 @@
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+
+// Runtime switches for MainComponent
+// Every setting is read once at startup from a system property (-Dname=value)
+
+final class ComponentSettings {
+
+	// Steps 1-4 of the pipeline do not depend on each other and run concurrently by default
+	// Set to false to fall back to the original sequential ordering
+	static final boolean CONCURRENT_STEPS = getBoolean("mainComponent.steps.concurrent", true);
+	static final int STEP_THREADS = getInt("mainComponent.steps.threads", 4);
+
+	// Events are queued and written to disk by a background writer unless this is set to false
+	static final boolean ASYNC_EVENTS = getBoolean("mainComponent.events.async", true);
+	static final int EVENT_QUEUE_CAPACITY = getInt("mainComponent.events.capacity", 8192);
+	static final int EVENT_BATCH_SIZE = getInt("mainComponent.events.batchSize", 256);
+	static final AsyncEventWriter.OverflowPolicy EVENT_OVERFLOW_POLICY =
+			getEnum("mainComponent.events.overflow", AsyncEventWriter.OverflowPolicy.BLOCK);
+	// With overflow SPILL, events beyond the queue wait on a side queue of at most this many before producers block
+	static final int EVENT_SPILL_CAPACITY = getInt("mainComponent.events.spillCapacity", 65536);
+	// Each event target has its own writer; mainComponent.events.<target>.capacity, .batchSize, .overflow and
+	// .spillCapacity override the settings above for one target, and .durable makes callers wait until their
+	// events are written (see PartitionedEventWriter)
+	// Event types not recorded, as <type> or <target>.<type> such as "debug" or "reports.info" (see EventLevels)
+	static final String EVENT_LEVELS_DISABLED = getString("mainComponent.events.disabled", "");
+	static final boolean EVENT_LEVELS_JMX = getBoolean("mainComponent.events.levelsJmx", true);
+	// Directory of compact binary event logs written instead of passing events to logEventToDisk as text, one
+	// per event target in a subdirectory named after it (see BinaryEventLog; read them back with
+	// EventLogDecoder); unset keeps writing through the library
+	static final File EVENT_LOG_DIRECTORY = getFile("mainComponent.events.binary.directory");
+	static final long EVENT_LOG_SEGMENT_BYTES = getLong("mainComponent.events.binary.segmentBytes", 16L * 1024 * 1024);
+	// Directory of time-partitioned stores of deflated event blocks, written in place of the binary event logs
+	// and the library, one per event target in a subdirectory named after it (see EventStore; query them with
+	// EventStoreQuery); a block is written once it holds blockBytes or has been open for blockMillis, and whole
+	// partitions are deleted past retentionMillis or while a target's store is over retentionBytes (0 keeps them)
+	// The open block is only in memory: a normal exit or shutdown hook writes it, but a crash or kill -9 loses
+	// up to blockMillis or blockBytes of events; lower them to lose less at the cost of smaller, less compressed
+	// blocks, and use the audit journal for events that must survive a crash
+	static final File EVENT_STORE_DIRECTORY = getFile("mainComponent.events.store.directory");
+	static final long EVENT_STORE_PARTITION_MILLIS = getLong("mainComponent.events.store.partitionMillis", 60L * 60 * 1000);
+	static final long EVENT_STORE_BLOCK_BYTES = getLong("mainComponent.events.store.blockBytes", 64 * 1024);
+	static final long EVENT_STORE_BLOCK_MILLIS = getLong("mainComponent.events.store.blockMillis", 1000);
+	static final long EVENT_STORE_RETENTION_MILLIS = getLong("mainComponent.events.store.retentionMillis", 0);
+	static final long EVENT_STORE_RETENTION_BYTES = getLong("mainComponent.events.store.retentionBytes", 0);
+	// Directory of a memory-mapped journal that AUDIT events are written to ahead of the event writers, which
+	// still record them (see AuditJournal; print it with java AuditJournal <directory>); unset skips the journal
+	// A sync forces the journal to disk and releases the callers waiting for it; with syncMillis > 0 appends gather
+	// for that long, or until syncBytes are waiting, before a sync, and 0 syncs as soon as a caller waits
+	static final File AUDIT_JOURNAL_DIRECTORY = getFile("mainComponent.audit.journal.directory");
+	static final long AUDIT_JOURNAL_SEGMENT_BYTES = getLong("mainComponent.audit.journal.segmentBytes", 16L * 1024 * 1024);
+	static final long AUDIT_JOURNAL_SYNC_MILLIS = getLong("mainComponent.audit.journal.syncMillis", 0);
+	static final long AUDIT_JOURNAL_SYNC_BYTES = getLong("mainComponent.audit.journal.syncBytes", 64 * 1024);
+	// Sealed journal segments are deleted once older than retentionMillis or while the journal holds more than
+	// retentionBytes (0 keeps them); the segment being written is never deleted
+	static final long AUDIT_JOURNAL_RETENTION_MILLIS = getLong("mainComponent.audit.journal.retentionMillis", 0);
+	static final long AUDIT_JOURNAL_RETENTION_BYTES = getLong("mainComponent.audit.journal.retentionBytes", 0);
+
+	// The server configuration is cached and reloaded in the background after this many milliseconds (0 = never)
+	static final long CONFIG_REFRESH_MILLIS = getLong("mainComponent.config.refreshMillis", 60000);
+	// Optional configuration file whose changes trigger a reload, checked every CONFIG_WATCH_MILLIS
+	static final File CONFIG_WATCH_FILE = getFile("mainComponent.config.watchFile");
+	static final long CONFIG_WATCH_MILLIS = getLong("mainComponent.config.watchMillis", 1000);
+
+	// Stock data from the external gateway is shared by all users for at most this many milliseconds
+	// and refreshed in the background once it is older than the refresh-ahead age
+	static final long MARKET_DATA_MAX_STALE_MILLIS = getLong("mainComponent.marketData.maxStaleMillis", 5000);
+	static final long MARKET_DATA_REFRESH_AHEAD_MILLIS = getLong("mainComponent.marketData.refreshAheadMillis", 4000);
+
+	// Instrument symbols are dictionary encoded; past this many distinct symbols a fresh dictionary is started and
+	// the old one is dropped with the last snapshot that uses it
+	static final int INSTRUMENT_MAXIMUM_SYMBOLS = getInt("mainComponent.instruments.maximumSymbols", 65536);
+
+	// User profiles kept off-heap; each profile must fit in one slot or it is not cached
+	// Eviction is LRU, optionally guarded by a frequency based admission filter
+	static final int PROFILE_CACHE_CAPACITY = getInt("mainComponent.profiles.capacity", 100000);
+	static final int PROFILE_SLOT_BYTES = getInt("mainComponent.profiles.slotBytes", 512);
+	static final boolean PROFILE_FREQUENCY_ADMISSION = getBoolean("mainComponent.profiles.frequencyAdmission", false);
+
+	// Batch mode loads profiles and credit card data for this many users at a time (1 = one user at a time)
+	static final int BULK_BATCH_SIZE = Math.max(1, getInt("mainComponent.bulk.batchSize", 100));
+
+	// Culture prices are rendered in, as an IETF language tag such as de-CH; the JVM default when unset
+	static final Locale LOCALIZATION_LOCALE = getLocale("mainComponent.localization.locale", Locale.getDefault());
+	static final int LOCALIZATION_FORMATTER_CACHE_SIZE = getInt("mainComponent.localization.formatterCacheSize", 32);
+
+	// Distinct exception texts whose sanitized form is remembered (0 = sanitize every time)
+	static final int SANITIZER_MEMO_SIZE = Math.max(0, getInt("mainComponent.sanitizer.memoSize", 256));
+
+	// host:port of an HTTP endpoint the sidebar page is streamed to; unset keeps posting through the library
+	static final InetSocketAddress RESPONSE_ENDPOINT = getSocketAddress("mainComponent.response.endpoint");
+	static final String RESPONSE_PATH = getString("mainComponent.response.path", "/sidebar");
+	// A post, from connecting to reading the status, must finish within this many milliseconds
+	static final int RESPONSE_TIMEOUT_MILLIS = getInt("mainComponent.response.timeoutMillis", 5000);
+	// Credentials are sent only over TLS; a plaintext endpoint (false) receives the pages without them
+	static final boolean RESPONSE_TLS = getBoolean("mainComponent.response.tls", true);
+	// Pages are streamed in chunks of this size from a pool of reusable direct buffers
+	static final int RESPONSE_BUFFER_BYTES = getInt("mainComponent.response.bufferBytes", 8192);
+	static final int RESPONSE_BUFFER_POOL_SIZE = getInt("mainComponent.response.bufferPoolSize", 16);
+
+	// Batch mode coalesces the pages of up to this many users, or of those finished within the linger time,
+	// into one post (1 = post every user on its own)
+	// At most SUBMISSION_QUEUE_CAPACITY pages wait to be sent; beyond that users wait for room
+	static final int SUBMISSION_BATCH_SIZE = Math.max(1, getInt("mainComponent.submissions.batchSize", 32));
+	static final long SUBMISSION_LINGER_MILLIS = getLong("mainComponent.submissions.lingerMillis", 20);
+	static final int SUBMISSION_QUEUE_CAPACITY = getInt("mainComponent.submissions.queueCapacity", 256);
+
+	// Emergency broadcasts: repeats of a message within the coalescing window are paged once with their count,
+	// and at most burst pages go out at once, then one per refill period
+	// Beyond maxPending distinct waiting messages, further ones are summarized in a single page
+	static final long EMERGENCY_COALESCE_MILLIS = getLong("mainComponent.emergency.coalesceMillis", 5000);
+	static final int EMERGENCY_BURST = Math.max(1, getInt("mainComponent.emergency.burst", 3));
+	static final long EMERGENCY_REFILL_MILLIS = getLong("mainComponent.emergency.refillMillis", 60000);
+	static final int EMERGENCY_MAX_PENDING = getInt("mainComponent.emergency.maxPending", 64);
+
+	// Latency histograms per pipeline step and library call; every interval the latest statistics are
+	// published over JMX and, when a file is named, appended to it
+	static final boolean METRICS_ENABLED = getBoolean("mainComponent.metrics.enabled", true);
+	static final long METRICS_INTERVAL_MILLIS = getLong("mainComponent.metrics.intervalMillis", 10000);
+	static final boolean METRICS_JMX = getBoolean("mainComponent.metrics.jmx", true);
+	static final File METRICS_FILE = getFile("mainComponent.metrics.file");
+
+	private ComponentSettings()
+	{
+	}
+
+	static boolean getBoolean(String name, boolean defaultValue)
+	{
+		String value = System.getProperty(name);
+		if ((value == null) || (value.length() == 0))
+			return defaultValue;
+		return Boolean.valueOf(value.trim()).booleanValue();
+	}
+
+	static int getInt(String name, int defaultValue)
+	{
+		return (int) getLong(name, defaultValue);
+	}
+
+	static long getLong(String name, long defaultValue)
+	{
+		String value = System.getProperty(name);
+		if ((value == null) || (value.length() == 0))
+			return defaultValue;
+		try
+		{
+			return Long.parseLong(value.trim());
+		}
+		catch (NumberFormatException e)
+		{
+			System.err.println("Ignoring invalid value for " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	static <E extends Enum<E>> E getEnum(String name, E defaultValue)
+	{
+		String value = System.getProperty(name);
+		if ((value == null) || (value.length() == 0))
+			return defaultValue;
+		try
+		{
+			return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println("Ignoring invalid value for " + name + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	static Locale getLocale(String name, Locale defaultValue)
+	{
+		String value = getString(name, null);
+		if (value == null)
+			return defaultValue;
+		return Locale.forLanguageTag(value);
+	}
+
+	static InetSocketAddress getSocketAddress(String name)
+	{
+		String value = getString(name, null);
+		if (value == null)
+			return null;
+		int separator = value.lastIndexOf(':');
+		try
+		{
+			if (separator > 0)
+				return new InetSocketAddress(value.substring(0, separator), Integer.parseInt(value.substring(separator + 1)));
+		}
+		catch (IllegalArgumentException e)
+		{
+			// Reported below
+		}
+		System.err.println("Ignoring invalid value for " + name + ": " + value);
+		return null;
+	}
+
+	static File getFile(String name)
+	{
+		String value = getString(name, null);
+		if (value == null)
+			return null;
+		return new File(value);
+	}
+
+	static String getString(String name, String defaultValue)
+	{
+		String value = System.getProperty(name);
+		if ((value == null) || (value.length() == 0))
+			return defaultValue;
+		return value.trim();
+	}
+}
@@ -0,0 +1,138 @@
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Loads the server configuration once and serves an immutable snapshot to every thread without locking
+// A background task reloads it when the refresh interval passes or the watched file changes,
+// then swaps the new snapshot in atomically
+// A reload that fails keeps serving the last good snapshot and is reported once until a reload succeeds
+// Until a load has succeeded, get() throws an ApplicationException, as reading the configuration directly would
+
+final class ConfigurationCache {
+
+	// Reads and validates the configuration
+	interface Loader
+	{
+		String[] load() throws Exception;
+
+		// Called once for each run of consecutive failed loads
+		void loadFailed(Exception e);
+	}
+
+	private static final class Snapshot
+	{
+		final String[] values;
+		final long loadedAt;
+		final long fileModified;
+
+		Snapshot(String[] values, long loadedAt, long fileModified)
+		{
+			this.values = values;
+			this.loadedAt = loadedAt;
+			this.fileModified = fileModified;
+		}
+	}
+
+	private final Loader loader;
+	private final long refreshNanos;
+	private final File watchedFile;
+	private final ScheduledExecutorService refresher;
+
+	private volatile Snapshot current;
+	private volatile boolean initialLoadAttempted;
+	private volatile Exception lastFailure;
+	private boolean failureReported;
+
+	// refreshMillis <= 0 disables time based reloads; watchedFile may be null
+	ConfigurationCache(Loader loader, long refreshMillis, File watchedFile, long watchMillis)
+	{
+		this.loader = loader;
+		this.refreshNanos = TimeUnit.MILLISECONDS.toNanos(refreshMillis);
+		this.watchedFile = watchedFile;
+
+		long checkMillis = (watchedFile != null) ? watchMillis : refreshMillis;
+		if (checkMillis > 0)
+		{
+			refresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("configuration-refresh"));
+			refresher.scheduleWithFixedDelay(new Runnable() {
+				public void run()
+				{
+					refreshIfStale();
+				}
+			}, checkMillis, checkMillis, TimeUnit.MILLISECONDS);
+		}
+		else
+			refresher = null;
+	}
+
+	// Returns a private copy of the current configuration
+	String[] get() throws MainComponent.ApplicationException
+	{
+		Snapshot snapshot = current;
+		if ((snapshot == null) && !initialLoadAttempted)
+			snapshot = loadInitial();
+		if (snapshot == null)
+		{
+			Exception failure = lastFailure;
+			throw new MainComponent.ApplicationException("configuration unavailable" +
+					((failure == null) ? "" : ": " + failure.getMessage()));
+		}
+		return snapshot.values.clone();
+	}
+
+	// Reloads immediately, whatever the age of the current snapshot
+	synchronized void reload()
+	{
+		long fileModified = watchedFileModified();
+		try
+		{
+			String[] values = loader.load();
+			current = new Snapshot(values.clone(), System.nanoTime(), fileModified);
+			failureReported = false;
+			lastFailure = null;
+		}
+		catch (Exception e)
+		{
+			lastFailure = e;
+			if (!failureReported)
+			{
+				failureReported = true;
+				loader.loadFailed(e);
+			}
+		}
+	}
+
+	void close()
+	{
+		if (refresher != null)
+			refresher.shutdownNow();
+	}
+
+	private synchronized Snapshot loadInitial()
+	{
+		if (!initialLoadAttempted)
+		{
+			reload();
+			initialLoadAttempted = true;
+		}
+		return current;
+	}
+
+	private void refreshIfStale()
+	{
+		Snapshot snapshot = current;
+		boolean stale = (snapshot == null) ||
+				((refreshNanos > 0) && (System.nanoTime() - snapshot.loadedAt >= refreshNanos)) ||
+				((watchedFile != null) && (watchedFileModified() != snapshot.fileModified));
+		if (stale)
+			reload();
+	}
+
+	private long watchedFileModified()
+	{
+		if (watchedFile == null)
+			return 0;
+		return watchedFile.lastModified();
+	}
+}
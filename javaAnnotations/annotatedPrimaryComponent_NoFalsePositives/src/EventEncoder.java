@@ -0,0 +1,180 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Encodes events into the segment format of BinaryEventLog, in memory
+// start() begins a segment: it writes the header and empties the dictionary; the bytes encoded since the last
+// reset() are in buffer()[0, size()), and reset() keeps the dictionary, so a segment may be written out in pieces
+// BinaryEventLog writes the bytes to a file as they come; EventStore compresses each segment into a block
+// Not thread safe
+
+final class EventEncoder {
+
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	private final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+	private byte[] buffer = new byte[BUFFER_BYTES];
+	private int buffered;
+	private long lastTimestamp;
+	private long textChars;
+
+	void start(long timestamp)
+	{
+		dictionary.clear();
+		lastTimestamp = timestamp;
+		ensureCapacity(BinaryEventLog.MAGIC.length + 16);
+		System.arraycopy(BinaryEventLog.MAGIC, 0, buffer, buffered, BinaryEventLog.MAGIC.length);
+		buffered += BinaryEventLog.MAGIC.length;
+		writeVarint(BinaryEventLog.VERSION);
+		writeVarint(timestamp);
+	}
+
+	byte[] buffer()
+	{
+		return buffer;
+	}
+
+	int size()
+	{
+		return buffered;
+	}
+
+	// Drops the encoded bytes; a buffer grown by a large event goes back to its usual size
+	void reset()
+	{
+		buffered = 0;
+		if (buffer.length > BUFFER_BYTES)
+			buffer = new byte[BUFFER_BYTES];
+	}
+
+	// Characters the events would have taken as text, message and description in full
+	long getTextChars()
+	{
+		return textChars;
+	}
+
+	void encode(LogEvent event)
+	{
+		String message = event.getMessage();
+		String template = event.getTemplate();
+		String[] arguments = event.getArguments();
+		Exception cause = event.getCause();
+		String className = null;
+		String description = null;
+		int flags = 0;
+
+		// Dictionary entries go out as records of their own, ahead of the event that uses them
+		if (template != null)
+		{
+			flags |= BinaryEventLog.FLAG_TEMPLATE;
+			define(template);
+			for (int index = 0; index < arguments.length; index++)
+				define(arguments[index]);
+		}
+		else
+		{
+			define(message);
+		}
+		if (cause != null)
+		{
+			flags |= BinaryEventLog.FLAG_CAUSE;
+			className = cause.getClass().getName();
+			define(className);
+			description = event.getDescription();
+			if (!BinaryEventLog.isDefaultDescription(description, className, message))
+			{
+				flags |= BinaryEventLog.FLAG_DESCRIPTION;
+				define(description);
+			}
+		}
+		textChars += length(message) + ((description != null) ? description.length() : length(message));
+
+		writeVarint(BinaryEventLog.EVENT);
+		writeVarint(event.getEventType());
+		writeVarint(event.getCategory());
+		long delta = event.getTimestamp() - lastTimestamp;
+		writeVarint((delta << 1) ^ (delta >> 63));
+		lastTimestamp = event.getTimestamp();
+		writeVarint(flags);
+		if (template != null)
+		{
+			writeString(template);
+			writeVarint(arguments.length);
+			for (int index = 0; index < arguments.length; index++)
+				writeString(arguments[index]);
+		}
+		else
+		{
+			writeString(message);
+		}
+		if (cause != null)
+		{
+			writeString(className);
+			if ((flags & BinaryEventLog.FLAG_DESCRIPTION) != 0)
+				writeString(description);
+		}
+	}
+
+	private void define(String value)
+	{
+		if ((value == null) || (value.length() > BinaryEventLog.MAXIMUM_DICTIONARY_LENGTH) ||
+				(dictionary.size() >= BinaryEventLog.MAXIMUM_DICTIONARY_ENTRIES) || dictionary.containsKey(value))
+			return;
+		dictionary.put(value, Integer.valueOf(dictionary.size()));
+		byte[] bytes = value.getBytes(BinaryEventLog.UTF_8);
+		writeVarint(BinaryEventLog.DEFINE);
+		writeVarint(bytes.length);
+		writeBytes(bytes);
+	}
+
+	private void writeString(String value)
+	{
+		if (value == null)
+		{
+			writeVarint(0);
+			return;
+		}
+		Integer entry = dictionary.get(value);
+		if (entry != null)
+		{
+			writeVarint(2L * entry.intValue() + 2);
+			return;
+		}
+		byte[] bytes = value.getBytes(BinaryEventLog.UTF_8);
+		writeVarint(2L * bytes.length + 1);
+		writeBytes(bytes);
+	}
+
+	private void writeVarint(long value)
+	{
+		ensureCapacity(10);
+		while ((value & ~0x7fL) != 0)
+		{
+			buffer[buffered++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[buffered++] = (byte) value;
+	}
+
+	private void writeBytes(byte[] bytes)
+	{
+		ensureCapacity(bytes.length);
+		System.arraycopy(bytes, 0, buffer, buffered, bytes.length);
+		buffered += bytes.length;
+	}
+
+	// A single large event may outgrow the buffer; it is written out at the end of the event
+	private void ensureCapacity(int bytes)
+	{
+		if (buffered + bytes > buffer.length)
+		{
+			byte[] larger = new byte[Math.max(buffer.length * 2, buffered + bytes)];
+			System.arraycopy(buffer, 0, larger, 0, buffered);
+			buffer = larger;
+		}
+	}
+
+	private static int length(String value)
+	{
+		return (value == null) ? 0 : value.length();
+	}
+}
@@ -0,0 +1,233 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+// Reads the segments written by BinaryEventLog back, one event at a time
+// Only the dictionary of the current segment is kept in memory, so segments of any size stream through
+// A segment cut short by a crash ends at its last complete event
+// Usage: java EventLogDecoder <segment or directory>...
+// prints one line per event: <timestamp> <type> <target> <message>[ | <description>]
+
+final class EventLogDecoder {
+
+	// One decoded event
+	static final class Entry
+	{
+		final int eventType;
+		final int category;
+		final long timestamp;
+		final String message;
+		final String description;
+
+		Entry(int eventType, int category, long timestamp, String message, String description)
+		{
+			this.eventType = eventType;
+			this.category = category;
+			this.timestamp = timestamp;
+			this.message = message;
+			this.description = description;
+		}
+
+		public String toString()
+		{
+			StringBuilder line = new StringBuilder(64);
+			line.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(timestamp))).append(' ');
+			line.append((eventType >= 0) && (eventType < LogEvent.TYPE_NAMES.length) ? LogEvent.TYPE_NAMES[eventType] : String.valueOf(eventType));
+			line.append(' ').append(PartitionedEventWriter.Target.of(category).key).append(' ').append(message);
+			if ((description != null) && !description.equals(message))
+				line.append(" | ").append(description);
+			return line.toString();
+		}
+	}
+
+	private final InputStream in;
+	private final List<String> dictionary = new ArrayList<String>();
+	private long lastTimestamp;
+	private boolean truncated;
+
+	// Reads the segment header; the caller closes the stream
+	EventLogDecoder(InputStream in) throws IOException
+	{
+		this.in = in;
+		byte[] magic = new byte[BinaryEventLog.MAGIC.length];
+		for (int index = 0; index < magic.length; index++)
+			magic[index] = (byte) readByte();
+		if (!Arrays.equals(magic, BinaryEventLog.MAGIC))
+			throw new IOException("not an event log segment");
+		long version = readVarint();
+		if (version != BinaryEventLog.VERSION)
+			throw new IOException("unsupported event log version " + version);
+		lastTimestamp = readVarint();
+	}
+
+	// The next event, or null at the end of the segment
+	Entry next() throws IOException
+	{
+		try
+		{
+			while (true)
+			{
+				int tag = in.read();
+				if (tag < 0)
+					return null;
+				if (tag == BinaryEventLog.DEFINE)
+				{
+					dictionary.add(new String(readBytes((int) readVarint()), BinaryEventLog.UTF_8));
+					continue;
+				}
+				if (tag != BinaryEventLog.EVENT)
+					throw new IOException("unknown record " + tag);
+				return readEvent();
+			}
+		}
+		catch (EOFException e)
+		{
+			truncated = true;
+			return null;
+		}
+	}
+
+	// Whether the segment ended in the middle of a record
+	boolean isTruncated()
+	{
+		return truncated;
+	}
+
+	private Entry readEvent() throws IOException
+	{
+		int eventType = (int) readVarint();
+		int category = (int) readVarint();
+		long delta = readVarint();
+		lastTimestamp += (delta >>> 1) ^ -(delta & 1);
+		int flags = (int) readVarint();
+
+		String message;
+		if ((flags & BinaryEventLog.FLAG_TEMPLATE) != 0)
+		{
+			String template = readString();
+			Object[] arguments = new Object[(int) readVarint()];
+			for (int index = 0; index < arguments.length; index++)
+				arguments[index] = readString();
+			message = MessageTemplate.format(template, arguments);
+		}
+		else
+		{
+			message = readString();
+		}
+
+		String description = message;
+		if ((flags & BinaryEventLog.FLAG_CAUSE) != 0)
+		{
+			String className = readString();
+			if ((flags & BinaryEventLog.FLAG_DESCRIPTION) != 0)
+				description = readString();
+			else
+				description = (message == null) ? className : className + ": " + message;
+		}
+		return new Entry(eventType, category, lastTimestamp, message, description);
+	}
+
+	private String readString() throws IOException
+	{
+		long value = readVarint();
+		if (value == 0)
+			return null;
+		if ((value & 1) != 0)
+			return new String(readBytes((int) (value >>> 1)), BinaryEventLog.UTF_8);
+		int entry = (int) (value / 2 - 1);
+		if (entry >= dictionary.size())
+			throw new IOException("undefined dictionary entry " + entry);
+		return dictionary.get(entry);
+	}
+
+	private long readVarint() throws IOException
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			int b = readByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("malformed varint");
+	}
+
+	private int readByte() throws IOException
+	{
+		int b = in.read();
+		if (b < 0)
+			throw new EOFException();
+		return b;
+	}
+
+	private byte[] readBytes(int length) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		int read = 0;
+		while (read < length)
+		{
+			int count = in.read(bytes, read, length - read);
+			if (count < 0)
+				throw new EOFException();
+			read += count;
+		}
+		return bytes;
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length == 0)
+		{
+			System.err.println("usage: EventLogDecoder <segment or directory>...");
+			System.exit(2);
+		}
+		for (int index = 0; index < args.length; index++)
+		{
+			File file = new File(args[index]);
+			if (!file.isDirectory())
+			{
+				print(file);
+				continue;
+			}
+			String[] names = file.list();
+			Arrays.sort(names);
+			for (int name = 0; name < names.length; name++)
+			{
+				if (names[name].startsWith(BinaryEventLog.SEGMENT_PREFIX) && names[name].endsWith(BinaryEventLog.SEGMENT_SUFFIX))
+					print(new File(file, names[name]));
+			}
+		}
+	}
+
+	private static void print(File segment) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(segment));
+		try
+		{
+			EventLogDecoder decoder = new EventLogDecoder(in);
+			Entry entry;
+			while ((entry = decoder.next()) != null)
+				System.out.println(entry);
+			if (decoder.isTruncated())
+				System.err.println(segment + ": ends in the middle of an event");
+		}
+		catch (IOException e)
+		{
+			// A segment created just before a crash may not even hold its header
+			System.err.println(segment + ": " + ((e instanceof EOFException) ? "incomplete header" : e.getMessage()));
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
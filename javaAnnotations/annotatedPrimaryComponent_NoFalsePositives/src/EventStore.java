@@ -0,0 +1,372 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// Time-partitioned event store written instead of passing events to logEventToDisk as text
+// Each partition of partitionMillis (UTC aligned) is a segment store-<partition start>.evs with its index .idx
+// Events are encoded by EventEncoder into blocks of about blockBytes; every block starts a fresh dictionary, so
+// it decodes on its own, and is stored deflated as: uncompressed length, compressed length, deflated bytes
+// The index has one entry per block: the lowest and highest timestamp in it, its offset and its stored length,
+// so EventStoreQuery reads and inflates only the blocks that overlap the time range asked for
+// An event arriving after its partition has ended (a late writer) goes into the current segment; the index
+// still covers its timestamp
+// A block is written once full, or at the first flush() after it has been open for blockMillis, and at close()
+// Whole segments are deleted once older than retentionMillis, or oldest first while the store holds more than
+// retentionBytes (0 keeps them)
+// A crash loses the open block; on reopening a segment, index entries and block bytes past the last block that
+// inflates in full are cut off
+
+final class EventStore {
+
+	static final String SEGMENT_PREFIX = "store-";
+	static final String DATA_SUFFIX = ".evs";
+	static final String INDEX_SUFFIX = ".idx";
+	static final int INDEX_ENTRY_BYTES = 8 + 8 + 8 + 4;
+	static final int BLOCK_HEADER_BYTES = 8;
+
+	private static final int MINIMUM_BLOCK_BYTES = 4 * 1024;
+	// Deflate never expands data by more than about 1032 to 1, so a larger uncompressed length is corrupt
+	private static final int MAXIMUM_INFLATION = 1032;
+
+	private final File directory;
+	private final long partitionMillis;
+	private final int blockBytes;
+	private final long blockMillis;
+	private final long retentionMillis;
+	private final long retentionBytes;
+
+	// Everything below is guarded by this
+	private final EventEncoder encoder = new EventEncoder();
+	// The encoding has already removed most repetition; harder levels cost twice the time for little gain
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private final ByteBuffer indexEntry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+	private byte[] compressed = new byte[64 * 1024];
+	private RandomAccessFile data;
+	private RandomAccessFile index;
+	private File dataFile;
+	private long dataLength;
+	private long partitionEnd;
+	private int blockEvents;
+	private long blockMinimum;
+	private long blockMaximum;
+	private long blockOpened;
+
+	private long events;
+	private long blocks;
+	private long encodedBytes;
+	private long storedBytes;
+	private long segments;
+	private long segmentsDeleted;
+	private long failures;
+
+	EventStore(File directory, long partitionMillis, long blockBytes, long blockMillis, long retentionMillis, long retentionBytes)
+	{
+		this.directory = directory;
+		this.partitionMillis = Math.max(1000, partitionMillis);
+		this.blockBytes = (int) Math.min(Integer.MAX_VALUE / 2, Math.max(MINIMUM_BLOCK_BYTES, blockBytes));
+		this.blockMillis = blockMillis;
+		this.retentionMillis = retentionMillis;
+		this.retentionBytes = retentionBytes;
+	}
+
+	// Returns 0 once the event is in the open block, 1 if it could not be written
+	synchronized int write(LogEvent event)
+	{
+		try
+		{
+			long timestamp = event.getTimestamp();
+			if ((data == null) || (timestamp >= partitionEnd))
+				openPartition(timestamp);
+			if (blockEvents == 0)
+			{
+				encoder.start(timestamp);
+				blockMinimum = timestamp;
+				blockMaximum = timestamp;
+				blockOpened = System.currentTimeMillis();
+			}
+			encoder.encode(event);
+			blockEvents++;
+			blockMinimum = Math.min(blockMinimum, timestamp);
+			blockMaximum = Math.max(blockMaximum, timestamp);
+			events++;
+			if (encoder.size() >= blockBytes)
+				writeBlock();
+			return 0;
+		}
+		catch (IOException e)
+		{
+			// The open block is lost with the segment; the next event reopens it
+			failures++;
+			System.err.println("Event store write failed: " + e.getMessage());
+			abandonPartition();
+			return 1;
+		}
+	}
+
+	// Writes the open block once it has been open for blockMillis
+	synchronized void flush()
+	{
+		if ((blockEvents == 0) || (System.currentTimeMillis() - blockOpened < blockMillis))
+			return;
+		try
+		{
+			writeBlock();
+		}
+		catch (IOException e)
+		{
+			failures++;
+			System.err.println("Event store flush failed: " + e.getMessage());
+			abandonPartition();
+		}
+	}
+
+	// Writes the open block and closes the segment; a later write reopens it
+	synchronized void close()
+	{
+		if (data == null)
+			return;
+		try
+		{
+			writeBlock();
+		}
+		catch (IOException e)
+		{
+			failures++;
+			System.err.println("Event store close failed: " + e.getMessage());
+		}
+		abandonPartition();
+	}
+
+	public synchronized String toString()
+	{
+		return "event store: events = " + events + " blocks = " + blocks + " encoded bytes = " + encodedBytes +
+				" stored bytes = " + storedBytes + " text chars = " + encoder.getTextChars() + " segments opened = " + segments +
+				" segments deleted = " + segmentsDeleted + " failures = " + failures;
+	}
+
+	private void openPartition(long timestamp) throws IOException
+	{
+		if (data != null)
+		{
+			writeBlock();
+			abandonPartition();
+		}
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("cannot create " + directory);
+		long partitionStart = timestamp - mod(timestamp, partitionMillis);
+		String name = segmentName(partitionStart);
+		dataFile = new File(directory, name + DATA_SUFFIX);
+		data = new RandomAccessFile(dataFile, "rw");
+		index = new RandomAccessFile(new File(directory, name + INDEX_SUFFIX), "rw");
+		partitionEnd = partitionStart + partitionMillis;
+		segments++;
+		repair();
+		deleteExpired();
+	}
+
+	// Cuts a segment reopened after a crash back to its last block that has an index entry and inflates
+	private void repair() throws IOException
+	{
+		long entries = index.length() / INDEX_ENTRY_BYTES;
+		long end = 0;
+		Inflater inflater = new Inflater();
+		try
+		{
+			while (entries > 0)
+			{
+				index.seek((entries - 1) * INDEX_ENTRY_BYTES + 16);
+				long offset = index.readLong();
+				int length = index.readInt();
+				end = offset + length;
+				// The index may have reached the disk ahead of its block, or the block only in part
+				if ((offset >= 0) && (length >= BLOCK_HEADER_BYTES) && (end <= data.length()))
+				{
+					byte[] stored = new byte[length];
+					data.seek(offset);
+					data.readFully(stored);
+					if (inflateBlock(stored, inflater) != null)
+						break;
+				}
+				entries--;
+				end = 0;
+			}
+		}
+		finally
+		{
+			inflater.end();
+		}
+		index.setLength(entries * INDEX_ENTRY_BYTES);
+		index.seek(index.length());
+		data.setLength(end);
+		data.seek(end);
+		dataLength = end;
+	}
+
+	private void writeBlock() throws IOException
+	{
+		if (blockEvents == 0)
+			return;
+		int size = encoder.size();
+		deflater.reset();
+		deflater.setInput(encoder.buffer(), 0, size);
+		deflater.finish();
+		int length = 0;
+		while (!deflater.finished())
+		{
+			if (length == compressed.length)
+				compressed = Arrays.copyOf(compressed, compressed.length * 2);
+			length += deflater.deflate(compressed, length, compressed.length - length);
+		}
+
+		// The block goes out before its index entry, so an entry never points past the data
+		ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_BYTES);
+		header.putInt(size).putInt(length);
+		data.write(header.array());
+		data.write(compressed, 0, length);
+		indexEntry.clear();
+		indexEntry.putLong(blockMinimum).putLong(blockMaximum).putLong(dataLength).putInt(BLOCK_HEADER_BYTES + length);
+		index.write(indexEntry.array());
+
+		dataLength += BLOCK_HEADER_BYTES + length;
+		blocks++;
+		encodedBytes += size;
+		storedBytes += BLOCK_HEADER_BYTES + length + INDEX_ENTRY_BYTES;
+		blockEvents = 0;
+		encoder.reset();
+		if (compressed.length > 64 * 1024)
+			compressed = new byte[64 * 1024];
+	}
+
+	private void abandonPartition()
+	{
+		blockEvents = 0;
+		encoder.reset();
+		closeQuietly(data);
+		closeQuietly(index);
+		data = null;
+		index = null;
+	}
+
+	private static void closeQuietly(RandomAccessFile file)
+	{
+		if (file == null)
+			return;
+		try
+		{
+			file.close();
+		}
+		catch (IOException e)
+		{
+			System.err.println("Event store close failed: " + e.getMessage());
+		}
+	}
+
+	// Deletes whole segments, oldest first, past their age or while the store is over its size; never the open one
+	private void deleteExpired()
+	{
+		if ((retentionMillis <= 0) && (retentionBytes <= 0))
+			return;
+		String[] names = segmentNames(directory);
+		long total = 0;
+		for (int name = 0; name < names.length; name++)
+			total += new File(directory, names[name]).length() + indexFile(directory, names[name]).length();
+		long oldestKept = System.currentTimeMillis() - retentionMillis;
+		for (int name = 0; name < names.length; name++)
+		{
+			File segment = new File(directory, names[name]);
+			if (segment.equals(dataFile))
+				break;
+			boolean expired = (retentionMillis > 0) && (segment.lastModified() < oldestKept);
+			boolean oversize = (retentionBytes > 0) && (total > retentionBytes);
+			if (!expired && !oversize)
+				break;
+			File segmentIndex = indexFile(directory, names[name]);
+			long length = segment.length() + segmentIndex.length();
+			// The index goes first: a segment without one is not read, a stray index would be
+			segmentIndex.delete();
+			if (!segmentIndex.exists())
+			{
+				segment.delete();
+				total -= length;
+				segmentsDeleted++;
+			}
+		}
+	}
+
+	// The events of a stored block, header included; null when the block is torn or corrupt
+	static byte[] inflateBlock(byte[] stored, Inflater inflater)
+	{
+		if (stored.length < BLOCK_HEADER_BYTES)
+			return null;
+		ByteBuffer header = ByteBuffer.wrap(stored, 0, BLOCK_HEADER_BYTES);
+		int size = header.getInt();
+		int length = header.getInt();
+		if ((length != stored.length - BLOCK_HEADER_BYTES) || (size <= 0) || (size > (long) length * MAXIMUM_INFLATION + 64))
+			return null;
+		byte[] block = new byte[size];
+		inflater.reset();
+		inflater.setInput(stored, BLOCK_HEADER_BYTES, length);
+		try
+		{
+			int inflated = 0;
+			while (inflated < size)
+			{
+				int count = inflater.inflate(block, inflated, size - inflated);
+				if ((count == 0) && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+					return null;
+				inflated += count;
+			}
+			// Reading on to the end of the stream checks its checksum, and that nothing follows the events
+			if (!inflater.finished() && ((inflater.inflate(new byte[1]) != 0) || !inflater.finished()))
+				return null;
+		}
+		catch (DataFormatException e)
+		{
+			return null;
+		}
+		return block;
+	}
+
+	static File indexFile(File directory, String dataName)
+	{
+		return new File(directory, dataName.substring(0, dataName.length() - DATA_SUFFIX.length()) + INDEX_SUFFIX);
+	}
+
+	// Data file names of the segments in a directory, oldest partition first
+	static String[] segmentNames(File directory)
+	{
+		String[] names = directory.list();
+		if (names == null)
+			return new String[0];
+		int count = 0;
+		for (int index = 0; index < names.length; index++)
+		{
+			if (names[index].startsWith(SEGMENT_PREFIX) && names[index].endsWith(DATA_SUFFIX))
+				names[count++] = names[index];
+		}
+		names = Arrays.copyOf(names, count);
+		Arrays.sort(names);
+		return names;
+	}
+
+	static String segmentName(long partitionStart)
+	{
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd-HHmmss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return SEGMENT_PREFIX + format.format(new Date(partitionStart));
+	}
+
+	private static long mod(long value, long divisor)
+	{
+		long remainder = value % divisor;
+		return (remainder < 0) ? remainder + divisor : remainder;
+	}
+}
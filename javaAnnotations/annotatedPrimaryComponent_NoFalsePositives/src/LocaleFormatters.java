@@ -0,0 +1,144 @@
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Bounded cache of price formatters, one per locale
+// Building the JDK number format of a locale is expensive and the result is not thread safe, so it is
+// consulted once and its digits, separators and grouping are kept in an immutable PriceFormatter that every
+// thread can share
+// The least recently used locale is dropped once the cache is full
+
+final class LocaleFormatters {
+
+	// Formats fixed-point prices the way the locale writes numbers, without going through double or BigDecimal
+	// Digits are written from the locale's zero digit, so locales with native digits such as ar-EG keep them, and
+	// negative prices take the locale's negative prefix and suffix, bidi marks included
+	static final class PriceFormatter
+	{
+		private final Locale locale;
+		private final char decimalSeparator;
+		private final char groupingSeparator;
+		private final int groupingSize;
+		private final String negativePrefix;
+		private final String negativeSuffix;
+		private final char zeroDigit;
+
+		PriceFormatter(Locale locale)
+		{
+			NumberFormat format = NumberFormat.getNumberInstance(locale);
+			DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(locale);
+			int grouping = 3;
+			String prefix = String.valueOf(symbols.getMinusSign());
+			String suffix = "";
+			if (format instanceof DecimalFormat)
+			{
+				DecimalFormat decimalFormat = (DecimalFormat) format;
+				symbols = decimalFormat.getDecimalFormatSymbols();
+				grouping = decimalFormat.getGroupingSize();
+				prefix = decimalFormat.getNegativePrefix();
+				suffix = decimalFormat.getNegativeSuffix();
+			}
+
+			this.locale = locale;
+			this.decimalSeparator = symbols.getDecimalSeparator();
+			this.groupingSeparator = symbols.getGroupingSeparator();
+			this.groupingSize = format.isGroupingUsed() ? grouping : 0;
+			this.negativePrefix = prefix;
+			this.negativeSuffix = suffix;
+			this.zeroDigit = symbols.getZeroDigit();
+		}
+
+		Locale getLocale()
+		{
+			return locale;
+		}
+
+		// Appends a price with InstrumentTable.PRICE_DECIMALS implied decimal places, keeping the given
+		// number of decimal places
+		void appendPrice(StringBuilder out, long price, int decimals)
+		{
+			boolean negative = price < 0;
+			if (negative)
+			{
+				out.append(negativePrefix);
+				price = -price;
+			}
+
+			long units = price / InstrumentTable.PRICE_SCALE;
+			int digits = 1;
+			long divisor = 1;
+			while (units / divisor >= 10)
+			{
+				divisor *= 10;
+				digits++;
+			}
+			for (; divisor > 0; divisor /= 10)
+			{
+				out.append((char) (zeroDigit + (units / divisor) % 10));
+				digits--;
+				if ((groupingSize > 0) && (digits > 0) && (digits % groupingSize == 0))
+					out.append(groupingSeparator);
+			}
+
+			if (decimals > 0)
+			{
+				out.append(decimalSeparator);
+				long fraction = price % InstrumentTable.PRICE_SCALE;
+				for (long digit = InstrumentTable.PRICE_SCALE / 10; decimals > 0; digit /= 10, decimals--)
+					out.append((char) (zeroDigit + (fraction / digit) % 10));
+			}
+			if (negative)
+				out.append(negativeSuffix);
+		}
+	}
+
+	private final Map<Locale, PriceFormatter> formatters;
+	private long hits;
+	private long misses;
+
+	LocaleFormatters(final int maximumSize)
+	{
+		if (maximumSize < 1)
+			throw new IllegalArgumentException("maximumSize must be positive");
+		formatters = new LinkedHashMap<Locale, PriceFormatter>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Locale, PriceFormatter> eldest)
+			{
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	synchronized PriceFormatter forLocale(Locale locale)
+	{
+		PriceFormatter formatter = formatters.get(locale);
+		if (formatter != null)
+		{
+			hits++;
+			return formatter;
+		}
+		misses++;
+		formatter = new PriceFormatter(locale);
+		formatters.put(locale, formatter);
+		return formatter;
+	}
+
+	// Share of lookups served from the cache, between 0 and 1
+	synchronized double getHitRate()
+	{
+		long lookups = hits + misses;
+		if (lookups == 0)
+			return 0;
+		return (double) hits / lookups;
+	}
+
+	public synchronized String toString()
+	{
+		return "locale formatters: cached = " + formatters.size() + " hits = " + hits + " misses = " + misses +
+				" hit rate = " + Math.round(getHitRate() * 100) + "%";
+	}
+}
@@ -0,0 +1,309 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanConstructorInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import com.fortify.samples.thirdparty.component.Utility;
+
+// Latency histograms of the seven pipeline steps, of the outbound library calls and of event writes per target
+// Every interval the histograms are snapshotted: the latest interval is served over JMX as
+// <histogram>.count, .p50, .p90, .p99, .p999 and .max (nanoseconds) and, when a file is configured,
+// appended to it one line per histogram
+// One instance serves the whole process; its interval thread is a daemon and ends with the JVM
+// When disabled nothing is recorded and instrument() leaves the library as it is
+
+final class PipelineMetrics implements DynamicMBean {
+
+	enum Step
+	{
+		CONFIGURATION("step1.loadConfiguration"),
+		CREDIT_CARD("step2.retrieveCreditCardData"),
+		USER_PROFILE("step3.loadUserProfile"),
+		FINANCIAL_INSTRUMENTS("step4.loadFinancialInstruments"),
+		SANITIZE("step5.sanitizeUserDataForDisplay"),
+		LOCALIZE("step6.localizeFinancialInstruments"),
+		POST("step7.postInformation");
+
+		final String histogramName;
+
+		Step(String histogramName)
+		{
+			this.histogramName = histogramName;
+		}
+	}
+
+	enum LibraryCall
+	{
+		LOAD_CREDIT_CARD_INFO("utility.loadCreditCardInfo"),
+		LOAD_USER_DATA("utility.loadUserDataFromDatabase"),
+		RETRIEVE_STOCK_DATA("utility.retrieveStockDataFromWebSource"),
+		POST_HTML_RESPONSE("utility.postHTMLResponse"),
+		LOG_EVENT_TO_DISK("utility.logEventToDisk");
+
+		final String histogramName;
+
+		LibraryCall(String histogramName)
+		{
+			this.histogramName = histogramName;
+		}
+	}
+
+	static final String OBJECT_NAME = "MainComponent:type=PipelineMetrics";
+
+	private static final int STEP_COUNT = Step.values().length;
+	private static final int LIBRARY_CALL_COUNT = LibraryCall.values().length;
+	private static final String[] STATISTICS = { "count", "p50", "p90", "p99", "p999", "max" };
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private final boolean enabled;
+	private final File dumpFile;
+	private final LatencyHistogram[] histograms;
+
+	// Snapshots of the latest completed interval, in the order of histograms
+	private volatile LatencyHistogram.Snapshot[] lastInterval;
+	private volatile long lastIntervalEnd;
+	private MBeanInfo info;
+
+	PipelineMetrics(boolean enabled, long intervalMillis, boolean registerMBean, File dumpFile)
+	{
+		this.enabled = enabled;
+		this.dumpFile = dumpFile;
+		Step[] steps = Step.values();
+		LibraryCall[] calls = LibraryCall.values();
+		PartitionedEventWriter.Target[] targets = PartitionedEventWriter.Target.values();
+		histograms = new LatencyHistogram[STEP_COUNT + LIBRARY_CALL_COUNT + targets.length];
+		for (int index = 0; index < STEP_COUNT; index++)
+			histograms[index] = new LatencyHistogram(steps[index].histogramName);
+		for (int index = 0; index < LIBRARY_CALL_COUNT; index++)
+			histograms[STEP_COUNT + index] = new LatencyHistogram(calls[index].histogramName);
+		for (int index = 0; index < targets.length; index++)
+			histograms[STEP_COUNT + LIBRARY_CALL_COUNT + index] = new LatencyHistogram("events." + targets[index].key + ".write");
+		lastInterval = new LatencyHistogram.Snapshot[histograms.length];
+		for (int index = 0; index < histograms.length; index++)
+			lastInterval[index] = histograms[index].snapshot();
+		lastIntervalEnd = System.currentTimeMillis();
+
+		if (enabled && (intervalMillis > 0))
+		{
+			ScheduledExecutorService intervals = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("pipeline-metrics"));
+			intervals.scheduleAtFixedRate(new Runnable() {
+				public void run()
+				{
+					completeInterval();
+				}
+			}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+		}
+
+		if (enabled && registerMBean)
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+			}
+			catch (JMException e)
+			{
+				System.err.println("pipeline metrics not registered: " + e.getMessage());
+			}
+		}
+	}
+
+	// Wraps the library so its calls are timed
+	Utility instrument(Utility library)
+	{
+		if (!enabled || (library instanceof InstrumentedUtility))
+			return library;
+		return new InstrumentedUtility(library, this);
+	}
+
+	// Records the time since startNanos, a value of System.nanoTime(), for a pipeline step
+	void record(Step step, long startNanos)
+	{
+		if (enabled)
+			histograms[step.ordinal()].recordSince(startNanos);
+	}
+
+	void record(LibraryCall call, long startNanos)
+	{
+		if (enabled)
+			histograms[STEP_COUNT + call.ordinal()].recordSince(startNanos);
+	}
+
+	// Records how long writing one event to its target took
+	void record(PartitionedEventWriter.Target target, long startNanos)
+	{
+		if (enabled)
+			histograms[STEP_COUNT + LIBRARY_CALL_COUNT + target.ordinal()].recordSince(startNanos);
+	}
+
+	// Ends the current interval now, publishing and dumping it
+	synchronized void completeInterval()
+	{
+		if (!enabled)
+			return;
+		LatencyHistogram.Snapshot[] interval = new LatencyHistogram.Snapshot[histograms.length];
+		for (int index = 0; index < histograms.length; index++)
+			interval[index] = histograms[index].intervalSnapshot();
+		long intervalStart = lastIntervalEnd;
+		lastIntervalEnd = System.currentTimeMillis();
+		lastInterval = interval;
+		if (dumpFile != null)
+			dump(interval, intervalStart, lastIntervalEnd);
+	}
+
+	public String toString()
+	{
+		StringBuilder report = new StringBuilder("pipeline metrics (last interval):");
+		LatencyHistogram.Snapshot[] interval = lastInterval;
+		for (int index = 0; index < histograms.length; index++)
+		{
+			if (interval[index].getCount() != 0)
+				report.append('\n').append(format(histograms[index].getName(), interval[index]));
+		}
+		return report.toString();
+	}
+
+	private void dump(LatencyHistogram.Snapshot[] interval, long intervalStart, long intervalEnd)
+	{
+		PrintWriter out = null;
+		try
+		{
+			out = new PrintWriter(new FileWriter(dumpFile, true));
+			String timestamp = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(intervalEnd));
+			for (int index = 0; index < histograms.length; index++)
+			{
+				out.println(timestamp + " interval=" + (intervalEnd - intervalStart) + "ms " +
+						format(histograms[index].getName(), interval[index]));
+			}
+		}
+		catch (IOException e)
+		{
+			System.err.println("pipeline metrics not written: " + e.getMessage());
+		}
+		finally
+		{
+			if (out != null)
+				out.close();
+		}
+	}
+
+	private static String format(String name, LatencyHistogram.Snapshot snapshot)
+	{
+		return name + " count=" + snapshot.getCount() +
+				" p50=" + micros(snapshot.getPercentile(50)) +
+				" p90=" + micros(snapshot.getPercentile(90)) +
+				" p99=" + micros(snapshot.getPercentile(99)) +
+				" p99.9=" + micros(snapshot.getPercentile(99.9)) +
+				" max=" + micros(snapshot.getMax());
+	}
+
+	private static String micros(long nanos)
+	{
+		return String.format("%.1fus", nanos / 1000.0);
+	}
+
+	// DynamicMBean: read-only statistics of the latest interval
+
+	public Object getAttribute(String attribute) throws AttributeNotFoundException
+	{
+		int separator = attribute.lastIndexOf('.');
+		if (separator > 0)
+		{
+			String histogramName = attribute.substring(0, separator);
+			String statistic = attribute.substring(separator + 1);
+			LatencyHistogram.Snapshot[] interval = lastInterval;
+			for (int index = 0; index < histograms.length; index++)
+			{
+				if (histograms[index].getName().equals(histogramName))
+					return Long.valueOf(statistic(interval[index], statistic, attribute));
+			}
+		}
+		throw new AttributeNotFoundException(attribute);
+	}
+
+	public AttributeList getAttributes(String[] attributes)
+	{
+		AttributeList values = new AttributeList();
+		for (int index = 0; index < attributes.length; index++)
+		{
+			try
+			{
+				values.add(new Attribute(attributes[index], getAttribute(attributes[index])));
+			}
+			catch (AttributeNotFoundException e)
+			{
+				// Unknown attributes are left out of the list, as the interface allows
+			}
+		}
+		return values;
+	}
+
+	public void setAttribute(Attribute attribute) throws AttributeNotFoundException
+	{
+		throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+	}
+
+	public AttributeList setAttributes(AttributeList attributes)
+	{
+		return new AttributeList();
+	}
+
+	public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException
+	{
+		throw new ReflectionException(new NoSuchMethodException(actionName));
+	}
+
+	public synchronized MBeanInfo getMBeanInfo()
+	{
+		if (info == null)
+		{
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[histograms.length * STATISTICS.length];
+			int next = 0;
+			for (int index = 0; index < histograms.length; index++)
+			{
+				for (int statistic = 0; statistic < STATISTICS.length; statistic++)
+				{
+					String description = (statistic == 0) ? "recordings in the last interval" : "nanoseconds, last interval";
+					attributes[next++] = new MBeanAttributeInfo(histograms[index].getName() + "." + STATISTICS[statistic],
+							"long", description, true, false, false);
+				}
+			}
+			info = new MBeanInfo(getClass().getName(), "Latency of the MainComponent pipeline steps, library calls and event writes",
+					attributes, new MBeanConstructorInfo[0], new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
+		}
+		return info;
+	}
+
+	private static long statistic(LatencyHistogram.Snapshot snapshot, String statistic, String attribute)
+			throws AttributeNotFoundException
+	{
+		if (STATISTICS[0].equals(statistic))
+			return snapshot.getCount();
+		for (int index = 0; index < PERCENTILES.length; index++)
+		{
+			if (STATISTICS[index + 1].equals(statistic))
+				return snapshot.getPercentile(PERCENTILES[index]);
+		}
+		if (STATISTICS[STATISTICS.length - 1].equals(statistic))
+			return snapshot.getMax();
+		throw new AttributeNotFoundException(attribute);
+	}
+}
@@ -0,0 +1,212 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+// Writes an HTTP message into one pooled direct buffer and sends it through a channel each time the buffer fills,
+// so the memory a response needs does not depend on its size
+// Characters are encoded to UTF-8 by hand, directly into the buffer
+// The head of the message is sent as is; after startChunkedBody() every buffer load goes out as one chunk of
+// HTTP chunked transfer encoding, framed in place: the chunk header and trailer have space reserved at both
+// ends of the buffer
+
+final class StreamingHtmlWriter {
+
+	// "%08x\r\n" in front of and "\r\n" after the data of every chunk
+	private static final int CHUNK_HEADER_BYTES = 10;
+	private static final int CHUNK_TRAILER_BYTES = 2;
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	private static final byte[] HEX_DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	// Longest UTF-8 encoding of a single code point
+	private static final int MAXIMUM_CHARACTER_BYTES = 4;
+
+	private final WritableByteChannel channel;
+	private final DirectBufferPool pool;
+	private ByteBuffer buffer;
+	private boolean chunked;
+	private int dataStart;
+	private long bytesSent;
+
+	StreamingHtmlWriter(WritableByteChannel channel, DirectBufferPool pool)
+	{
+		this.channel = channel;
+		this.pool = pool;
+		this.buffer = pool.acquire();
+	}
+
+	// Appends text as is
+	StreamingHtmlWriter markup(CharSequence text) throws IOException
+	{
+		return append(text, false);
+	}
+
+	// Appends text with the HTML special characters replaced by entities
+	StreamingHtmlWriter text(CharSequence text) throws IOException
+	{
+		return append(text, true);
+	}
+
+	// Appends bytes that are already encoded
+	StreamingHtmlWriter bytes(byte[] data) throws IOException
+	{
+		int offset = 0;
+		while (offset < data.length)
+		{
+			ensureRoom(1);
+			int count = Math.min(data.length - offset, room());
+			buffer.put(data, offset, count);
+			offset += count;
+		}
+		return this;
+	}
+
+	// Sends the message head unframed; everything written afterwards is chunked
+	void startChunkedBody() throws IOException
+	{
+		if (chunked)
+			return;
+		sendBuffer();
+		chunked = true;
+		dataStart = CHUNK_HEADER_BYTES;
+		buffer.position(dataStart);
+	}
+
+	// Sends what is left, terminates a chunked body and returns the buffer to the pool
+	void finish() throws IOException
+	{
+		try
+		{
+			if (chunked)
+			{
+				if (buffer.position() > dataStart)
+					sendChunk();
+				buffer.clear();
+				buffer.put(LAST_CHUNK);
+				chunked = false;
+			}
+			sendBuffer();
+		}
+		finally
+		{
+			release();
+		}
+	}
+
+	// Returns the buffer to the pool without sending anything more
+	void release()
+	{
+		if (buffer != null)
+		{
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+
+	long getBytesSent()
+	{
+		return bytesSent;
+	}
+
+	private StreamingHtmlWriter append(CharSequence text, boolean escape) throws IOException
+	{
+		if (text == null)
+			return this;
+		int length = text.length();
+		for (int index = 0; index < length; index++)
+		{
+			char c = text.charAt(index);
+			if (escape && HtmlEscaper.needsEscaping(c))
+			{
+				String entity = HtmlEscaper.entityFor(c);
+				for (int entityIndex = 0; entityIndex < entity.length(); entityIndex++)
+					putByte((byte) entity.charAt(entityIndex));
+				continue;
+			}
+
+			if (c < 0x80)
+				putByte((byte) c);
+			else
+			{
+				ensureRoom(MAXIMUM_CHARACTER_BYTES);
+				if (c < 0x800)
+				{
+					buffer.put((byte) (0xc0 | (c >> 6)));
+					buffer.put((byte) (0x80 | (c & 0x3f)));
+				}
+				else if (Character.isHighSurrogate(c) && (index + 1 < length) && Character.isLowSurrogate(text.charAt(index + 1)))
+				{
+					int codePoint = Character.toCodePoint(c, text.charAt(++index));
+					buffer.put((byte) (0xf0 | (codePoint >> 18)));
+					buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3f)));
+					buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3f)));
+					buffer.put((byte) (0x80 | (codePoint & 0x3f)));
+				}
+				else if (Character.isSurrogate(c))
+					buffer.put((byte) '?');
+				else
+				{
+					buffer.put((byte) (0xe0 | (c >> 12)));
+					buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+					buffer.put((byte) (0x80 | (c & 0x3f)));
+				}
+			}
+		}
+		return this;
+	}
+
+	private void putByte(byte value) throws IOException
+	{
+		ensureRoom(1);
+		buffer.put(value);
+	}
+
+	private void ensureRoom(int bytes) throws IOException
+	{
+		if (buffer == null)
+			throw new IOException("response already finished");
+		if (room() >= bytes)
+			return;
+		if (chunked)
+		{
+			sendChunk();
+			buffer.clear();
+			buffer.position(dataStart);
+		}
+		else
+			sendBuffer();
+	}
+
+	private int room()
+	{
+		int limit = chunked ? buffer.capacity() - CHUNK_TRAILER_BYTES : buffer.capacity();
+		return limit - buffer.position();
+	}
+
+	// Frames the data written since dataStart as one chunk and sends it
+	private void sendChunk() throws IOException
+	{
+		int dataEnd = buffer.position();
+		int dataBytes = dataEnd - dataStart;
+		for (int digit = 0; digit < 8; digit++)
+			buffer.put(digit, HEX_DIGITS[(dataBytes >>> ((7 - digit) * 4)) & 0xf]);
+		buffer.put(8, (byte) '\r');
+		buffer.put(9, (byte) '\n');
+		buffer.put((byte) '\r');
+		buffer.put((byte) '\n');
+		buffer.flip();
+		writeFully();
+	}
+
+	private void sendBuffer() throws IOException
+	{
+		buffer.flip();
+		writeFully();
+		buffer.clear();
+	}
+
+	private void writeFully() throws IOException
+	{
+		while (buffer.hasRemaining())
+			bytesSent += channel.write(buffer);
+	}
+}
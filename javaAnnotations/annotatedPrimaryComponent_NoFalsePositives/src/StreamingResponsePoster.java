@@ -0,0 +1,313 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+// Posts the sidebar page of a user to an HTTP endpoint while the page is being produced
+// The page is rendered from a precompiled SidebarTemplate and goes out in chunks through a StreamingHtmlWriter,
+// so a portfolio of any size is sent with the memory of a single pooled buffer
+// Several pages can also go out as one multipart request, see postBatch
+// The user's credentials go out only over TLS (the JVM's default trust store, with the host name checked);
+// over a plaintext connection, allowed for an endpoint such as a local TLS proxy, no Authorization is sent
+// Each post must finish within timeoutMillis: reads time out on the socket, and a post still running at the
+// deadline has its socket closed, which also ends a write stalled on a peer that stopped reading
+// Returns the same codes as Utility.postHTMLResponse: 0 on success, 2 when the endpoint refuses the
+// submission for security reasons and 1 for any other failure
+
+final class StreamingResponsePoster {
+
+	static final int SUCCESS = 0;
+	static final int FAILURE = 1;
+	static final int SECURITY_VIOLATION = 2;
+
+	static final String BATCH_COUNT_HEADER = "X-Sidebar-Count";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAXIMUM_LINE = 256;
+	private static final char[] BASE64_DIGITS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private final InetSocketAddress endpoint;
+	private final String path;
+	private final DirectBufferPool pool;
+	private final int timeoutMillis;
+	private final SidebarTemplate template;
+	private final boolean tls;
+	private final Random boundaries = new Random();
+	private final ScheduledThreadPoolExecutor deadlines = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("response-deadline"));
+
+	StreamingResponsePoster(InetSocketAddress endpoint, String path, DirectBufferPool pool, int timeoutMillis, SidebarTemplate template,
+			boolean tls)
+	{
+		this.endpoint = endpoint;
+		this.path = path;
+		this.pool = pool;
+		this.timeoutMillis = timeoutMillis;
+		this.template = template;
+		this.tls = tls;
+		deadlines.setRemoveOnCancelPolicy(true);
+		if (!tls)
+			System.err.println("Response endpoint " + endpoint + " is plaintext; user credentials will not be sent to it");
+	}
+
+	int post(SidebarSubmission submission) throws IOException
+	{
+		Exchange exchange = new Exchange();
+		try
+		{
+			StreamingHtmlWriter writer = new StreamingHtmlWriter(Channels.newChannel(exchange.socket.getOutputStream()), pool);
+			try
+			{
+				writeHead(writer);
+				writeAuthorization(writer, submission);
+				writer.markup("Content-Type: text/html; charset=UTF-8\r\n\r\n");
+				writer.startChunkedBody();
+				template.render(writer, submission);
+				writer.finish();
+			}
+			finally
+			{
+				writer.release();
+			}
+			return mapStatus(readStatus(exchange.socket.getInputStream()));
+		}
+		catch (IOException e)
+		{
+			throw exchange.failure(e);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	// Posts several pages in one multipart request; every part carries the credentials of its own user
+	// The endpoint answers with one status code per line, in the order of the parts
+	int[] postBatch(List<SidebarSubmission> submissions) throws IOException
+	{
+		String boundary = "sidebar-" + Long.toHexString(boundaries.nextLong() & Long.MAX_VALUE);
+		Exchange exchange = new Exchange();
+		try
+		{
+			StreamingHtmlWriter writer = new StreamingHtmlWriter(Channels.newChannel(exchange.socket.getOutputStream()), pool);
+			try
+			{
+				writeHead(writer);
+				writer.markup("Content-Type: multipart/mixed; boundary=").markup(boundary).markup("\r\n");
+				writer.markup(BATCH_COUNT_HEADER).markup(": ").markup(Integer.toString(submissions.size())).markup("\r\n\r\n");
+				writer.startChunkedBody();
+				for (int index = 0; index < submissions.size(); index++)
+				{
+					SidebarSubmission submission = submissions.get(index);
+					writer.markup("--").markup(boundary).markup("\r\n");
+					writeAuthorization(writer, submission);
+					writer.markup("Content-Type: text/html; charset=UTF-8\r\n\r\n");
+					template.render(writer, submission);
+					writer.markup("\r\n");
+				}
+				writer.markup("--").markup(boundary).markup("--\r\n");
+				writer.finish();
+			}
+			finally
+			{
+				writer.release();
+			}
+			return readBatchResults(exchange.socket.getInputStream(), submissions.size());
+		}
+		catch (IOException e)
+		{
+			throw exchange.failure(e);
+		}
+		finally
+		{
+			exchange.close();
+		}
+	}
+
+	// One connection to the endpoint, closed by the deadline timer if the post outlives timeoutMillis
+	private final class Exchange implements Runnable
+	{
+		final Socket socket;
+		// The TCP connection under socket; closing it ends any I/O on socket, including a TLS handshake
+		private final Socket plain = new Socket();
+		private final AtomicBoolean expired = new AtomicBoolean();
+		private final ScheduledFuture<?> deadline;
+
+		Exchange() throws IOException
+		{
+			deadline = deadlines.schedule(this, timeoutMillis, TimeUnit.MILLISECONDS);
+			try
+			{
+				plain.connect(endpoint, timeoutMillis);
+				plain.setSoTimeout(timeoutMillis);
+				if (tls)
+				{
+					SSLSocket secure = (SSLSocket) ((SSLSocketFactory) SSLSocketFactory.getDefault()).createSocket(plain,
+							endpoint.getHostString(), endpoint.getPort(), true);
+					SSLParameters parameters = secure.getSSLParameters();
+					parameters.setEndpointIdentificationAlgorithm("HTTPS");
+					secure.setSSLParameters(parameters);
+					socket = secure;
+					secure.startHandshake();
+				}
+				else
+				{
+					socket = plain;
+				}
+			}
+			catch (IOException e)
+			{
+				deadline.cancel(false);
+				plain.close();
+				throw failure(e);
+			}
+		}
+
+		// Runs on the deadline timer
+		public void run()
+		{
+			expired.set(true);
+			try
+			{
+				plain.close();
+			}
+			catch (IOException e)
+			{
+				// Closing is all the deadline can do
+			}
+		}
+
+		// Reports a failure caused by the deadline as a timeout
+		IOException failure(IOException e)
+		{
+			if (expired.get() && !(e instanceof SocketTimeoutException))
+				return new SocketTimeoutException("response endpoint did not finish within " + timeoutMillis + " ms");
+			return e;
+		}
+
+		void close() throws IOException
+		{
+			deadline.cancel(false);
+			socket.close();
+		}
+	}
+
+	// Request line and the headers shared by single and batched posts; the caller ends the head
+	private void writeHead(StreamingHtmlWriter writer) throws IOException
+	{
+		writer.markup("POST ").markup(path).markup(" HTTP/1.1\r\n");
+		writer.markup("Host: ").markup(endpoint.getHostString()).markup(":").markup(Integer.toString(endpoint.getPort())).markup("\r\n");
+		writer.markup("Transfer-Encoding: chunked\r\n");
+		writer.markup("Connection: close\r\n");
+	}
+
+	private void writeAuthorization(StreamingHtmlWriter writer, SidebarSubmission submission) throws IOException
+	{
+		if (tls)
+			writer.markup("Authorization: Basic ").markup(credentials(submission)).markup("\r\n");
+	}
+
+	private static String credentials(SidebarSubmission submission)
+	{
+		return base64((submission.userID + ":" + submission.userAuthenticationCredential).getBytes(UTF8));
+	}
+
+	// A refused batch fails every part the same way; an accepted one lists the status of each part
+	private static int[] readBatchResults(InputStream response, int count) throws IOException
+	{
+		int[] results = new int[count];
+		int status = readStatus(response);
+		if ((status < 200) || (status >= 300))
+		{
+			Arrays.fill(results, mapStatus(status));
+			return results;
+		}
+
+		while (readLine(response).length() != 0)
+		{
+			// Skip the response headers
+		}
+		for (int index = 0; index < count; index++)
+			results[index] = mapStatus(parseStatus(readLine(response), 0));
+		return results;
+	}
+
+	// Reads the status line of the response and returns its code
+	private static int readStatus(InputStream response) throws IOException
+	{
+		// HTTP/1.1 200 OK
+		String statusLine = readLine(response);
+		return parseStatus(statusLine, statusLine.indexOf(' ') + 1);
+	}
+
+	private static int parseStatus(String line, int codeStart) throws IOException
+	{
+		if ((codeStart < 0) || (line.length() < codeStart + 3))
+			throw new IOException("malformed response status: " + line);
+		try
+		{
+			return Integer.parseInt(line.substring(codeStart, codeStart + 3));
+		}
+		catch (NumberFormatException e)
+		{
+			throw new IOException("malformed response status: " + line);
+		}
+	}
+
+	private static int mapStatus(int status)
+	{
+		if ((status >= 200) && (status < 300))
+			return SUCCESS;
+		if ((status == 401) || (status == 403))
+			return SECURITY_VIOLATION;
+		return FAILURE;
+	}
+
+	private static String readLine(InputStream response) throws IOException
+	{
+		StringBuilder line = new StringBuilder(32);
+		int next;
+		while ((next = response.read()) != '\n')
+		{
+			if (next < 0)
+				throw new IOException("response ended unexpectedly");
+			if (line.length() == MAXIMUM_LINE)
+				throw new IOException("response line too long");
+			if (next != '\r')
+				line.append((char) next);
+		}
+		return line.toString();
+	}
+
+	private static String base64(byte[] data)
+	{
+		StringBuilder encoded = new StringBuilder((data.length + 2) / 3 * 4);
+		for (int index = 0; index < data.length; index += 3)
+		{
+			int remaining = data.length - index;
+			int group = (data[index] & 0xff) << 16;
+			if (remaining > 1)
+				group |= (data[index + 1] & 0xff) << 8;
+			if (remaining > 2)
+				group |= data[index + 2] & 0xff;
+			encoded.append(BASE64_DIGITS[(group >> 18) & 0x3f]);
+			encoded.append(BASE64_DIGITS[(group >> 12) & 0x3f]);
+			encoded.append((remaining > 1) ? BASE64_DIGITS[(group >> 6) & 0x3f] : '=');
+			encoded.append((remaining > 2) ? BASE64_DIGITS[group & 0x3f] : '=');
+		}
+		return encoded.toString();
+	}
+}
@@ -0,0 +1,219 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Cost of putting one AUDIT event on disk before its caller continues
+// "write and fsync" writes the event and syncs the file on every event, the price of a durable write without
+// sharing; AuditJournal shares each sync among every append waiting for it
+// With benchmark.appendThreads > 0 that many background threads append to the same journal, so the groups a
+// sync commits grow; the journal's statistics are printed to stderr after each benchmark
+// Before measuring, the journal benchmark checks that a torn tail left by a crash is cut off on reopening, and
+// that opening a second journal on the directory of a live one loses none of the first one's records
+
+final class AuditJournalBenchmarks {
+
+	private static final int APPEND_THREADS = Integer.getInteger("benchmark.appendThreads", 0).intValue();
+	private static final long SYNC_MILLIS = Long.getLong("benchmark.syncMillis", 0L).longValue();
+	private static final int INFO = 0;
+	private static final int AUDIT = 5;
+
+	private AuditJournalBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		final Thread[] contenders = new Thread[APPEND_THREADS];
+		final AtomicBoolean running = new AtomicBoolean();
+		String suffix = (APPEND_THREADS == 0) ? ", single appender" : ", " + APPEND_THREADS + " contending threads";
+
+		return new MicroBenchmark[] {
+			new MicroBenchmark("durable audit: write and fsync per event") {
+				private File file;
+				private RandomAccessFile out;
+				private long events;
+
+				void setUp() throws IOException
+				{
+					file = File.createTempFile("audit", ".txt");
+					out = new RandomAccessFile(file, "rw");
+				}
+
+				void tearDown() throws IOException
+				{
+					out.close();
+					file.delete();
+				}
+
+				void operation() throws IOException
+				{
+					out.write(event(events++).getMessage().getBytes(BinaryEventLog.UTF_8));
+					out.getFD().sync();
+				}
+			},
+			new MicroBenchmark("durable audit: AuditJournal" + suffix) {
+				private File directory;
+				private AuditJournal journal;
+				private long events;
+
+				void setUp() throws IOException
+				{
+					checkTornTailRecovered();
+					checkSharedDirectory();
+					directory = newDirectory();
+					journal = new AuditJournal(directory, 16L * 1024 * 1024, SYNC_MILLIS, 64 * 1024, 0, 0);
+					startContenders(journal, contenders, running);
+				}
+
+				void tearDown() throws Exception
+				{
+					stopContenders(contenders, running);
+					journal.close();
+					System.err.println(getName() + ": " + journal);
+					deleteDirectory(directory);
+				}
+
+				void operation()
+				{
+					consume(journal.append(event(events++)));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	// Seals a journal of three records, reopens its segment as a crash would leave it (unsealed, half a record
+	// after the last one) and opens the journal again: the segment must be cut back and sealed, with its three
+	// records intact
+	private static void checkTornTailRecovered() throws IOException
+	{
+		File directory = newDirectory();
+		try
+		{
+			AuditJournal journal = new AuditJournal(directory, 64 * 1024, 0, 1, 0, 0);
+			for (int index = 0; index < 3; index++)
+				journal.append(event(index));
+			journal.close();
+
+			File segment = new File(directory, AuditJournal.segmentName(1));
+			long length = segment.length();
+			RandomAccessFile file = new RandomAccessFile(segment, "rw");
+			try
+			{
+				file.seek(AuditJournal.STATE_OFFSET);
+				file.writeInt(AuditJournal.OPEN);
+				// The header of a 100 byte record of which only 20 bytes arrived, then the zeros of the mapped file
+				file.seek(length);
+				file.writeInt(100);
+				file.writeInt(0x12345678);
+				file.write(new byte[20], 0, 20);
+				file.write(1);
+				file.setLength(64 * 1024);
+			}
+			finally
+			{
+				file.close();
+			}
+
+			journal = new AuditJournal(directory, 64 * 1024, 0, 1, 0, 0);
+			journal.append(event(3));
+			journal.close();
+			file = new RandomAccessFile(segment, "r");
+			int state;
+			try
+			{
+				file.seek(AuditJournal.STATE_OFFSET);
+				state = file.readInt();
+			}
+			finally
+			{
+				file.close();
+			}
+			int records = AuditJournal.read(directory).size();
+			if ((segment.length() != length) || (state != AuditJournal.SEALED) || (records != 4))
+				throw new IllegalStateException("torn journal tail not recovered: segment length " + segment.length() +
+						" of " + length + ", state " + state + ", " + records + " records of 4");
+		}
+		finally
+		{
+			deleteDirectory(directory);
+		}
+	}
+
+	// A journal opening on the directory of a live one must leave its segment alone
+	private static void checkSharedDirectory() throws IOException
+	{
+		File directory = newDirectory();
+		try
+		{
+			AuditJournal first = new AuditJournal(directory, 64 * 1024, 0, 1, 0, 0);
+			for (int index = 0; index < 10; index++)
+				first.append(event(index));
+			AuditJournal second = new AuditJournal(directory, 64 * 1024, 0, 1, 0, 0);
+			for (int index = 10; index < 20; index++)
+				first.append(event(index));
+			second.append(event(20));
+			first.close();
+			second.close();
+			int records = AuditJournal.read(directory).size();
+			if (records != 21)
+				throw new IllegalStateException("journals sharing a directory kept " + records + " records of 21");
+		}
+		finally
+		{
+			deleteDirectory(directory);
+		}
+	}
+
+	private static File newDirectory() throws IOException
+	{
+		File directory = File.createTempFile("audit", "");
+		directory.delete();
+		return directory;
+	}
+
+	private static void deleteDirectory(File directory)
+	{
+		File[] segments = directory.listFiles();
+		if (segments != null)
+		{
+			for (int index = 0; index < segments.length; index++)
+				segments[index].delete();
+		}
+		directory.delete();
+	}
+
+	private static LogEvent event(long sequence)
+	{
+		return LogEvent.fromTemplate(INFO, AUDIT, "user {} processed.", new Object[] { "user" + (sequence % 1000) });
+	}
+
+	private static void startContenders(final AuditJournal journal, Thread[] contenders, final AtomicBoolean running)
+	{
+		running.set(true);
+		for (int index = 0; index < contenders.length; index++)
+		{
+			contenders[index] = new DaemonThreadFactory("journal-contender").newThread(new Runnable() {
+				public void run()
+				{
+					long sequence = 0;
+					while (running.get())
+						journal.append(event(sequence++));
+				}
+			});
+			contenders[index].start();
+		}
+	}
+
+	private static void stopContenders(Thread[] contenders, AtomicBoolean running) throws InterruptedException
+	{
+		running.set(false);
+		for (int index = 0; index < contenders.length; index++)
+			contenders[index].join();
+	}
+}
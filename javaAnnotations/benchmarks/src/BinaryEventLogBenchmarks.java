@@ -0,0 +1,169 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+// Compares writing events as text, message and description each in full the way logEventToDisk receives them,
+// with BinaryEventLog and with EventStore, which deflates blocks of the same encoding
+// Events cycle through audit templates for benchmark.users users, debug notes and exceptions; both sinks
+// flush every EVENT_BATCH_SIZE events as the event writer does after a batch
+// Disk bytes per event are printed to stderr after each benchmark
+
+final class BinaryEventLogBenchmarks {
+
+	private static final int USERS = Integer.getInteger("benchmark.users", 1000).intValue();
+	private static final int EVENT_BATCH_SIZE = 256;
+	private static final int INFO = 0;
+	private static final int FAIL = 2;
+	private static final int DEBUG = 5;
+	private static final int APPLICATION = 0;
+	private static final int AUDIT = 5;
+
+	private BinaryEventLogBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		return new MicroBenchmark[] {
+			new MicroBenchmark("event log: text, message and description") {
+				private File file;
+				private Writer out;
+				private long events;
+				private LogEvent[] workload;
+
+				void setUp() throws IOException
+				{
+					workload = workload();
+					file = File.createTempFile("events", ".txt");
+					out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+				}
+
+				void tearDown() throws IOException
+				{
+					out.close();
+					report(getName(), file.length(), events);
+					file.delete();
+				}
+
+				void operation() throws IOException
+				{
+					LogEvent event = workload[(int) (events % workload.length)];
+					out.write(Integer.toString(event.getEventType()));
+					out.write(' ');
+					out.write(Integer.toString(event.getCategory()));
+					out.write(' ');
+					out.write(Long.toString(event.getTimestamp()));
+					out.write(' ');
+					out.write(String.valueOf(event.getMessage()));
+					out.write('\t');
+					out.write(String.valueOf(event.getDescription()));
+					out.write('\n');
+					if (++events % EVENT_BATCH_SIZE == 0)
+						out.flush();
+				}
+			},
+			new MicroBenchmark("event log: BinaryEventLog") {
+				private File directory;
+				private BinaryEventLog log;
+				private long events;
+				private LogEvent[] workload;
+
+				void setUp() throws IOException
+				{
+					workload = workload();
+					directory = File.createTempFile("events", "");
+					directory.delete();
+					log = new BinaryEventLog(directory, Long.MAX_VALUE);
+				}
+
+				void tearDown()
+				{
+					log.close();
+					report(getName(), deleteAll(directory), events);
+				}
+
+				void operation()
+				{
+					consume(log.write(workload[(int) (events % workload.length)]));
+					if (++events % EVENT_BATCH_SIZE == 0)
+						log.flush();
+				}
+			},
+			new MicroBenchmark("event log: EventStore") {
+				private File directory;
+				private EventStore store;
+				private long events;
+				private LogEvent[] workload;
+
+				void setUp() throws IOException
+				{
+					workload = workload();
+					directory = File.createTempFile("events", "");
+					directory.delete();
+					store = new EventStore(directory, 60L * 60 * 1000, 64 * 1024, 1000, 0, 0);
+				}
+
+				void tearDown()
+				{
+					store.close();
+					report(getName(), deleteAll(directory), events);
+				}
+
+				void operation()
+				{
+					consume(store.write(workload[(int) (events % workload.length)]));
+					if (++events % EVENT_BATCH_SIZE == 0)
+						store.flush();
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	// Per user: four audit events, a debug note, and for every tenth user a failure
+	private static LogEvent[] workload()
+	{
+		LogEvent[] events = new LogEvent[USERS * 5 + USERS / 10];
+		int next = 0;
+		for (int user = 0; user < USERS; user++)
+		{
+			String userID = "user" + user;
+			events[next++] = new LogEvent(INFO, AUDIT, "user processing iniated");
+			events[next++] = LogEvent.fromTemplate(INFO, AUDIT, "financial instruments retrieved for user {}", new Object[] { userID });
+			events[next++] = LogEvent.fromTemplate(DEBUG, APPLICATION, "user {} loaded from database; password = {}",
+					new Object[] { userID, "secret" + (user % 7) });
+			events[next++] = LogEvent.fromTemplate(INFO, AUDIT, "user {} processed.", new Object[] { userID });
+			events[next++] = new LogEvent(INFO, AUDIT, "user processing terminated with no problems");
+			if (user % 10 == 0)
+				events[next++] = LogEvent.fromException(FAIL, APPLICATION, new IllegalStateException("Configuration file corrupt"));
+		}
+		return events;
+	}
+
+	// Returns the bytes the directory held
+	private static long deleteAll(File directory)
+	{
+		long bytes = 0;
+		File[] files = directory.listFiles();
+		for (int index = 0; index < files.length; index++)
+		{
+			bytes += files[index].length();
+			files[index].delete();
+		}
+		directory.delete();
+		return bytes;
+	}
+
+	private static void report(String name, long bytes, long events)
+	{
+		if (events != 0)
+			System.err.println(name + ": " + String.format("%.1f", (double) bytes / events) + " disk bytes per event");
+	}
+}
@@ -0,0 +1,74 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Compares loading profiles and credit card data one user at a time with the bulk loading APIs
+// The backend is an in-process stand-in that charges benchmark.callLatencyMicros for every round trip;
+// "fallback" runs BulkDataLoader against single-user calls only, "native bulk" against batch calls
+
+final class BulkLoadingBenchmarks {
+
+	private static final int USERS = Integer.getInteger("benchmark.users", 64).intValue();
+	private static final int BATCH_SIZE = Integer.getInteger("benchmark.batchSize", 16).intValue();
+	private static final long CALL_LATENCY_MICROS = Long.getLong("benchmark.callLatencyMicros", 100L).longValue();
+	private static final String KEY = "benchmark-key";
+
+	private BulkLoadingBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		final List<String> userIDs = new ArrayList<String>(USERS);
+		for (int index = 0; index < USERS; index++)
+			userIDs.add("user" + index);
+
+		final LatencySimulatingUtility backend = new LatencySimulatingUtility(CALL_LATENCY_MICROS);
+		final BulkDataLoader fallbackLoader = new BulkDataLoader(backend, BATCH_SIZE);
+		final BulkDataLoader nativeLoader = new BulkDataLoader(backend, BATCH_SIZE) {
+			protected Map<String, String[]> loadUserDataBatch(List<String> batch)
+			{
+				return backend.loadUserDataFromDatabase(batch);
+			}
+
+			protected Map<String, String> loadCreditCardBatch(List<String> batch, String privateKey)
+			{
+				return backend.loadCreditCardInfo(batch, privateKey);
+			}
+		};
+
+		String suffix = ", " + USERS + " users, batch " + BATCH_SIZE;
+		return new MicroBenchmark[] {
+			new MicroBenchmark("bulk load: single-user calls" + suffix) {
+				void operation()
+				{
+					for (int index = 0; index < userIDs.size(); index++)
+					{
+						String userID = userIDs.get(index);
+						consume(backend.loadUserDataFromDatabase(userID));
+						consume(backend.loadCreditCardInfo(userID, KEY));
+					}
+				}
+			},
+			new MicroBenchmark("bulk load: BulkDataLoader fallback" + suffix) {
+				void operation()
+				{
+					consume(fallbackLoader.loadUserDataFromDatabase(userIDs));
+					consume(fallbackLoader.loadCreditCardInfo(userIDs, KEY));
+				}
+			},
+			new MicroBenchmark("bulk load: BulkDataLoader native bulk" + suffix) {
+				void operation()
+				{
+					consume(nativeLoader.loadUserDataFromDatabase(userIDs));
+					consume(nativeLoader.loadCreditCardInfo(userIDs, KEY));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+}
@@ -0,0 +1,137 @@
+import com.fortify.samples.thirdparty.component.Utility;
+
+// Deterministic in-process stand-in for the third-party library, used by the pipeline benchmarks
+// Every call returns the same data for the same arguments and never waits, so run-to-run differences
+// come from the component alone
+// The payloads follow the benchmark parameters: the length of the free-text profile fields, the number of
+// instruments in the market data snapshot and the percentage of users whose profile carries HTML markup
+// Users are named user0, user1, ...; the ones with markup are spread evenly over every hundred users
+
+class DeterministicUtility extends Utility {
+
+	static final String USER_PREFIX = "user";
+
+	// Passes the credential policy [A-Za-z]{7}[0-9]{3}
+	private static final String CREDENTIAL = "abcdefg123";
+	// Already masked, so postInformation does not report it as suspicious
+	private static final String CREDIT_CARD = "************3456";
+	private static final String CLEAN_TEXT = "plain profile text ";
+	private static final String DIRTY_TEXT = "<b>bold</b> & \"quoted\" ";
+
+	private final int profileFieldLength;
+	private final int dirtyPercent;
+	private final String[] serverProperties = { "internalAB", "accessCode", "userTable", "transactionKey", "passwordLabel" };
+	private final String[] stockData;
+
+	DeterministicUtility(int profileFieldLength, int instrumentCount, int dirtyPercent)
+	{
+		this.profileFieldLength = profileFieldLength;
+		this.dirtyPercent = Math.max(0, Math.min(100, dirtyPercent));
+		this.stockData = new String[instrumentCount];
+		for (int index = 0; index < instrumentCount; index++)
+			stockData[index] = "SYM" + index + ":" + (10 + index % 990) + "." + (index % 100);
+	}
+
+	static String userID(int userIndex)
+	{
+		return USER_PREFIX + userIndex;
+	}
+
+	boolean isDirty(int userIndex)
+	{
+		return ((userIndex % 100) * dirtyPercent) % 100 < dirtyPercent;
+	}
+
+	String[] profileOf(int userIndex)
+	{
+		String text = isDirty(userIndex) ? DIRTY_TEXT : CLEAN_TEXT;
+		return new String[] { userID(userIndex), CREDENTIAL, fill(text, profileFieldLength), fill(text, profileFieldLength) };
+	}
+
+	// The host part of the configuration as postInformation expects it
+	String[] hostInformation()
+	{
+		return new String[] { serverProperties[0], serverProperties[1], serverProperties[2], serverProperties[3] };
+	}
+
+	public String[] loadServerConnectProperties()
+	{
+		return serverProperties.clone();
+	}
+
+	public String[] loadUserDataFromDatabase(String userID)
+	{
+		return profileOf(userIndexOf(userID));
+	}
+
+	public String loadCreditCardInfo(String userID, String key)
+	{
+		return CREDIT_CARD;
+	}
+
+	public String[] retrieveStockDataFromWebSource(String server, int port)
+	{
+		return stockData.clone();
+	}
+
+	public int reformatStockData(String rawData, String localizedData)
+	{
+		return 0;
+	}
+
+	public int postHTMLResponse(String userID, String userAuthenticationCredential, String userEmailAddress,
+			String userCustomNotes, String[] financialInstruments)
+	{
+		return 0;
+	}
+
+	public int logEventToDisk(int eventType, int category, String message, String description)
+	{
+		return 0;
+	}
+
+	public String removePrivacyData(String data)
+	{
+		return data;
+	}
+
+	public String sanitizeCreditCardDataDisplay(String data)
+	{
+		return data;
+	}
+
+	public String sanitizeHTMLData(String data)
+	{
+		return data;
+	}
+
+	public Exception sanitizeException(Exception e)
+	{
+		return e;
+	}
+
+	public int activateEmergencyResponse(String message)
+	{
+		return 0;
+	}
+
+	private static int userIndexOf(String userID)
+	{
+		try
+		{
+			return Integer.parseInt(userID.substring(USER_PREFIX.length()));
+		}
+		catch (RuntimeException e)
+		{
+			return 0;
+		}
+	}
+
+	private static String fill(String text, int length)
+	{
+		StringBuilder filled = new StringBuilder(length);
+		while (filled.length() < length)
+			filled.append(text, 0, Math.min(text.length(), length - filled.length()));
+		return filled.toString();
+	}
+}
@@ -0,0 +1,55 @@
+// Compares the cost of carrying a log message in a new Exception with the stackless LogEvent record
+// Both variants are created a few frames deep, as they are inside the pipeline, because stack trace
+// fill-in grows with call depth
+
+final class EventAllocationBenchmarks {
+
+	private static final int DEBUG = 5;
+	private static final int APPLICATION = 0;
+	private static final int CALL_DEPTH = Integer.getInteger("benchmark.callDepth", 12).intValue();
+	private static final String MESSAGE = "user 12345 loaded from database; password = abcdefg123";
+
+	private EventAllocationBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		return new MicroBenchmark[] {
+			new MicroBenchmark("event: new Exception(message) per call, depth " + CALL_DEPTH) {
+				void operation()
+				{
+					consume(exceptionEventAtDepth(CALL_DEPTH));
+				}
+			},
+			new MicroBenchmark("event: stackless LogEvent per call, depth " + CALL_DEPTH) {
+				void operation()
+				{
+					consume(stacklessEventAtDepth(CALL_DEPTH));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	// What logProgrammerNote used to do: wrap the message in an Exception, then read it back twice
+	private static int exceptionEventAtDepth(int depth)
+	{
+		if (depth > 0)
+			return exceptionEventAtDepth(depth - 1);
+		Exception e = new Exception(MESSAGE);
+		return e.getMessage().length() + e.toString().length();
+	}
+
+	private static int stacklessEventAtDepth(int depth)
+	{
+		if (depth > 0)
+			return stacklessEventAtDepth(depth - 1);
+		LogEvent event = new LogEvent(DEBUG, APPLICATION, MESSAGE);
+		return event.getMessage().length() + event.getDescription().length();
+	}
+}
@@ -0,0 +1,97 @@
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Cost of recording into a LatencyHistogram, which the pipeline pays twice per step and library call
+// "timed" adds the System.nanoTime() pair every instrumented call makes; with benchmark.recordThreads > 0
+// that many background threads record into the same histogram to show contention
+
+final class LatencyHistogramBenchmarks {
+
+	private static final int RECORD_THREADS = Integer.getInteger("benchmark.recordThreads", 0).intValue();
+
+	private LatencyHistogramBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		final LatencyHistogram histogram = new LatencyHistogram("benchmark");
+		final Thread[] contenders = new Thread[RECORD_THREADS];
+		final AtomicBoolean running = new AtomicBoolean();
+		String suffix = (RECORD_THREADS == 0) ? ", uncontended" : ", " + RECORD_THREADS + " contending threads";
+
+		return new MicroBenchmark[] {
+			new MicroBenchmark("histogram: record" + suffix) {
+				private long value;
+
+				void setUp()
+				{
+					startContenders(histogram, contenders, running);
+				}
+
+				void tearDown() throws Exception
+				{
+					stopContenders(contenders, running);
+				}
+
+				void operation()
+				{
+					// Spread over the buckets the way real latencies would be
+					value = (value * 6364136223846793005L + 1442695040888963407L);
+					histogram.record((value >>> 44) & 0xfffff);
+				}
+			},
+			new MicroBenchmark("histogram: timed no-op" + suffix) {
+				void setUp()
+				{
+					startContenders(histogram, contenders, running);
+				}
+
+				void tearDown() throws Exception
+				{
+					stopContenders(contenders, running);
+				}
+
+				void operation()
+				{
+					long started = System.nanoTime();
+					histogram.recordSince(started);
+				}
+			},
+			new MicroBenchmark("histogram: interval snapshot and p99") {
+				void operation()
+				{
+					consume(histogram.intervalSnapshot().getPercentile(99));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	private static void startContenders(final LatencyHistogram histogram, Thread[] contenders, final AtomicBoolean running)
+	{
+		running.set(true);
+		for (int index = 0; index < contenders.length; index++)
+		{
+			contenders[index] = new DaemonThreadFactory("histogram-contender").newThread(new Runnable() {
+				public void run()
+				{
+					long value = 0;
+					while (running.get())
+						histogram.record(++value & 0xffff);
+				}
+			});
+			contenders[index].start();
+		}
+	}
+
+	private static void stopContenders(Thread[] contenders, AtomicBoolean running) throws InterruptedException
+	{
+		running.set(false);
+		for (int index = 0; index < contenders.length; index++)
+			contenders[index].join();
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.fortify.samples.thirdparty.component.Utility;
+
+// In-process stand-in for the third-party backend that charges a fixed latency for every round trip
+// Single-user calls pay it once per user; the bulk calls pay it once per batch, like a backend with a
+// native multi-row query would
+
+class LatencySimulatingUtility extends Utility {
+
+	private final long callLatencyNanos;
+	private final AtomicLong roundTrips = new AtomicLong();
+
+	LatencySimulatingUtility(long callLatencyMicros)
+	{
+		this.callLatencyNanos = TimeUnit.MICROSECONDS.toNanos(callLatencyMicros);
+	}
+
+	long getRoundTripCount()
+	{
+		return roundTrips.get();
+	}
+
+	public String[] loadUserDataFromDatabase(String userID)
+	{
+		roundTrip();
+		return profileOf(userID);
+	}
+
+	public String loadCreditCardInfo(String userID, String key)
+	{
+		roundTrip();
+		return creditCardOf(userID);
+	}
+
+	Map<String, String[]> loadUserDataFromDatabase(List<String> userIDs)
+	{
+		roundTrip();
+		Map<String, String[]> profiles = new HashMap<String, String[]>();
+		for (int index = 0; index < userIDs.size(); index++)
+			profiles.put(userIDs.get(index), profileOf(userIDs.get(index)));
+		return profiles;
+	}
+
+	Map<String, String> loadCreditCardInfo(List<String> userIDs, String key)
+	{
+		roundTrip();
+		Map<String, String> creditCards = new HashMap<String, String>();
+		for (int index = 0; index < userIDs.size(); index++)
+			creditCards.put(userIDs.get(index), creditCardOf(userIDs.get(index)));
+		return creditCards;
+	}
+
+	private void roundTrip()
+	{
+		roundTrips.incrementAndGet();
+		long deadline = System.nanoTime() + callLatencyNanos;
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0)
+			LockSupport.parkNanos(remaining);
+	}
+
+	private static String[] profileOf(String userID)
+	{
+		return new String[] { userID, "password", "e-mail address", "custom notes" };
+	}
+
+	private static String creditCardOf(String userID)
+	{
+		return "1234 5678 9012 3456";
+	}
+}
@@ -0,0 +1,165 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local stand-in for the endpoint sidebar pages are streamed to
+// Accepts HTTP/1.1 requests with a chunked body on the loopback interface, decodes and counts the body,
+// and answers every request with the configured status code
+// A batched request (StreamingResponsePoster.BATCH_COUNT_HEADER) is answered with that status once per page
+// With capture enabled the body of the latest request is kept for inspection
+// It speaks plaintext HTTP, so posters are created with TLS off and send no credentials
+
+final class LoopbackReceiver {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ServerSocket serverSocket;
+	private final int responseStatus;
+	private final boolean captureBodies;
+	private final Thread acceptor;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong bodyBytes = new AtomicLong();
+	private volatile String lastBody;
+
+	LoopbackReceiver(int responseStatus, boolean captureBodies) throws IOException
+	{
+		this.responseStatus = responseStatus;
+		this.captureBodies = captureBodies;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		this.acceptor = new DaemonThreadFactory("loopback-receiver").newThread(new Runnable() {
+			public void run()
+			{
+				acceptConnections();
+			}
+		});
+		acceptor.start();
+	}
+
+	InetSocketAddress getAddress()
+	{
+		return new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+	}
+
+	long getRequestCount()
+	{
+		return requests.get();
+	}
+
+	long getBodyBytes()
+	{
+		return bodyBytes.get();
+	}
+
+	String getLastBody()
+	{
+		return lastBody;
+	}
+
+	void close() throws IOException
+	{
+		serverSocket.close();
+	}
+
+	private void acceptConnections()
+	{
+		while (!serverSocket.isClosed())
+		{
+			Socket connection = null;
+			try
+			{
+				connection = serverSocket.accept();
+				receive(connection);
+			}
+			catch (IOException e)
+			{
+				if (!serverSocket.isClosed())
+					System.err.println("loopback receiver: " + e.getMessage());
+			}
+			finally
+			{
+				if (connection != null)
+				{
+					try
+					{
+						connection.close();
+					}
+					catch (IOException e)
+					{
+						// Nothing left to do with this connection
+					}
+				}
+			}
+		}
+	}
+
+	private void receive(Socket connection) throws IOException
+	{
+		InputStream request = new BufferedInputStream(connection.getInputStream());
+		boolean chunked = false;
+		int batchCount = -1;
+		String header;
+		while ((header = readLine(request)).length() != 0)
+		{
+			String lowerCaseHeader = header.toLowerCase();
+			if (lowerCaseHeader.startsWith("transfer-encoding:") && lowerCaseHeader.contains("chunked"))
+				chunked = true;
+			else if (lowerCaseHeader.startsWith(StreamingResponsePoster.BATCH_COUNT_HEADER.toLowerCase() + ":"))
+				batchCount = Integer.parseInt(header.substring(header.indexOf(':') + 1).trim());
+		}
+		if (!chunked)
+			throw new IOException("only chunked request bodies are supported");
+
+		ByteArrayOutputStream body = captureBodies ? new ByteArrayOutputStream() : null;
+		long received = 0;
+		int chunkBytes;
+		while ((chunkBytes = Integer.parseInt(readLine(request).trim(), 16)) > 0)
+		{
+			for (int index = 0; index < chunkBytes; index++)
+			{
+				int next = request.read();
+				if (next < 0)
+					throw new IOException("request ended inside a chunk");
+				if (body != null)
+					body.write(next);
+			}
+			received += chunkBytes;
+			readLine(request);
+		}
+		readLine(request);
+
+		requests.incrementAndGet();
+		bodyBytes.addAndGet(received);
+		if (body != null)
+			lastBody = new String(body.toByteArray(), UTF8);
+
+		StringBuilder results = new StringBuilder();
+		for (int index = 0; index < batchCount; index++)
+			results.append(responseStatus).append("\r\n");
+		String response = "HTTP/1.1 " + responseStatus + " Loopback\r\nContent-Length: " + results.length() +
+				"\r\nConnection: close\r\n\r\n" + results;
+		connection.getOutputStream().write(response.getBytes(UTF8));
+		connection.getOutputStream().flush();
+	}
+
+	private static String readLine(InputStream input) throws IOException
+	{
+		StringBuilder line = new StringBuilder();
+		int next;
+		while ((next = input.read()) != '\n')
+		{
+			if (next < 0)
+				throw new IOException("request ended unexpectedly");
+			if (next != '\r')
+				line.append((char) next);
+		}
+		return line.toString();
+	}
+}
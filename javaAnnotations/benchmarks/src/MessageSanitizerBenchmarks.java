@@ -0,0 +1,60 @@
+import java.io.IOException;
+
+import com.fortify.samples.thirdparty.component.Utility;
+
+// Compares sanitizing an exception through the library, which wraps it in a new Exception and matches a
+// regular expression compiled on every call, with MessageSanitizer on the exception text
+// The exceptions cycle through a few messages the way an error storm does; "unmemoized" sanitizes every time
+
+final class MessageSanitizerBenchmarks {
+
+	private static final Exception[] STORM = {
+		new IllegalArgumentException("userID invalid"),
+		new IllegalStateException("Configuration file corrupt"),
+		new Exception("card 4111 1111 1111 1111 declined for user 12345"),
+		new IOException("connection reset by peer")
+	};
+
+	private MessageSanitizerBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		final Utility library = new Utility();
+		final MessageSanitizer memoized = new MessageSanitizer(256);
+		final MessageSanitizer unmemoized = new MessageSanitizer(0);
+
+		return new MicroBenchmark[] {
+			new MicroBenchmark("sanitize exception: library sanitizeException") {
+				private int next;
+
+				void operation()
+				{
+					consume(library.sanitizeException(STORM[next++ & 3]).getMessage());
+				}
+			},
+			new MicroBenchmark("sanitize exception: MessageSanitizer, unmemoized") {
+				private int next;
+
+				void operation()
+				{
+					consume(unmemoized.sanitize(STORM[next++ & 3]));
+				}
+			},
+			new MicroBenchmark("sanitize exception: MessageSanitizer, memoized") {
+				private int next;
+
+				void operation()
+				{
+					consume(memoized.sanitize(STORM[next++ & 3]));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+}
@@ -0,0 +1,168 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+// Minimal benchmark harness for the MainComponent sources
+// The project has no build manifest and no dependencies beyond libraries/, so JMH is not used; this harness
+// follows its model (warmup and measurement iterations, a consumed result) with nothing but the JDK
+// Each benchmark is warmed up, then measured for time per operation, heap bytes allocated per operation by the
+// measuring thread, and the collections (count and milliseconds, all collectors) during the measurement
+// Results are printed and, when -Dbenchmark.report=<file> is set, appended to that file
+
+abstract class MicroBenchmark {
+
+	private static final int WARMUP_ITERATIONS = Integer.getInteger("benchmark.warmupIterations", 5).intValue();
+	private static final int MEASUREMENT_ITERATIONS = Integer.getInteger("benchmark.iterations", 5).intValue();
+	private static final long ITERATION_MILLIS = Long.getLong("benchmark.iterationMillis", 500L).longValue();
+
+	// Values handed to consume() end up here so the JIT cannot remove the work that produced them
+	private static volatile int blackhole;
+
+	private final String name;
+
+	MicroBenchmark(String name)
+	{
+		this.name = name;
+	}
+
+	String getName()
+	{
+		return name;
+	}
+
+	// Prepares state outside the measured region
+	void setUp() throws Exception
+	{
+	}
+
+	void tearDown() throws Exception
+	{
+	}
+
+	// One measured operation
+	abstract void operation() throws Exception;
+
+	static void consume(Object value)
+	{
+		if (value != null)
+			blackhole ^= System.identityHashCode(value);
+	}
+
+	static void consume(int value)
+	{
+		blackhole ^= value;
+	}
+
+	static void runAll(MicroBenchmark[] benchmarks) throws Exception
+	{
+		System.out.println(formatHeader());
+		for (int index = 0; index < benchmarks.length; index++)
+		{
+			String line = benchmarks[index].measure();
+			System.out.println(line);
+			appendToReport(line);
+		}
+	}
+
+	String measure() throws Exception
+	{
+		setUp();
+		try
+		{
+			for (int iteration = 0; iteration < WARMUP_ITERATIONS; iteration++)
+				runIteration();
+
+			long operations = 0;
+			long elapsedNanos = 0;
+			long allocatedBytes = 0;
+			boolean allocationReported = true;
+			long[] collectionsBefore = collections();
+			for (int iteration = 0; iteration < MEASUREMENT_ITERATIONS; iteration++)
+			{
+				long allocatedBefore = currentThreadAllocatedBytes();
+				long start = System.nanoTime();
+				operations += runIteration();
+				elapsedNanos += System.nanoTime() - start;
+				long allocatedAfter = currentThreadAllocatedBytes();
+				allocationReported &= (allocatedBefore >= 0);
+				allocatedBytes += allocatedAfter - allocatedBefore;
+			}
+			long[] collectionsAfter = collections();
+			double nanosPerOperation = (double) elapsedNanos / operations;
+			double bytesPerOperation = allocationReported ? (double) allocatedBytes / operations : -1;
+			return String.format("%-60s %14.1f %14.1f %12d %9d %9d", name, nanosPerOperation, bytesPerOperation, operations,
+					collectionsAfter[0] - collectionsBefore[0], collectionsAfter[1] - collectionsBefore[1]);
+		}
+		finally
+		{
+			tearDown();
+		}
+	}
+
+	static String formatHeader()
+	{
+		return String.format("%-60s %14s %14s %12s %9s %9s", "benchmark", "ns/op", "B/op", "operations", "gc count", "gc ms");
+	}
+
+	private long runIteration() throws Exception
+	{
+		long deadline = System.nanoTime() + (ITERATION_MILLIS * 1000000L);
+		long operations = 0;
+		do
+		{
+			for (int batch = 0; batch < 64; batch++)
+				operation();
+			operations += 64;
+		}
+		while (System.nanoTime() < deadline);
+		return operations;
+	}
+
+	// Bytes allocated by this thread so far; negative when the JVM cannot report it
+	private static long currentThreadAllocatedBytes()
+	{
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	// Collections and milliseconds spent collecting so far, summed over all collectors
+	private static long[] collections()
+	{
+		long[] totals = new long[2];
+		List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		for (int index = 0; index < collectors.size(); index++)
+		{
+			totals[0] += Math.max(0, collectors.get(index).getCollectionCount());
+			totals[1] += Math.max(0, collectors.get(index).getCollectionTime());
+		}
+		return totals;
+	}
+
+	private static void appendToReport(String line)
+	{
+		String reportFile = System.getProperty("benchmark.report");
+		if (reportFile == null)
+			return;
+		PrintWriter report = null;
+		try
+		{
+			report = new PrintWriter(new FileWriter(reportFile, true));
+			report.println(line);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Unable to write benchmark report: " + e.getMessage());
+		}
+		finally
+		{
+			if (report != null)
+				report.close();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+// One benchmark per MainComponent pipeline step, reached through MainComponent.TestSeam, plus the
+// exception-based logging path and an end-to-end single-user run of main()
+// Every benchmark runs against a DeterministicUtility shaped by comma-separated parameter lists; each
+// combination becomes its own benchmark:
+//   benchmark.profileFieldLengths  length of the e-mail and notes profile fields (default 16,256)
+//   benchmark.instrumentCounts     instruments in the market data snapshot (default 10,1000)
+//   benchmark.dirtyPercents        percentage of profiles with HTML markup (default 0,50)
+// The component writes every event to the console; it is discarded unless -Dbenchmark.console=true
+// B/op counts the measuring thread only, work handed to background threads shows up in the gc columns
+
+final class PipelineBenchmarks {
+
+	private static final int[] PROFILE_FIELD_LENGTHS = getInts("benchmark.profileFieldLengths", "16,256");
+	private static final int[] INSTRUMENT_COUNTS = getInts("benchmark.instrumentCounts", "10,1000");
+	private static final int[] DIRTY_PERCENTS = getInts("benchmark.dirtyPercents", "0,50");
+	private static final int USERS = 100;
+
+	private PipelineBenchmarks()
+	{
+	}
+
+	// Installs its own DeterministicUtility and component for the duration of one benchmark
+	private abstract static class PipelineBenchmark extends MicroBenchmark
+	{
+		final DeterministicUtility library;
+		MainComponent.TestSeam seam;
+		private int nextUser;
+
+		PipelineBenchmark(String name, int profileFieldLength, int instrumentCount, int dirtyPercent)
+		{
+			super(name);
+			this.library = new DeterministicUtility(profileFieldLength, instrumentCount, dirtyPercent);
+		}
+
+		void setUp() throws Exception
+		{
+			MainComponent.TestSeam.useLibrary(library);
+			seam = new MainComponent.TestSeam();
+		}
+
+		void tearDown() throws Exception
+		{
+			seam.shutdown();
+		}
+
+		// Cycles through the users so every hundred operations see the configured share of dirty profiles
+		int nextUser()
+		{
+			nextUser = (nextUser + 1) % USERS;
+			return nextUser;
+		}
+	}
+
+	static MicroBenchmark[] create()
+	{
+		List<MicroBenchmark> benchmarks = new ArrayList<MicroBenchmark>();
+		int defaultFieldLength = PROFILE_FIELD_LENGTHS[0];
+		int defaultInstruments = INSTRUMENT_COUNTS[0];
+		int defaultDirty = DIRTY_PERCENTS[0];
+
+		benchmarks.add(new PipelineBenchmark("step 1: loadConfiguration", defaultFieldLength, defaultInstruments, defaultDirty) {
+			void operation() throws Exception
+			{
+				consume(seam.loadConfiguration());
+			}
+		});
+		benchmarks.add(new PipelineBenchmark("step 2: retrieveCreditCardData", defaultFieldLength, defaultInstruments, defaultDirty) {
+			void operation()
+			{
+				consume(seam.retrieveCreditCardData(DeterministicUtility.userID(nextUser())));
+			}
+		});
+		for (int length = 0; length < PROFILE_FIELD_LENGTHS.length; length++)
+		{
+			benchmarks.add(new PipelineBenchmark("step 3: loadUserProfile, field " + PROFILE_FIELD_LENGTHS[length],
+					PROFILE_FIELD_LENGTHS[length], defaultInstruments, defaultDirty) {
+				void operation()
+				{
+					consume(seam.loadUserProfile(DeterministicUtility.userID(nextUser())));
+				}
+			});
+		}
+		for (int count = 0; count < INSTRUMENT_COUNTS.length; count++)
+		{
+			benchmarks.add(new PipelineBenchmark("step 4: loadFinancialInstruments, " + INSTRUMENT_COUNTS[count] + " instruments",
+					defaultFieldLength, INSTRUMENT_COUNTS[count], defaultDirty) {
+				void operation()
+				{
+					consume(seam.loadFinancialInstruments(DeterministicUtility.userID(nextUser())));
+				}
+			});
+		}
+		for (int length = 0; length < PROFILE_FIELD_LENGTHS.length; length++)
+		{
+			for (int dirty = 0; dirty < DIRTY_PERCENTS.length; dirty++)
+			{
+				benchmarks.add(new PipelineBenchmark("step 5: sanitizeUserDataForDisplay, field " + PROFILE_FIELD_LENGTHS[length] +
+						", " + DIRTY_PERCENTS[dirty] + "% dirty", PROFILE_FIELD_LENGTHS[length], defaultInstruments, DIRTY_PERCENTS[dirty]) {
+					private final String[][] profiles = new String[USERS][];
+
+					void setUp() throws Exception
+					{
+						super.setUp();
+						for (int user = 0; user < USERS; user++)
+							profiles[user] = library.profileOf(user);
+					}
+
+					void operation()
+					{
+						consume(seam.sanitizeUserDataForDisplay(profiles[nextUser()]));
+					}
+				});
+			}
+		}
+		for (int count = 0; count < INSTRUMENT_COUNTS.length; count++)
+		{
+			benchmarks.add(new PipelineBenchmark("step 6: localizeFinancialInstruments, " + INSTRUMENT_COUNTS[count] + " instruments",
+					defaultFieldLength, INSTRUMENT_COUNTS[count], defaultDirty) {
+				private InstrumentTable instruments;
+
+				void setUp() throws Exception
+				{
+					super.setUp();
+					instruments = seam.loadFinancialInstruments(DeterministicUtility.userID(0));
+				}
+
+				void operation()
+				{
+					consume(seam.localizeFinancialInstruments(instruments));
+				}
+			});
+		}
+		for (int count = 0; count < INSTRUMENT_COUNTS.length; count++)
+		{
+			benchmarks.add(new PipelineBenchmark("step 7: postInformation, " + INSTRUMENT_COUNTS[count] + " instruments",
+					defaultFieldLength, INSTRUMENT_COUNTS[count], defaultDirty) {
+				private String[] hostInformation;
+				private final String[][] profiles = new String[USERS][];
+				private InstrumentTable instruments;
+
+				void setUp() throws Exception
+				{
+					super.setUp();
+					hostInformation = library.hostInformation();
+					for (int user = 0; user < USERS; user++)
+						profiles[user] = seam.sanitizeUserDataForDisplay(library.profileOf(user));
+					instruments = seam.localizeFinancialInstruments(seam.loadFinancialInstruments(DeterministicUtility.userID(0)));
+				}
+
+				void operation()
+				{
+					int user = nextUser();
+					consume(seam.postInformation(hostInformation, DeterministicUtility.userID(user), profiles[user],
+							library.loadCreditCardInfo(null, null), instruments));
+				}
+			});
+		}
+		benchmarks.add(new PipelineBenchmark("logging: logApplicationException", defaultFieldLength, defaultInstruments, defaultDirty) {
+			void operation()
+			{
+				consume(seam.logApplicationException(new MainComponent.ApplicationException("userID invalid")));
+			}
+		});
+		for (int count = 0; count < INSTRUMENT_COUNTS.length; count++)
+		{
+			for (int length = 0; length < PROFILE_FIELD_LENGTHS.length; length++)
+			{
+				// A fresh component per operation, as in a real single-user invocation minus JVM start-up
+				benchmarks.add(new PipelineBenchmark("end to end: main, " + INSTRUMENT_COUNTS[count] + " instruments, field " +
+						PROFILE_FIELD_LENGTHS[length], PROFILE_FIELD_LENGTHS[length], INSTRUMENT_COUNTS[count], defaultDirty) {
+					void operation()
+					{
+						MainComponent.main(new String[] { DeterministicUtility.userID(nextUser()) });
+					}
+				});
+			}
+		}
+		return benchmarks.toArray(new MicroBenchmark[benchmarks.size()]);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if (!Boolean.getBoolean("benchmark.console"))
+		{
+			System.setErr(new PrintStream(new OutputStream() {
+				public void write(int b)
+				{
+				}
+
+				public void write(byte[] b, int offset, int length)
+				{
+				}
+			}));
+		}
+		MicroBenchmark.runAll(create());
+	}
+
+	private static int[] getInts(String name, String defaultValue)
+	{
+		String[] values = System.getProperty(name, defaultValue).split(",");
+		int[] parsed = new int[values.length];
+		for (int index = 0; index < values.length; index++)
+			parsed[index] = Integer.parseInt(values[index].trim());
+		return parsed;
+	}
+}
@@ -0,0 +1,132 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+
+// Compares posting a sidebar page that is built in memory first with streaming it through pooled buffers
+// Both send the same page to a LoopbackReceiver; the bytes allocated per post show the difference as the
+// portfolio grows (benchmark.instruments)
+// Before measuring, the streamed benchmark checks that a page with HTML in every field comes out escaped once
+
+final class StreamingResponseBenchmarks {
+
+	private static final int INSTRUMENTS = Integer.getInteger("benchmark.instruments", 10000).intValue();
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private StreamingResponseBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		String[] payload = new String[INSTRUMENTS];
+		for (int index = 0; index < payload.length; index++)
+			payload[index] = "Stock" + index + ":" + (index % 1000) + "." + (index % 100);
+		final InstrumentTable instruments = InstrumentTable.parse(payload, new InstrumentTable.SymbolDictionary(65536));
+		final SidebarSubmission submission = new SidebarSubmission("user12345", "abcdefg123", "e-mail address", "custom notes",
+				"1234 5678 9012 3456", instruments);
+		final LoopbackReceiver[] receiver = new LoopbackReceiver[1];
+
+		return new MicroBenchmark[] {
+			new MicroBenchmark("response: materialized page, " + INSTRUMENTS + " instruments") {
+				void setUp() throws Exception
+				{
+					receiver[0] = new LoopbackReceiver(200, false);
+				}
+
+				void tearDown() throws Exception
+				{
+					receiver[0].close();
+				}
+
+				void operation() throws Exception
+				{
+					consume(postMaterialized(receiver[0], instruments));
+				}
+			},
+			new MicroBenchmark("response: streamed page, " + INSTRUMENTS + " instruments") {
+				private StreamingResponsePoster poster;
+
+				void setUp() throws Exception
+				{
+					checkEscapedOnce();
+					receiver[0] = new LoopbackReceiver(200, false);
+					poster = new StreamingResponsePoster(receiver[0].getAddress(), "/sidebar", new DirectBufferPool(8192, 4), 5000,
+							SidebarTemplate.compile(SidebarTemplate.DEFAULT_TEMPLATE), false);
+				}
+
+				void tearDown() throws Exception
+				{
+					receiver[0].close();
+				}
+
+				void operation() throws Exception
+				{
+					consume(poster.post(submission));
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	// Step 5 escapes the profile fields and the template the rest, so each field must appear escaped exactly once:
+	// in the heading (userID), email, notes and the instrument symbol
+	private static void checkEscapedOnce() throws IOException
+	{
+		String raw = "a&b<c>d\"e";
+		String escaped = "a&amp;b&lt;c&gt;d&quot;e";
+		SidebarSubmission page = new SidebarSubmission(raw, raw, HtmlEscaper.escape(raw), HtmlEscaper.escape(raw),
+				"1234567890123456", InstrumentTable.parse(new String[] { raw + InstrumentTable.SEPARATOR + "1.5" },
+						new InstrumentTable.SymbolDictionary(65536)));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamingHtmlWriter writer = new StreamingHtmlWriter(Channels.newChannel(out), new DirectBufferPool(8192, 1));
+		SidebarTemplate.compile(SidebarTemplate.DEFAULT_TEMPLATE).render(writer, page);
+		writer.finish();
+		String html = new String(out.toByteArray(), UTF8);
+
+		int count = 0;
+		for (int found = html.indexOf(escaped); found >= 0; found = html.indexOf(escaped, found + escaped.length()))
+			count++;
+		if ((count != 4) || (html.indexOf(raw) >= 0) || (html.indexOf("&amp;amp;") >= 0))
+			throw new IllegalStateException("sidebar page not escaped exactly once:\n" + html);
+	}
+
+	// The shape of posting through the library: every entry and the whole page exist as strings first
+	private static int postMaterialized(LoopbackReceiver receiver, InstrumentTable instruments) throws Exception
+	{
+		String[] entries = instruments.toStringArray();
+		StringBuilder page = new StringBuilder();
+		page.append("<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>Sidebar</title></head><body>\n");
+		page.append("<div class=\"sidebar\">\n<h1>user12345</h1>\n<table class=\"instruments\">\n");
+		for (int index = 0; index < entries.length; index++)
+		{
+			int separator = entries[index].indexOf(InstrumentTable.SEPARATOR);
+			page.append("<tr><td>").append(HtmlEscaper.escape(entries[index].substring(0, separator)));
+			page.append("</td><td>").append(HtmlEscaper.escape(entries[index].substring(separator + 1))).append("</td></tr>\n");
+		}
+		page.append("</table>\n</div>\n</body></html>\n");
+		byte[] body = page.toString().getBytes(UTF8);
+
+		Socket socket = new Socket(receiver.getAddress().getAddress(), receiver.getAddress().getPort());
+		try
+		{
+			OutputStream request = socket.getOutputStream();
+			request.write(("POST /sidebar HTTP/1.1\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n" +
+					Integer.toHexString(body.length) + "\r\n").getBytes(UTF8));
+			request.write(body);
+			request.write("\r\n0\r\n\r\n".getBytes(UTF8));
+			request.flush();
+			return socket.getInputStream().read();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+}
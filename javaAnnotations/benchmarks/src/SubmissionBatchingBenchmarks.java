@@ -0,0 +1,106 @@
+import java.util.List;
+
+// Compares posting every user's sidebar page on its own connection with coalescing them through a
+// SubmissionBatcher into batched posts; both send benchmark.users small pages to a LoopbackReceiver
+
+final class SubmissionBatchingBenchmarks {
+
+	private static final int USERS = Integer.getInteger("benchmark.users", 64).intValue();
+	private static final int BATCH_SIZE = Integer.getInteger("benchmark.batchSize", 32).intValue();
+	private static final int INSTRUMENTS = Integer.getInteger("benchmark.instruments", 20).intValue();
+
+	private SubmissionBatchingBenchmarks()
+	{
+	}
+
+	static MicroBenchmark[] create()
+	{
+		String[] payload = new String[INSTRUMENTS];
+		for (int index = 0; index < payload.length; index++)
+			payload[index] = "Stock" + index + ":" + (index % 1000) + "." + (index % 100);
+		InstrumentTable instruments = InstrumentTable.parse(payload, new InstrumentTable.SymbolDictionary(65536));
+		final SidebarSubmission[] submissions = new SidebarSubmission[USERS];
+		for (int index = 0; index < submissions.length; index++)
+			submissions[index] = new SidebarSubmission("user" + index, "abcdefg123", "e-mail address", "custom notes",
+					"1234 5678 9012 3456", instruments);
+
+		final LoopbackReceiver[] receiver = new LoopbackReceiver[1];
+		final StreamingResponsePoster[] poster = new StreamingResponsePoster[1];
+		final int[] failures = new int[1];
+
+		String suffix = ", " + USERS + " users";
+		return new MicroBenchmark[] {
+			new MicroBenchmark("submissions: one post per user" + suffix) {
+				void setUp() throws Exception
+				{
+					receiver[0] = new LoopbackReceiver(200, false);
+					poster[0] = createPoster(receiver[0]);
+				}
+
+				void tearDown() throws Exception
+				{
+					receiver[0].close();
+				}
+
+				void operation() throws Exception
+				{
+					for (int index = 0; index < submissions.length; index++)
+						consume(poster[0].post(submissions[index]));
+				}
+			},
+			new MicroBenchmark("submissions: coalesced, batch " + BATCH_SIZE + suffix) {
+				private SubmissionBatcher<SidebarSubmission> batcher;
+				private final SubmissionBatcher.Callback callback = new SubmissionBatcher.Callback() {
+					public void submissionCompleted(int result)
+					{
+						if (result != StreamingResponsePoster.SUCCESS)
+							failures[0]++;
+					}
+
+					public void submissionFailed(Exception e)
+					{
+						failures[0]++;
+					}
+				};
+
+				void setUp() throws Exception
+				{
+					receiver[0] = new LoopbackReceiver(200, false);
+					poster[0] = createPoster(receiver[0]);
+					batcher = new SubmissionBatcher<SidebarSubmission>("benchmark-batcher", new SubmissionBatcher.Sender<SidebarSubmission>() {
+						public int[] send(List<SidebarSubmission> batch) throws Exception
+						{
+							return poster[0].postBatch(batch);
+						}
+					}, BATCH_SIZE, 20, 256);
+				}
+
+				void tearDown() throws Exception
+				{
+					batcher.close();
+					receiver[0].close();
+					if (failures[0] != 0)
+						System.err.println(failures[0] + " batched submissions failed");
+				}
+
+				void operation() throws Exception
+				{
+					for (int index = 0; index < submissions.length; index++)
+						batcher.submit(submissions[index], callback);
+					batcher.flush();
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		MicroBenchmark.runAll(create());
+	}
+
+	private static StreamingResponsePoster createPoster(LoopbackReceiver receiver)
+	{
+		return new StreamingResponsePoster(receiver.getAddress(), "/sidebar", new DirectBufferPool(8192, 4), 5000,
+				SidebarTemplate.compile(SidebarTemplate.DEFAULT_TEMPLATE), false);
+	}
+}
@@ -0,0 +1,16 @@
+#!/bin/bash
+# Compiles the original component together with the benchmark sources and runs the benchmarks
+# Usage: ./benchmarksRun.sh [benchmark main class] [extra JVM options]
+
+BENCHMARK_CLASS=${1:-EventAllocationBenchmarks}
+shift
+
+echo Cleaning up...
+rm -rf benchmarks/classes
+mkdir -p benchmarks/classes
+
+echo Compiling...
+javac -Xlint:all -d benchmarks/classes -cp "libraries/thirdPartyComponent.jar:libraries/FortifyAnnotations-SOURCE.jar" originalPrimaryComponent/src/*.java benchmarks/src/*.java || exit 1
+
+echo Running...
+java -cp "benchmarks/classes:libraries/thirdPartyComponent.jar" -Dbenchmark.report=benchmarks/report.txt "$@" $BENCHMARK_CLASS
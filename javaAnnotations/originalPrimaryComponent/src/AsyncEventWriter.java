@@ -0,0 +1,357 @@
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+// Takes event writes off the calling thread
+// Producers enqueue into a bounded lock-free ring buffer and a single background writer drains it in batches
+// Flush waiters are released once per batch (group commit) instead of once per event
+
+final class AsyncEventWriter {
+
+	// Writes one event to its final destination and returns the destination's result code
+	// flush() follows every batch, so a sink that buffers writes hands them on once per batch
+	interface EventSink
+	{
+		int write(LogEvent event);
+
+		void flush();
+	}
+
+	// What producers do when the ring buffer is full
+	enum OverflowPolicy
+	{
+		// Wait for the writer to make room
+		BLOCK,
+		// Drop DEBUG events once the buffer passes its high-water mark; everything else waits
+		DROP_DEBUG_FIRST,
+		// Park overflow on a side queue of up to spillCapacity events that the writer drains after the ring buffer;
+		// once an event has spilled, later ones follow it until the queue is empty, so the order holds, and
+		// producers wait while it is full
+		SPILL
+	}
+
+	private static final long WRITER_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+	private static final long PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+	private final EventSink sink;
+	private final OverflowPolicy overflowPolicy;
+	private final int debugEventType;
+	private final int batchSize;
+	private final int capacity;
+	private final int mask;
+	private final int debugHighWaterMark;
+
+	// Ring buffer slots; a slot's sequence tells producers and the writer whose turn it is
+	private final AtomicLongArray sequences;
+	private final AtomicReferenceArray<LogEvent> slots;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+
+	// Guarded by itself; spilling is set with the first spilled event and cleared by the writer once it is empty
+	private final ArrayDeque<LogEvent> spill = new ArrayDeque<LogEvent>();
+	private final int spillCapacity;
+	private volatile boolean spilling;
+	private final AtomicLong spilled = new AtomicLong();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicInteger peakSize = new AtomicInteger();
+	private final Object flushMonitor = new Object();
+
+	private final Thread writerThread;
+	private volatile boolean writerWaiting;
+	private volatile boolean closed;
+
+	AsyncEventWriter(String name, EventSink sink, int capacity, int batchSize, OverflowPolicy overflowPolicy, int spillCapacity,
+			int debugEventType)
+	{
+		if (capacity < 2)
+			throw new IllegalArgumentException("capacity must be at least 2");
+		if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize must be positive");
+
+		int roundedCapacity = Integer.highestOneBit(capacity - 1) << 1;
+		this.sink = sink;
+		this.overflowPolicy = overflowPolicy;
+		this.debugEventType = debugEventType;
+		this.batchSize = batchSize;
+		this.spillCapacity = Math.max(1, spillCapacity);
+		this.capacity = roundedCapacity;
+		this.mask = roundedCapacity - 1;
+		this.debugHighWaterMark = roundedCapacity - (roundedCapacity / 4);
+		this.sequences = new AtomicLongArray(roundedCapacity);
+		this.slots = new AtomicReferenceArray<LogEvent>(roundedCapacity);
+		for (int index = 0; index < roundedCapacity; index++)
+			sequences.set(index, index);
+
+		writerThread = new DaemonThreadFactory(name).newThread(new Runnable() {
+			public void run()
+			{
+				drainUntilClosed();
+			}
+		});
+		writerThread.start();
+	}
+
+	// Queues an event for the writer; returns false if it was dropped by the overflow policy
+	boolean submit(LogEvent event)
+	{
+		if (closed)
+		{
+			// The writer is gone; write on the caller so nothing is lost during shutdown
+			writeEvent(event);
+			flushSink();
+			return true;
+		}
+
+		if ((overflowPolicy == OverflowPolicy.DROP_DEBUG_FIRST) && (event.getEventType() == debugEventType) && (size() >= debugHighWaterMark))
+		{
+			dropped.incrementAndGet();
+			return false;
+		}
+
+		submitted.incrementAndGet();
+		while (!enqueue(event))
+		{
+			if (closed)
+			{
+				submitted.decrementAndGet();
+				writeEvent(event);
+				flushSink();
+				return true;
+			}
+			wakeWriter();
+			LockSupport.parkNanos(PRODUCER_PARK_NANOS);
+		}
+		wakeWriter();
+		raisePeakSize();
+		if (closed && !writerThread.isAlive())
+			drainRemaining();
+		return true;
+	}
+
+	// Blocks until every event submitted before this call has been written
+	void flush()
+	{
+		long target = submitted.get();
+		synchronized (flushMonitor)
+		{
+			while ((completed.get() < target) && writerThread.isAlive())
+			{
+				wakeWriter();
+				try
+				{
+					flushMonitor.wait(10);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	// Drains every queued event and stops the writer; later submissions are written on the caller
+	void close()
+	{
+		closed = true;
+		LockSupport.unpark(writerThread);
+		boolean interrupted = false;
+		while (writerThread.isAlive())
+		{
+			try
+			{
+				writerThread.join();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+		drainRemaining();
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	int size()
+	{
+		return (int) (tail.get() - head);
+	}
+
+	// Largest number of events seen waiting after a submission
+	int getPeakSize()
+	{
+		return peakSize.get();
+	}
+
+	long getDroppedCount()
+	{
+		return dropped.get();
+	}
+
+	// Events that went to the spill queue since the writer started
+	long getSpilledCount()
+	{
+		return spilled.get();
+	}
+
+	private boolean enqueue(LogEvent event)
+	{
+		if (overflowPolicy != OverflowPolicy.SPILL)
+			return offer(event);
+		if (!spilling && offer(event))
+			return true;
+		synchronized (spill)
+		{
+			if (spill.size() >= spillCapacity)
+				return false;
+			spilling = true;
+			spill.add(event);
+		}
+		spilled.incrementAndGet();
+		return true;
+	}
+
+	private boolean offer(LogEvent event)
+	{
+		while (true)
+		{
+			long position = tail.get();
+			int index = (int) (position & mask);
+			long difference = sequences.get(index) - position;
+			if (difference == 0)
+			{
+				if (tail.compareAndSet(position, position + 1))
+				{
+					slots.lazySet(index, event);
+					sequences.lazySet(index, position + 1);
+					return true;
+				}
+			}
+			else if (difference < 0)
+			{
+				return false;
+			}
+		}
+	}
+
+	private LogEvent poll()
+	{
+		int index = (int) (head & mask);
+		if (sequences.get(index) != head + 1)
+			return pollSpill();
+
+		LogEvent event = slots.get(index);
+		slots.lazySet(index, null);
+		sequences.lazySet(index, head + capacity);
+		head++;
+		return event;
+	}
+
+	// The ring buffer is empty, so what spilled comes next
+	private LogEvent pollSpill()
+	{
+		if (!spilling)
+			return null;
+		synchronized (spill)
+		{
+			LogEvent event = spill.poll();
+			if (event == null)
+				spilling = false;
+			return event;
+		}
+	}
+
+	private void raisePeakSize()
+	{
+		int depth = size();
+		int peak;
+		while ((depth > (peak = peakSize.get())) && !peakSize.compareAndSet(peak, depth))
+		{
+			// Another producer raised the peak; compare again
+		}
+	}
+
+	private void wakeWriter()
+	{
+		if (writerWaiting)
+			LockSupport.unpark(writerThread);
+	}
+
+	private void drainUntilClosed()
+	{
+		LogEvent[] batch = new LogEvent[batchSize];
+		while (true)
+		{
+			int count = 0;
+			LogEvent event;
+			while ((count < batchSize) && ((event = poll()) != null))
+				batch[count++] = event;
+
+			if (count == 0)
+			{
+				if (closed)
+					break;
+				writerWaiting = true;
+				if ((size() == 0) && !spilling && !closed)
+					LockSupport.parkNanos(WRITER_IDLE_PARK_NANOS);
+				writerWaiting = false;
+				continue;
+			}
+
+			for (int index = 0; index < count; index++)
+			{
+				writeEvent(batch[index]);
+				batch[index] = null;
+			}
+			flushSink();
+			completed.addAndGet(count);
+			synchronized (flushMonitor)
+			{
+				flushMonitor.notifyAll();
+			}
+		}
+	}
+
+	// Writes anything that raced with close(); only called once the writer thread has stopped
+	private synchronized void drainRemaining()
+	{
+		LogEvent event;
+		while ((event = poll()) != null)
+		{
+			writeEvent(event);
+			completed.incrementAndGet();
+		}
+		flushSink();
+	}
+
+	private void writeEvent(LogEvent event)
+	{
+		try
+		{
+			sink.write(event);
+		}
+		catch (RuntimeException e)
+		{
+			// A failing sink must not stop the writer
+			System.err.println("Event write failed: " + e);
+		}
+	}
+
+	private void flushSink()
+	{
+		try
+		{
+			sink.flush();
+		}
+		catch (RuntimeException e)
+		{
+			System.err.println("Event flush failed: " + e);
+		}
+	}
+}
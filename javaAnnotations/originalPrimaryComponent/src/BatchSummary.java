@@ -0,0 +1,49 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Tracks the outcome of a batch run: users processed, users failed and overall throughput
+// Counters are atomic so users may complete on any thread
+
+final class BatchSummary {
+
+	private final long startTime = System.nanoTime();
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	void userCompleted(boolean succeeded)
+	{
+		processed.incrementAndGet();
+		if (!succeeded)
+			failed.incrementAndGet();
+	}
+
+	long getProcessed()
+	{
+		return processed.get();
+	}
+
+	long getFailed()
+	{
+		return failed.get();
+	}
+
+	long getElapsedMillis()
+	{
+		return (System.nanoTime() - startTime) / 1000000L;
+	}
+
+	double getThroughput()
+	{
+		long elapsedMillis = getElapsedMillis();
+		if (elapsedMillis == 0)
+			return 0;
+		return (processed.get() * 1000.0) / elapsedMillis;
+	}
+
+	public String toString()
+	{
+		return "users processed = " + getProcessed() +
+				" failed = " + getFailed() +
+				" elapsed = " + getElapsedMillis() + " ms" +
+				" throughput = " + String.format("%.1f", getThroughput()) + " users/s";
+	}
+}
@@ -0,0 +1,39 @@
+// Masks card numbers for display: every digit except the last four becomes '*'
+// Separators such as spaces and dashes are kept, so "1234 5678 9012 3456" shows as "**** **** **** 3456"
+
+final class CardNumberMasker {
+
+	static final int VISIBLE_DIGITS = 4;
+	static final char MASK = '*';
+
+	private CardNumberMasker()
+	{
+	}
+
+	static void appendMasked(CharSequence cardNumber, StringBuilder out)
+	{
+		if (cardNumber == null)
+			return;
+		int digits = 0;
+		for (int index = 0; index < cardNumber.length(); index++)
+		{
+			if (isDigit(cardNumber.charAt(index)))
+				digits++;
+		}
+
+		int maskedDigits = digits - VISIBLE_DIGITS;
+		for (int index = 0; index < cardNumber.length(); index++)
+		{
+			char c = cardNumber.charAt(index);
+			if (isDigit(c) && (maskedDigits-- > 0))
+				out.append(MASK);
+			else
+				out.append(c);
+		}
+	}
+
+	private static boolean isDigit(char c)
+	{
+		return (c >= '0') && (c <= '9');
+	}
+}
@@ -0,0 +1,55 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pool of equally sized direct ByteBuffers
+// Direct buffers are costly to allocate and are only freed when the garbage collector gets round to them,
+// so released buffers are kept for reuse; at most maximumIdle of them are retained
+
+final class DirectBufferPool {
+
+	private final int bufferBytes;
+	private final BlockingQueue<ByteBuffer> idle;
+	private final AtomicLong allocated = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	DirectBufferPool(int bufferBytes, int maximumIdle)
+	{
+		if (bufferBytes < 64)
+			throw new IllegalArgumentException("bufferBytes must be at least 64");
+		this.bufferBytes = bufferBytes;
+		this.idle = new ArrayBlockingQueue<ByteBuffer>(Math.max(1, maximumIdle));
+	}
+
+	// Returns a cleared buffer, allocating one when none is idle
+	ByteBuffer acquire()
+	{
+		ByteBuffer buffer = idle.poll();
+		if (buffer != null)
+		{
+			reused.incrementAndGet();
+			return buffer;
+		}
+		allocated.incrementAndGet();
+		return ByteBuffer.allocateDirect(bufferBytes);
+	}
+
+	void release(ByteBuffer buffer)
+	{
+		if ((buffer == null) || (buffer.capacity() != bufferBytes))
+			return;
+		buffer.clear();
+		idle.offer(buffer);
+	}
+
+	int getBufferBytes()
+	{
+		return bufferBytes;
+	}
+
+	public String toString()
+	{
+		return "direct buffer pool: idle = " + idle.size() + " allocated = " + allocated + " reused = " + reused;
+	}
+}
@@ -0,0 +1,238 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.zip.Inflater;
+
+// Reads the events of a time range back from an EventStore directory
+// Only the index of each segment is read in full; a block is read and inflated only when its timestamps overlap
+// the range, and its events are then decoded with EventLogDecoder; a block cut short by a crash, or one that does
+// not inflate or decode, is skipped and counted, and the query goes on with the next one
+// The directory may hold a store, or stores in its subdirectories as MainComponent keeps one per event target;
+// stores are read one after another, in name order
+// Usage: java EventStoreQuery <directory> <from> <to> [text]
+// prints the events with from <= timestamp < to, in storage order, whose message or description contains text;
+// times are milliseconds since the epoch, or UTC yyyy-MM-dd, yyyy-MM-dd'T'HH:mm or yyyy-MM-dd'T'HH:mm:ss
+
+final class EventStoreQuery {
+
+	// Receives the events of a query
+	interface EntryHandler
+	{
+		void handle(EventLogDecoder.Entry entry);
+	}
+
+	private static final String[] TIME_FORMATS = { "yyyy-MM-dd'T'HH:mm:ss", "yyyy-MM-dd'T'HH:mm", "yyyy-MM-dd" };
+
+	private final File directory;
+	private final Inflater inflater = new Inflater();
+	private long segmentsRead;
+	private long blocksRead;
+	private long blocksSkipped;
+	private long blocksCorrupt;
+	private long bytesRead;
+
+	EventStoreQuery(File directory)
+	{
+		this.directory = directory;
+	}
+
+	// Hands every event with from <= timestamp < to to the handler; returns how many there were
+	long run(long from, long to, EntryHandler handler) throws IOException
+	{
+		long matched = run(directory, from, to, handler);
+		String[] names = directory.list();
+		if (names == null)
+			return matched;
+		Arrays.sort(names);
+		for (int name = 0; name < names.length; name++)
+		{
+			File store = new File(directory, names[name]);
+			if (store.isDirectory())
+				matched += run(store, from, to, handler);
+		}
+		return matched;
+	}
+
+	private long run(File store, long from, long to, EntryHandler handler) throws IOException
+	{
+		long matched = 0;
+		String[] names = EventStore.segmentNames(store);
+		for (int name = 0; name < names.length; name++)
+		{
+			long[] index = readIndex(EventStore.indexFile(store, names[name]));
+			if (index.length == 0)
+				continue;
+			segmentsRead++;
+			RandomAccessFile data = null;
+			try
+			{
+				for (int entry = 0; entry < index.length; entry += 4)
+				{
+					if ((index[entry + 1] < from) || (index[entry] >= to))
+					{
+						blocksSkipped++;
+						continue;
+					}
+					if (data == null)
+						data = new RandomAccessFile(new File(store, names[name]), "r");
+					// Cut short by a crash; the store repairs it if it ever writes to the segment again
+					if ((index[entry + 2] < 0) || (index[entry + 3] < EventStore.BLOCK_HEADER_BYTES) ||
+							(index[entry + 2] + index[entry + 3] > data.length()))
+					{
+						blocksSkipped++;
+						continue;
+					}
+					List<EventLogDecoder.Entry> entries = readBlock(data, index[entry + 2], (int) index[entry + 3], names[name]);
+					if (entries == null)
+					{
+						blocksSkipped++;
+						blocksCorrupt++;
+						continue;
+					}
+					for (int event = 0; event < entries.size(); event++)
+					{
+						EventLogDecoder.Entry found = entries.get(event);
+						if ((found.timestamp >= from) && (found.timestamp < to))
+						{
+							handler.handle(found);
+							matched++;
+						}
+					}
+				}
+			}
+			finally
+			{
+				if (data != null)
+					data.close();
+			}
+		}
+		return matched;
+	}
+
+	public String toString()
+	{
+		return "event store query: segments = " + segmentsRead + " blocks read = " + blocksRead + " blocks skipped = " + blocksSkipped +
+				" (corrupt = " + blocksCorrupt + ") bytes read = " + bytesRead;
+	}
+
+	// Four longs per block: lowest timestamp, highest timestamp, offset, stored length; a torn last entry is ignored
+	private static long[] readIndex(File file) throws IOException
+	{
+		if (!file.isFile())
+			return new long[0];
+		long[] index = new long[(int) (file.length() / EventStore.INDEX_ENTRY_BYTES) * 4];
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			for (int entry = 0; entry < index.length; entry += 4)
+			{
+				index[entry] = in.readLong();
+				index[entry + 1] = in.readLong();
+				index[entry + 2] = in.readLong();
+				index[entry + 3] = in.readInt();
+			}
+		}
+		catch (EOFException e)
+		{
+			// Shrunk while we read it by a writer repairing the segment
+		}
+		finally
+		{
+			in.close();
+		}
+		return index;
+	}
+
+	// The events of a block, decoded in full before any is handed out; null when it does not inflate or decode
+	private List<EventLogDecoder.Entry> readBlock(RandomAccessFile data, long offset, int length, String segment) throws IOException
+	{
+		byte[] stored = new byte[length];
+		data.seek(offset);
+		data.readFully(stored);
+		blocksRead++;
+		bytesRead += length;
+
+		byte[] block = EventStore.inflateBlock(stored, inflater);
+		if (block == null)
+		{
+			System.err.println("Block at " + offset + " of " + segment + " is corrupt, skipped");
+			return null;
+		}
+		List<EventLogDecoder.Entry> entries = new ArrayList<EventLogDecoder.Entry>();
+		try
+		{
+			EventLogDecoder decoder = new EventLogDecoder(new ByteArrayInputStream(block));
+			EventLogDecoder.Entry entry;
+			while ((entry = decoder.next()) != null)
+				entries.add(entry);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Block at " + offset + " of " + segment + " does not decode, skipped: " + e.getMessage());
+			return null;
+		}
+		return entries;
+	}
+
+	static long parseTime(String value) throws ParseException
+	{
+		try
+		{
+			return Long.parseLong(value);
+		}
+		catch (NumberFormatException e)
+		{
+			// Not milliseconds; try the dates below
+		}
+		for (int index = 0; index < TIME_FORMATS.length; index++)
+		{
+			SimpleDateFormat format = new SimpleDateFormat(TIME_FORMATS[index]);
+			format.setTimeZone(TimeZone.getTimeZone("UTC"));
+			format.setLenient(false);
+			try
+			{
+				return format.parse(value).getTime();
+			}
+			catch (ParseException e)
+			{
+				// Try the next format
+			}
+		}
+		throw new ParseException("not a time: " + value, 0);
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if ((args.length < 3) || (args.length > 4))
+		{
+			System.err.println("usage: EventStoreQuery <directory> <from> <to> [text]");
+			System.exit(2);
+		}
+		final String text = (args.length == 4) ? args[3] : null;
+		EventStoreQuery query = new EventStoreQuery(new File(args[0]));
+		long inRange = query.run(parseTime(args[1]), parseTime(args[2]), new EntryHandler() {
+			public void handle(EventLogDecoder.Entry entry)
+			{
+				if ((text == null) || contains(entry.message, text) || contains(entry.description, text))
+					System.out.println(entry);
+			}
+		});
+		System.err.println(inRange + " events in range; " + query);
+	}
+
+	private static boolean contains(String value, String text)
+	{
+		return (value != null) && (value.indexOf(text) >= 0);
+	}
+}
@@ -0,0 +1,105 @@
+// A single event on its way to the event log
+// Plain notes carry only a message, so no Throwable is created and no stack trace is filled in
+// Real exceptions are kept as the cause and keep their stack traces
+// Events logged from a template keep the template and their arguments, so the binary event log can store
+// the template once per segment
+
+final class LogEvent {
+
+	// In the order of MainComponent.EventType
+	static final String[] TYPE_NAMES = { "info", "warning", "fail", "critical", "unknown", "debug" };
+
+	private final int eventType;
+	private final int category;
+	private final long timestamp = System.currentTimeMillis();
+	private final String message;
+	private final Exception cause;
+	private final String template;
+	private final String[] arguments;
+
+	LogEvent(int eventType, int category, String message)
+	{
+		this(eventType, category, message, null);
+	}
+
+	LogEvent(int eventType, int category, String message, Exception cause)
+	{
+		this(eventType, category, message, cause, null, null);
+	}
+
+	private LogEvent(int eventType, int category, String message, Exception cause, String template, String[] arguments)
+	{
+		this.eventType = eventType;
+		this.category = category;
+		this.message = message;
+		this.cause = cause;
+		this.template = template;
+		this.arguments = arguments;
+	}
+
+	static LogEvent fromException(int eventType, int category, Exception cause)
+	{
+		return new LogEvent(eventType, category, cause.getMessage(), cause);
+	}
+
+	// The arguments are turned into text now, so later changes to them do not reach the log
+	static LogEvent fromTemplate(int eventType, int category, String template, Object[] arguments)
+	{
+		String[] text = new String[(arguments == null) ? 0 : arguments.length];
+		for (int index = 0; index < text.length; index++)
+			text[index] = String.valueOf(arguments[index]);
+		return new LogEvent(eventType, category, MessageTemplate.format(template, text), null, template, text);
+	}
+
+	int getEventType()
+	{
+		return eventType;
+	}
+
+	int getCategory()
+	{
+		return category;
+	}
+
+	// System.currentTimeMillis() when the event was created
+	long getTimestamp()
+	{
+		return timestamp;
+	}
+
+	String getMessage()
+	{
+		return message;
+	}
+
+	// The underlying exception, or null for a plain note
+	Exception getCause()
+	{
+		return cause;
+	}
+
+	// The template the message was formatted from, or null
+	String getTemplate()
+	{
+		return template;
+	}
+
+	// The formatted arguments of the template, or null
+	String[] getArguments()
+	{
+		return arguments;
+	}
+
+	// Text written alongside the message: the exception description when there is one, otherwise the message itself
+	String getDescription()
+	{
+		if (cause != null)
+			return cause.toString();
+		return message;
+	}
+
+	public String toString()
+	{
+		return getDescription();
+	}
+}
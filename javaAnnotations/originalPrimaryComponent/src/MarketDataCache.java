@@ -0,0 +1,212 @@
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Shares one parsed market data snapshot between all users
+// Entries younger than the staleness bound are served directly; once an entry passes the refresh-ahead
+// age a background fetch replaces it before it expires
+// Concurrent misses wait for a single upstream fetch, and a failed fetch falls back to the last snapshot
+
+final class MarketDataCache {
+
+	// Fetches a fresh snapshot from the upstream source
+	interface Source
+	{
+		InstrumentTable fetch() throws Exception;
+	}
+
+	private static final class Entry
+	{
+		final InstrumentTable data;
+		final long fetchedAt;
+
+		Entry(InstrumentTable data, long fetchedAt)
+		{
+			this.data = data;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+
+	private final Source source;
+	private final long maxStaleNanos;
+	private final long refreshAheadNanos;
+	private final ExecutorService refresher = Executors.newSingleThreadExecutor(new DaemonThreadFactory("market-data-refresh"));
+
+	private volatile Entry current;
+	private final AtomicReference<FutureTask<Entry>> inFlight = new AtomicReference<FutureTask<Entry>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleServed = new AtomicLong();
+	private final AtomicLong fetches = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	MarketDataCache(Source source, long maxStaleMillis, long refreshAheadMillis)
+	{
+		this.source = source;
+		this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(maxStaleMillis);
+		this.refreshAheadNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(refreshAheadMillis, maxStaleMillis));
+	}
+
+	// Returns the current snapshot, fetching it first when missing or too stale; tables are immutable
+	// so every caller can share the same one
+	InstrumentTable get() throws MainComponent.ApplicationException
+	{
+		Entry entry = current;
+		if (entry != null)
+		{
+			long age = System.nanoTime() - entry.fetchedAt;
+			if (age < maxStaleNanos)
+			{
+				hits.incrementAndGet();
+				if (age >= refreshAheadNanos)
+					refreshInBackground();
+				return entry.data;
+			}
+		}
+
+		misses.incrementAndGet();
+		try
+		{
+			return awaitFetch(startFetch()).data;
+		}
+		catch (MainComponent.ApplicationException e)
+		{
+			if (entry == null)
+				throw e;
+			staleServed.incrementAndGet();
+			return entry.data;
+		}
+	}
+
+	// Fetches a new snapshot now, even if the current one is fresh
+	void forceRefresh() throws MainComponent.ApplicationException
+	{
+		awaitFetch(startFetch());
+	}
+
+	long getHitCount()
+	{
+		return hits.get();
+	}
+
+	long getMissCount()
+	{
+		return misses.get();
+	}
+
+	long getStaleServedCount()
+	{
+		return staleServed.get();
+	}
+
+	long getFetchCount()
+	{
+		return fetches.get();
+	}
+
+	long getFailureCount()
+	{
+		return failures.get();
+	}
+
+	void close()
+	{
+		refresher.shutdownNow();
+	}
+
+	public String toString()
+	{
+		return "market data cache: hits = " + hits + " misses = " + misses + " stale served = " + staleServed +
+				" upstream fetches = " + fetches + " failures = " + failures;
+	}
+
+	private void refreshInBackground()
+	{
+		if (inFlight.get() != null)
+			return;
+		final FutureTask<Entry> fetch = startFetch();
+		try
+		{
+			refresher.execute(new Runnable() {
+				public void run()
+				{
+					fetch.run();
+				}
+			});
+		}
+		catch (RuntimeException e)
+		{
+			// The refresher has been shut down; the next miss will fetch on its own thread
+		}
+	}
+
+	// Returns the fetch in progress, or registers a new one; a new fetch has not been run yet
+	private FutureTask<Entry> startFetch()
+	{
+		while (true)
+		{
+			FutureTask<Entry> existing = inFlight.get();
+			if (existing != null)
+				return existing;
+
+			FutureTask<Entry> fetch = new FetchTask();
+			if (inFlight.compareAndSet(null, fetch))
+				return fetch;
+		}
+	}
+
+	// One upstream fetch; publishes the new entry and clears itself from inFlight when finished
+	private final class FetchTask extends FutureTask<Entry>
+	{
+		FetchTask()
+		{
+			super(new Callable<Entry>() {
+				public Entry call() throws Exception
+				{
+					fetches.incrementAndGet();
+					try
+					{
+						Entry entry = new Entry(source.fetch(), System.nanoTime());
+						current = entry;
+						return entry;
+					}
+					catch (Exception e)
+					{
+						failures.incrementAndGet();
+						throw e;
+					}
+				}
+			});
+		}
+
+		protected void done()
+		{
+			inFlight.compareAndSet(this, null);
+		}
+	}
+
+	private Entry awaitFetch(FutureTask<Entry> fetch) throws MainComponent.ApplicationException
+	{
+		// Running an already started or finished task is a no-op, so whichever caller gets here first does the work
+		fetch.run();
+		try
+		{
+			return fetch.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new MainComponent.ApplicationException("market data fetch interrupted");
+		}
+		catch (ExecutionException e)
+		{
+			throw new MainComponent.ApplicationException("market data unavailable: " + e.getCause());
+		}
+	}
+}
@@ -0,0 +1,126 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Removes card numbers from exception and log text before it is shown
+// Works on the text alone: no Throwable is created, so no stack trace is filled in
+// A card number is four groups of four digits separated by spaces, dashes or nothing; anywhere in the text it is
+// masked the way CardNumberMasker shows cards, and text that is nothing but a card number becomes empty
+// Error storms repeat the same few messages, so text found to hold no card number is remembered in a bounded
+// cache that drops the least recently used text; the cache never keeps a card number: text that held one is
+// masked again every time, as is text longer than MAXIMUM_MEMO_LENGTH
+
+final class MessageSanitizer {
+
+	static final int MAXIMUM_MEMO_LENGTH = 512;
+
+	private static final Pattern CARD_NUMBER = Pattern.compile("(?<![0-9])[0-9]{4}([ -]?)[0-9]{4}\\1[0-9]{4}\\1[0-9]{4}(?![0-9])");
+	private static final int CARD_DIGITS = 16;
+	private static final String NOTE_CLASS_NAME = Exception.class.getName();
+
+	// Text known to need no masking, mapped to itself
+	private final Map<String, String> memo;
+	private long hits;
+	private long misses;
+	private long masked;
+
+	MessageSanitizer(final int maximumSize)
+	{
+		if (maximumSize < 0)
+			throw new IllegalArgumentException("maximumSize must not be negative");
+		memo = new LinkedHashMap<String, String>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+			{
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	// The description of the exception, as Throwable.toString() gives it, without card numbers
+	String sanitize(Exception e)
+	{
+		return sanitize(e.toString());
+	}
+
+	// The description new Exception(message) would have, without creating it; how plain notes are shown
+	String sanitizeNote(String message)
+	{
+		if (message == null)
+			return sanitize(NOTE_CLASS_NAME);
+		return sanitize(NOTE_CLASS_NAME + ": " + message);
+	}
+
+	String sanitize(String text)
+	{
+		if (text == null)
+			return null;
+		boolean memoized = text.length() <= MAXIMUM_MEMO_LENGTH;
+		if (memoized)
+		{
+			synchronized (this)
+			{
+				String sanitized = memo.get(text);
+				if (sanitized != null)
+				{
+					hits++;
+					return sanitized;
+				}
+				misses++;
+			}
+		}
+
+		String sanitized = mask(text);
+		synchronized (this)
+		{
+			if (sanitized != text)
+				masked++;
+			else if (memoized)
+				memo.put(text, text);
+		}
+		return sanitized;
+	}
+
+	public synchronized String toString()
+	{
+		long lookups = hits + misses;
+		long hitRate = (lookups == 0) ? 0 : Math.round(100.0 * hits / lookups);
+		return "message sanitizer: memoized = " + memo.size() + " hits = " + hits + " misses = " + misses +
+				" hit rate = " + hitRate + "% masked = " + masked;
+	}
+
+	// Returns text itself when it holds no card number
+	private static String mask(String text)
+	{
+		// Most text has too few digits to hold a card number; counting them is cheaper than matching
+		int digits = 0;
+		for (int index = 0; (index < text.length()) && (digits < CARD_DIGITS); index++)
+		{
+			char c = text.charAt(index);
+			if ((c >= '0') && (c <= '9'))
+				digits++;
+		}
+		if (digits < CARD_DIGITS)
+			return text;
+
+		Matcher matcher = CARD_NUMBER.matcher(text);
+		if (!matcher.find())
+			return text;
+		if ((matcher.start() == 0) && (matcher.end() == text.length()))
+			return "";
+
+		StringBuilder out = new StringBuilder(text.length());
+		int copied = 0;
+		do
+		{
+			out.append(text, copied, matcher.start());
+			CardNumberMasker.appendMasked(text.subSequence(matcher.start(), matcher.end()), out);
+			copied = matcher.end();
+		}
+		while (matcher.find());
+		out.append(text, copied, text.length());
+		return out.toString();
+	}
+}
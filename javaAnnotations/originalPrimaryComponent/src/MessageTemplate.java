@@ -0,0 +1,35 @@
+// Builds event messages only once they are known to be recorded
+// A template marks each argument with {}; arguments without a marker are ignored and markers without an
+// argument are kept as they are
+// Messages that need more than a template implement Deferred, whose build() runs only for enabled events
+
+final class MessageTemplate {
+
+	interface Deferred
+	{
+		String build();
+	}
+
+	private static final String MARKER = "{}";
+
+	private MessageTemplate()
+	{
+	}
+
+	static String format(String template, Object[] arguments)
+	{
+		if ((template == null) || (arguments == null) || (arguments.length == 0))
+			return template;
+		StringBuilder message = new StringBuilder(template.length() + 16 * arguments.length);
+		int copied = 0;
+		for (int index = 0; index < arguments.length; index++)
+		{
+			int marker = template.indexOf(MARKER, copied);
+			if (marker < 0)
+				break;
+			message.append(template, copied, marker).append(arguments[index]);
+			copied = marker + MARKER.length();
+		}
+		return message.append(template, copied, template.length()).toString();
+	}
+}
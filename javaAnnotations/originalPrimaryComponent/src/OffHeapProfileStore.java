@@ -0,0 +1,500 @@
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+// Bounded cache of user profiles kept outside the Java heap
+// Each profile is encoded into a fixed-size slot of a direct ByteBuffer:
+//   int usedBytes | int keyLength | key bytes | int fieldCount | (int fieldLength | field bytes)*
+// A field length of -1 stands for a null field; all text is UTF-8
+// The heap only holds primitive arrays for the hash index and the eviction policy, so millions of
+// resident profiles add almost nothing for the garbage collector to trace
+// Slots are wiped when a profile is evicted or invalidated, so credentials do not linger in memory; fields are
+// decoded straight from the slot, and the characters of the shared decode buffer are wiped after every read
+
+final class OffHeapProfileStore {
+
+	// Decides which resident profile to evict and whether a new profile deserves a slot at all
+	interface EvictionPolicy
+	{
+		void onHit(int slot, int keyHash);
+
+		void onMiss(int keyHash);
+
+		void onInsert(int slot, int keyHash);
+
+		void onRemove(int slot);
+
+		// Slot to evict when the store is full
+		int selectVictim();
+
+		// Whether a new profile should replace the victim
+		boolean admit(int candidateHash, int victimHash);
+	}
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int SLOTS_PER_SEGMENT = 4096;
+	private static final int EMPTY = 0;
+	// A segment of slots is a single direct buffer
+	private static final int MAXIMUM_SLOT_SIZE = Integer.MAX_VALUE / SLOTS_PER_SEGMENT;
+
+	private final int capacity;
+	private final int slotSize;
+	private final EvictionPolicy policy;
+
+	// Direct buffers are allocated lazily, one segment of slots at a time
+	private final ByteBuffer[] segments;
+
+	// Linear probing hash index: each entry is slot + 1, or EMPTY
+	private final int[] index;
+	private final int indexMask;
+	private final int[] slotHashes;
+
+	// Guarded by this; a UTF-8 field never decodes to more characters than it has bytes
+	private final CharsetDecoder decoder = UTF8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharBuffer chars;
+
+	private final int[] freeSlots;
+	private int freeCount;
+	private int nextUnusedSlot;
+	private int size;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long rejections;
+
+	OffHeapProfileStore(int capacity, int slotSize, EvictionPolicy policy)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity must be positive");
+		if ((slotSize < 16) || (slotSize > MAXIMUM_SLOT_SIZE))
+			throw new IllegalArgumentException("slotSize must be between 16 and " + MAXIMUM_SLOT_SIZE + " bytes");
+
+		this.capacity = capacity;
+		this.slotSize = slotSize;
+		this.policy = policy;
+		this.segments = new ByteBuffer[(capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT];
+
+		int indexSize = Integer.highestOneBit(Math.max(2, capacity * 2 - 1)) << 1;
+		this.index = new int[indexSize];
+		this.indexMask = indexSize - 1;
+		this.slotHashes = new int[capacity];
+		this.freeSlots = new int[capacity];
+		this.chars = CharBuffer.allocate(slotSize);
+	}
+
+	static EvictionPolicy leastRecentlyUsed(int capacity)
+	{
+		return new LruPolicy(capacity);
+	}
+
+	static EvictionPolicy frequencyAdmission(int capacity)
+	{
+		return new FrequencyAdmissionPolicy(capacity);
+	}
+
+	// Returns a copy of the cached profile, or null when userID is not resident
+	synchronized String[] get(String userID)
+	{
+		byte[] key = userID.getBytes(UTF8);
+		int hash = hash(userID);
+		int slot = find(key, hash);
+		if (slot < 0)
+		{
+			misses++;
+			policy.onMiss(hash);
+			return null;
+		}
+		hits++;
+		policy.onHit(slot, hash);
+		return decodeFields(slot, key.length);
+	}
+
+	// Whether userID is resident, without counting as an access
+	synchronized boolean contains(String userID)
+	{
+		return find(userID.getBytes(UTF8), hash(userID)) >= 0;
+	}
+
+	// Caches a profile; returns false if it does not fit in a slot or was not admitted
+	synchronized boolean put(String userID, String[] profile)
+	{
+		byte[] key = userID.getBytes(UTF8);
+		int hash = hash(userID);
+		byte[][] fields = new byte[profile.length][];
+		int encodedSize = 4 + 4 + key.length + 4;
+		for (int field = 0; field < profile.length; field++)
+		{
+			if (profile[field] != null)
+			{
+				fields[field] = profile[field].getBytes(UTF8);
+				encodedSize += fields[field].length;
+			}
+			encodedSize += 4;
+		}
+		if (encodedSize > slotSize)
+		{
+			rejections++;
+			return false;
+		}
+
+		int slot = find(key, hash);
+		if (slot >= 0)
+		{
+			// Replace in place, wiping the previous contents first
+			wipe(slot);
+			encode(slot, key, fields, encodedSize);
+			policy.onHit(slot, hash);
+			return true;
+		}
+
+		slot = allocateSlot(hash);
+		if (slot < 0)
+		{
+			rejections++;
+			return false;
+		}
+		encode(slot, key, fields, encodedSize);
+		slotHashes[slot] = hash;
+		insertIndex(slot, hash);
+		policy.onInsert(slot, hash);
+		size++;
+		return true;
+	}
+
+	// Removes and wipes a profile; returns false if it was not resident
+	synchronized boolean invalidate(String userID)
+	{
+		int slot = find(userID.getBytes(UTF8), hash(userID));
+		if (slot < 0)
+			return false;
+		remove(slot);
+		return true;
+	}
+
+	synchronized int size()
+	{
+		return size;
+	}
+
+	public synchronized String toString()
+	{
+		return "user profile store: resident = " + size + " capacity = " + capacity +
+				" hits = " + hits + " misses = " + misses + " evictions = " + evictions + " rejections = " + rejections;
+	}
+
+	private int allocateSlot(int candidateHash)
+	{
+		if (freeCount > 0)
+			return freeSlots[--freeCount];
+		if (nextUnusedSlot < capacity)
+			return nextUnusedSlot++;
+
+		int victim = policy.selectVictim();
+		if (!policy.admit(candidateHash, slotHashes[victim]))
+			return -1;
+		remove(victim);
+		evictions++;
+		return freeSlots[--freeCount];
+	}
+
+	private void remove(int slot)
+	{
+		removeIndex(slot, slotHashes[slot]);
+		policy.onRemove(slot);
+		wipe(slot);
+		freeSlots[freeCount++] = slot;
+		size--;
+	}
+
+	private int find(byte[] key, int hash)
+	{
+		int position = hash & indexMask;
+		while (index[position] != EMPTY)
+		{
+			int slot = index[position] - 1;
+			if ((slotHashes[slot] == hash) && keyMatches(slot, key))
+				return slot;
+			position = (position + 1) & indexMask;
+		}
+		return -1;
+	}
+
+	private void insertIndex(int slot, int hash)
+	{
+		int position = hash & indexMask;
+		while (index[position] != EMPTY)
+			position = (position + 1) & indexMask;
+		index[position] = slot + 1;
+	}
+
+	// Backward shift deletion keeps probe chains intact without tombstones
+	private void removeIndex(int slot, int hash)
+	{
+		int position = hash & indexMask;
+		while (index[position] != slot + 1)
+			position = (position + 1) & indexMask;
+
+		int next = (position + 1) & indexMask;
+		while (index[next] != EMPTY)
+		{
+			int home = slotHashes[index[next] - 1] & indexMask;
+			if (((next - home) & indexMask) >= ((next - position) & indexMask))
+			{
+				index[position] = index[next];
+				position = next;
+			}
+			next = (next + 1) & indexMask;
+		}
+		index[position] = EMPTY;
+	}
+
+	private ByteBuffer segmentFor(int slot)
+	{
+		int segment = slot / SLOTS_PER_SEGMENT;
+		if (segments[segment] == null)
+		{
+			int slotsInSegment = Math.min(SLOTS_PER_SEGMENT, capacity - segment * SLOTS_PER_SEGMENT);
+			segments[segment] = ByteBuffer.allocateDirect(slotsInSegment * slotSize);
+		}
+		return segments[segment];
+	}
+
+	private int offsetOf(int slot)
+	{
+		return (slot % SLOTS_PER_SEGMENT) * slotSize;
+	}
+
+	private boolean keyMatches(int slot, byte[] key)
+	{
+		ByteBuffer segment = segmentFor(slot);
+		int offset = offsetOf(slot) + 4;
+		if (segment.getInt(offset) != key.length)
+			return false;
+		offset += 4;
+		for (int index = 0; index < key.length; index++)
+		{
+			if (segment.get(offset + index) != key[index])
+				return false;
+		}
+		return true;
+	}
+
+	private void encode(int slot, byte[] key, byte[][] fields, int encodedSize)
+	{
+		ByteBuffer segment = segmentFor(slot).duplicate();
+		segment.position(offsetOf(slot));
+		segment.putInt(encodedSize);
+		segment.putInt(key.length);
+		segment.put(key);
+		segment.putInt(fields.length);
+		for (int field = 0; field < fields.length; field++)
+		{
+			if (fields[field] == null)
+				segment.putInt(-1);
+			else
+			{
+				segment.putInt(fields[field].length);
+				segment.put(fields[field]);
+			}
+		}
+	}
+
+	private String[] decodeFields(int slot, int keyLength)
+	{
+		ByteBuffer segment = segmentFor(slot).duplicate();
+		int position = offsetOf(slot) + 4 + 4 + keyLength;
+		String[] profile = new String[segment.getInt(position)];
+		position += 4;
+		for (int field = 0; field < profile.length; field++)
+		{
+			int length = segment.getInt(position);
+			position += 4;
+			if (length < 0)
+				continue;
+			segment.limit(position + length);
+			segment.position(position);
+			chars.clear();
+			decoder.reset();
+			decoder.decode(segment, chars, true);
+			decoder.flush(chars);
+			chars.flip();
+			profile[field] = chars.toString();
+			Arrays.fill(chars.array(), 0, chars.limit(), '\0');
+			segment.limit(segment.capacity());
+			position += length;
+		}
+		return profile;
+	}
+
+	// Zeroes every byte the slot has used, including the credential
+	private void wipe(int slot)
+	{
+		ByteBuffer segment = segmentFor(slot);
+		int offset = offsetOf(slot);
+		int used = segment.getInt(offset);
+		for (int index = 0; index < used; index++)
+			segment.put(offset + index, (byte) 0);
+	}
+
+	private static int hash(String userID)
+	{
+		int hash = userID.hashCode();
+		return hash ^ (hash >>> 16);
+	}
+
+	// Classic least recently used ordering, kept as an intrusive doubly linked list of slot numbers
+	static class LruPolicy implements EvictionPolicy
+	{
+		private static final int NONE = -1;
+
+		private final int[] previous;
+		private final int[] next;
+		private int head = NONE;
+		private int tail = NONE;
+
+		LruPolicy(int capacity)
+		{
+			previous = new int[capacity];
+			next = new int[capacity];
+		}
+
+		public void onHit(int slot, int keyHash)
+		{
+			if (slot != head)
+			{
+				unlink(slot);
+				linkFirst(slot);
+			}
+		}
+
+		public void onMiss(int keyHash)
+		{
+		}
+
+		public void onInsert(int slot, int keyHash)
+		{
+			linkFirst(slot);
+		}
+
+		public void onRemove(int slot)
+		{
+			unlink(slot);
+		}
+
+		public int selectVictim()
+		{
+			return tail;
+		}
+
+		public boolean admit(int candidateHash, int victimHash)
+		{
+			return true;
+		}
+
+		private void linkFirst(int slot)
+		{
+			previous[slot] = NONE;
+			next[slot] = head;
+			if (head != NONE)
+				previous[head] = slot;
+			head = slot;
+			if (tail == NONE)
+				tail = slot;
+		}
+
+		private void unlink(int slot)
+		{
+			if (previous[slot] != NONE)
+				next[previous[slot]] = next[slot];
+			else
+				head = next[slot];
+			if (next[slot] != NONE)
+				previous[next[slot]] = previous[slot];
+			else
+				tail = previous[slot];
+		}
+	}
+
+	// LRU eviction guarded by a frequency based admission filter (TinyLFU)
+	// A new profile only displaces the LRU victim if it has been requested more often recently;
+	// the access counts live in a small count-min sketch that is halved periodically so it follows change
+	static final class FrequencyAdmissionPolicy extends LruPolicy
+	{
+		private static final int DEPTH = 4;
+		private static final int MAXIMUM_COUNT = 15;
+		private static final int[] SEEDS = { 0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F };
+
+		private final byte[][] counters = new byte[DEPTH][];
+		private final int widthMask;
+		private final int sampleSize;
+		private int samples;
+
+		FrequencyAdmissionPolicy(int capacity)
+		{
+			super(capacity);
+			int width = Integer.highestOneBit(Math.max(16, capacity - 1)) << 1;
+			for (int row = 0; row < DEPTH; row++)
+				counters[row] = new byte[width];
+			widthMask = width - 1;
+			sampleSize = capacity * 10;
+		}
+
+		public void onHit(int slot, int keyHash)
+		{
+			super.onHit(slot, keyHash);
+			increment(keyHash);
+		}
+
+		public void onMiss(int keyHash)
+		{
+			increment(keyHash);
+		}
+
+		public boolean admit(int candidateHash, int victimHash)
+		{
+			return frequency(candidateHash) > frequency(victimHash);
+		}
+
+		private int frequency(int keyHash)
+		{
+			int minimum = MAXIMUM_COUNT;
+			for (int row = 0; row < DEPTH; row++)
+				minimum = Math.min(minimum, counters[row][indexOf(keyHash, row)]);
+			return minimum;
+		}
+
+		private void increment(int keyHash)
+		{
+			for (int row = 0; row < DEPTH; row++)
+			{
+				int column = indexOf(keyHash, row);
+				if (counters[row][column] < MAXIMUM_COUNT)
+					counters[row][column]++;
+			}
+			if (++samples >= sampleSize)
+				age();
+		}
+
+		private void age()
+		{
+			samples = 0;
+			for (int row = 0; row < DEPTH; row++)
+			{
+				byte[] rowCounters = counters[row];
+				for (int column = 0; column < rowCounters.length; column++)
+					rowCounters[column] >>= 1;
+			}
+		}
+
+		private int indexOf(int keyHash, int row)
+		{
+			int mixed = keyHash * SEEDS[row];
+			return (mixed ^ (mixed >>> 15)) & widthMask;
+		}
+	}
+}
@@ -0,0 +1,236 @@
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+// Sidebar page template, compiled once into a flat list of operations: pre-encoded literal bytes, typed
+// slots, and the bounds of the section repeated for every instrument
+// Rendering only copies literal bytes and encodes slot values straight into the writer
+// A slot is typed by the Field it names, not by the template around it: the card number is always masked, then
+// escaped, and every other value is HTML escaped exactly once - here, or for the profile fields email and notes,
+// already by sanitizeUserDataForDisplay (step 5), whose output they are copied from as is
+// Syntax: {{field}} for a slot, {{#instruments}} ... {{/instruments}} for the instrument rows
+
+final class SidebarTemplate {
+
+	enum Encoding
+	{
+		HTML,
+		// Escaped by step 5 before the page is built
+		ESCAPED_PROFILE_FIELD,
+		MASKED_CARD_NUMBER
+	}
+
+	enum Field
+	{
+		USER_ID("userID", Encoding.HTML, false),
+		EMAIL("email", Encoding.ESCAPED_PROFILE_FIELD, false),
+		NOTES("notes", Encoding.ESCAPED_PROFILE_FIELD, false),
+		CARD_NUMBER("cardNumber", Encoding.MASKED_CARD_NUMBER, false),
+		SYMBOL("symbol", Encoding.HTML, true),
+		PRICE("price", Encoding.HTML, true);
+
+		final String templateName;
+		final Encoding encoding;
+		final boolean perInstrument;
+
+		Field(String templateName, Encoding encoding, boolean perInstrument)
+		{
+			this.templateName = templateName;
+			this.encoding = encoding;
+			this.perInstrument = perInstrument;
+		}
+	}
+
+	static final String DEFAULT_TEMPLATE =
+			"<!DOCTYPE html>\n<html><head><meta charset=\"UTF-8\"><title>Sidebar</title></head><body>\n" +
+			"<div class=\"sidebar\">\n" +
+			"<h1>{{userID}}</h1>\n" +
+			"<p class=\"email\">{{email}}</p>\n" +
+			"<p class=\"notes\">{{notes}}</p>\n" +
+			"<p class=\"card\">{{cardNumber}}</p>\n" +
+			"<table class=\"instruments\">\n" +
+			"{{#instruments}}<tr><td>{{symbol}}</td><td>{{price}}</td></tr>\n{{/instruments}}" +
+			"</table>\n</div>\n</body></html>\n";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SLOT_START = "{{";
+	private static final String SLOT_END = "}}";
+	private static final String ROWS_NAME = "instruments";
+
+	private static final int LITERAL = 0;
+	private static final int SLOT = 1;
+	private static final int ROWS_START = 2;
+	private static final int ROWS_END = 3;
+
+	private final int[] operations;
+	private final byte[][] literals;
+	private final Field[] fields;
+	// For ROWS_START, the index of the matching ROWS_END
+	private final int[] rowsEnd;
+
+	private SidebarTemplate(int[] operations, byte[][] literals, Field[] fields, int[] rowsEnd)
+	{
+		this.operations = operations;
+		this.literals = literals;
+		this.fields = fields;
+		this.rowsEnd = rowsEnd;
+	}
+
+	// Parses and pre-encodes a template; throws IllegalArgumentException for a malformed one
+	static SidebarTemplate compile(String source)
+	{
+		List<Integer> operations = new ArrayList<Integer>();
+		List<byte[]> literals = new ArrayList<byte[]>();
+		List<Field> fields = new ArrayList<Field>();
+		int rowsStart = -1;
+		int rowsEnd = -1;
+
+		int position = 0;
+		while (position < source.length())
+		{
+			int slotStart = source.indexOf(SLOT_START, position);
+			int literalEnd = (slotStart < 0) ? source.length() : slotStart;
+			if (literalEnd > position)
+				addOperation(operations, literals, fields, LITERAL, source.substring(position, literalEnd).getBytes(UTF8), null);
+			if (slotStart < 0)
+				break;
+
+			int slotEnd = source.indexOf(SLOT_END, slotStart);
+			if (slotEnd < 0)
+				throw new IllegalArgumentException("unterminated slot at offset " + slotStart);
+			String name = source.substring(slotStart + SLOT_START.length(), slotEnd).trim();
+			position = slotEnd + SLOT_END.length();
+			boolean insideRows = (rowsStart >= 0) && (rowsEnd < 0);
+
+			if (name.equals("#" + ROWS_NAME))
+			{
+				if (rowsStart >= 0)
+					throw new IllegalArgumentException("only one instruments section is supported");
+				rowsStart = operations.size();
+				addOperation(operations, literals, fields, ROWS_START, null, null);
+			}
+			else if (name.equals("/" + ROWS_NAME))
+			{
+				if (!insideRows)
+					throw new IllegalArgumentException("instruments section closed without being opened");
+				rowsEnd = operations.size();
+				addOperation(operations, literals, fields, ROWS_END, null, null);
+			}
+			else
+			{
+				Field field = fieldNamed(name);
+				if (field.perInstrument != insideRows)
+					throw new IllegalArgumentException("field " + name + (field.perInstrument ?
+							" can only be used inside the instruments section" : " cannot be used inside the instruments section"));
+				addOperation(operations, literals, fields, SLOT, null, field);
+			}
+		}
+		if ((rowsStart >= 0) && (rowsEnd < 0))
+			throw new IllegalArgumentException("instruments section is not closed");
+
+		int[] compiled = new int[operations.size()];
+		for (int index = 0; index < compiled.length; index++)
+			compiled[index] = operations.get(index).intValue();
+		int[] jumps = new int[compiled.length];
+		if (rowsStart >= 0)
+			jumps[rowsStart] = rowsEnd;
+		return new SidebarTemplate(compiled, literals.toArray(new byte[literals.size()][]),
+				fields.toArray(new Field[fields.size()]), jumps);
+	}
+
+	private static void addOperation(List<Integer> operations, List<byte[]> literals, List<Field> fields,
+			int operation, byte[] literal, Field field)
+	{
+		operations.add(Integer.valueOf(operation));
+		literals.add(literal);
+		fields.add(field);
+	}
+
+	void render(StreamingHtmlWriter writer, SidebarSubmission page) throws IOException
+	{
+		renderRange(writer, page, 0, operations.length, -1, new StringBuilder(32));
+	}
+
+	private void renderRange(StreamingHtmlWriter writer, SidebarSubmission page, int from, int to, int row, StringBuilder scratch) throws IOException
+	{
+		for (int index = from; index < to; index++)
+		{
+			switch (operations[index])
+			{
+			case LITERAL:
+				writer.bytes(literals[index]);
+				break;
+			case SLOT:
+				renderSlot(writer, page, fields[index], row, scratch);
+				break;
+			case ROWS_START:
+				int end = rowsEnd[index];
+				InstrumentTable instruments = page.financialInstruments;
+				if (instruments != null)
+				{
+					for (int instrument = 0; instrument < instruments.size(); instrument++)
+					{
+						if (!instruments.isMissing(instrument))
+							renderRange(writer, page, index + 1, end, instrument, scratch);
+					}
+				}
+				index = end;
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private void renderSlot(StreamingHtmlWriter writer, SidebarSubmission page, Field field, int row, StringBuilder scratch) throws IOException
+	{
+		scratch.setLength(0);
+		CharSequence value = null;
+		switch (field)
+		{
+		case USER_ID:
+			value = page.userID;
+			break;
+		case EMAIL:
+			value = page.userEmailAddress;
+			break;
+		case NOTES:
+			value = page.userCustomNotes;
+			break;
+		case CARD_NUMBER:
+			value = page.userCreditCardData;
+			break;
+		case SYMBOL:
+			value = page.financialInstruments.getSymbol(row);
+			break;
+		case PRICE:
+			page.financialInstruments.appendPriceTo(scratch, row);
+			value = scratch;
+			break;
+		}
+
+		if (field.encoding == Encoding.ESCAPED_PROFILE_FIELD)
+		{
+			writer.markup(value);
+			return;
+		}
+		if (field.encoding == Encoding.MASKED_CARD_NUMBER)
+		{
+			CardNumberMasker.appendMasked(value, scratch);
+			value = scratch;
+		}
+		writer.text(value);
+	}
+
+	private static Field fieldNamed(String name)
+	{
+		Field[] all = Field.values();
+		for (int index = 0; index < all.length; index++)
+		{
+			if (all[index].templateName.equals(name))
+				return all[index];
+		}
+		throw new IllegalArgumentException("unknown template field: " + name);
+	}
+}
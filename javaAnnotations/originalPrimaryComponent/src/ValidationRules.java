@@ -0,0 +1,43 @@
+// Every field rule used by MainComponent, compiled once when the class is loaded
+
+final class ValidationRules {
+
+	private static final String CONFIGURATION_CORRUPT = "Configuration file corrupt";
+
+	// loadConfiguration: positional fields of the server configuration file
+	static final ValidationRule SERVER_HOSTNAME = ValidationRule.forField("serverHostname")
+			.required().failureMessage(CONFIGURATION_CORRUPT).build();
+	static final ValidationRule INTERNAL_ACCESS_CODE = ValidationRule.forField("internalAccessCode")
+			.required().failureMessage(CONFIGURATION_CORRUPT).build();
+	static final ValidationRule DATABASE_TABLE = ValidationRule.forField("databaseTable")
+			.required().failureMessage(CONFIGURATION_CORRUPT).build();
+	static final ValidationRule TRANSACTION_KEY = ValidationRule.forField("sensitiveTransactionKey")
+			.required().failureMessage(CONFIGURATION_CORRUPT).build();
+	static final ValidationRule PASSWORD_LABEL = ValidationRule.forField("passwordLabel")
+			.required().failureMessage(CONFIGURATION_CORRUPT).build();
+
+	// postInformation: submissions may only go to internal hosts, equivalent to internal[A-Z]{2}
+	static final ValidationRule SUBMISSION_HOST = ValidationRule.forField("hostname")
+			.literal("internal").characters(ValidationRule.CharacterClass.UPPER, 2)
+			.failureMessage("unexpected host").build();
+
+	static final ValidationRule SUBMISSION_USER_ID = ValidationRule.forField("userID")
+			.required().failureMessage("userid not included in submission").build();
+
+	static final ValidationRule USER_CREDENTIAL_PRESENT = ValidationRule.forField("userAuthenticationCredential")
+			.required().failureMessage("user password not included in submission").build();
+
+	// Credential policy, equivalent to [A-Za-z]{7}[0-9]{3}
+	static final ValidationRule USER_CREDENTIAL_POLICY = ValidationRule.forField("userAuthenticationCredential")
+			.characters(ValidationRule.CharacterClass.ALPHA, 7).characters(ValidationRule.CharacterClass.DIGIT, 3)
+			.failureMessage("user password does not conform to policy").build();
+
+	// An unmasked card number, equivalent to [0-9]{16}
+	static final ValidationRule UNMASKED_CARD_NUMBER = ValidationRule.forField("userCreditCardData")
+			.characters(ValidationRule.CharacterClass.DIGIT, 16)
+			.failureMessage("credit card data not masked").build();
+
+	private ValidationRules()
+	{
+	}
+}